@@ -0,0 +1,107 @@
+package shuffle.adapters.store;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+import shuffle.core.Card;
+import shuffle.core.Deck;
+import shuffle.ports.DeckStore;
+
+import java.io.Closeable;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every {@link DeckStore} operation, for each store, against stores of different sizes.  Writes overwrite existing
+ * decks so the store stays the same size for the whole run.
+ *
+ * @author Drew Fead
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StoreBenchmark {
+    @Param({"memory", "mapped", "journal"})
+    public String type;
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    DeckStore store;
+    File directory;
+    final byte[] cards = new byte[Card.COUNT];
+
+    private static String name(int i) {
+        return String.format("benchmark-deck-%08d", i);
+    }
+
+    private Deck deck(String name) {
+        final Deck deck = new Deck();
+        deck.setName(name);
+        deck.setOrdinals(cards.clone());
+        return deck;
+    }
+
+    private String anyName() {
+        return name(ThreadLocalRandom.current().nextInt(size));
+    }
+
+    @Setup public void init() throws Exception {
+        for(int i = 0; i < cards.length; i++) {
+            cards[i] = (byte) i;
+        }
+
+        directory = Files.createTempDirectory("store-benchmark").toFile();
+        switch (type) {
+            case "memory": store = new InMemoryStore(); break;
+            case "mapped": store = new MappedStore(directory, size + 1); break;
+            case "journal":
+                store = new JournalStore(directory, JournalStore.Sync.FSYNC, 0, 64 * 1024 * 1024);
+                break;
+            default: throw new IllegalArgumentException("unknown store type: " + type);
+        }
+
+        for(int i = 0; i < size; i++) {
+            store.upsert(deck(name(i)));
+        }
+    }
+
+    @TearDown public void cleanup() throws Exception {
+        if(store instanceof Closeable) {
+            ((Closeable) store).close();
+        }
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Benchmark public Optional<Deck> findOne() {
+        return store.findOne(anyName());
+    }
+
+    @Benchmark public Optional<Deck> upsert() {
+        return store.upsert(deck(anyName()));
+    }
+
+    @Benchmark public Optional<Deck> update() {
+        return store.update(anyName(), deck -> deck);
+    }
+
+    @Benchmark public List<Deck> findPage() {
+        return store.findPage(10, ThreadLocalRandom.current().nextInt(size));
+    }
+
+    @Benchmark public List<Deck> findPageAfter() {
+        return store.findPageAfter(anyName(), 10);
+    }
+
+    @Benchmark public Optional<Deck> deleteAndRecreate() {
+        final String name = anyName();
+        store.delete(name);
+        return store.upsert(deck(name));
+    }
+}
@@ -0,0 +1,76 @@
+package shuffle.core;
+
+import org.openjdk.jmh.annotations.*;
+import shuffle.adapters.store.InMemoryStore;
+import shuffle.ports.ActionHandler;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Handlers end to end, from request bytes to response bytes, on one thread and on every core.  Each thread works on
+ * its own deck, so the contended runs measure the handlers and the store's locking rather than a single hot key.
+ *
+ * @author Drew Fead
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandlerBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Service {
+        DeckHandlers handlers;
+        final AtomicInteger threads = new AtomicInteger();
+
+        @Setup public void init() {
+            handlers = new DeckHandlers(new InMemoryStore(), 10);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Request {
+        byte[] name;    // describe takes the bare name
+        byte[] body;    // create and shuffle take it in JSON
+
+        @Setup public void init(Service service) throws Exception {
+            final String deck = "benchmark-deck-" + service.threads.getAndIncrement();
+            name = deck.getBytes(StandardCharsets.UTF_8);
+            body = String.format("{\"name\":\"%s\"}", deck).getBytes(StandardCharsets.UTF_8);
+            service.handlers.CREATE.handle("benchmark", body);
+
+            final ActionHandler.Status shuffled = service.handlers.SHUFFLE.handle("benchmark", body).status();
+            if(shuffled != ActionHandler.Status.SUCCESS) {
+                throw new IllegalStateException("couldn't shuffle the benchmark deck: " + shuffled);
+            }
+        }
+    }
+
+    private static ActionHandler.Result shuffleAndDescribe(Service service, Request request) throws Exception {
+        service.handlers.SHUFFLE.handle("benchmark", request.body);
+        return service.handlers.DESCRIBE.handle("benchmark", request.name);
+    }
+
+    @Benchmark @Threads(1)
+    public ActionHandler.Result shuffleSingleThreaded(Service service, Request request) throws Exception {
+        return shuffleAndDescribe(service, request);
+    }
+
+    @Benchmark @Threads(Threads.MAX)
+    public ActionHandler.Result shuffleMultiThreaded(Service service, Request request) throws Exception {
+        return shuffleAndDescribe(service, request);
+    }
+
+    @Benchmark @Threads(1)
+    public ActionHandler.Result describeSingleThreaded(Service service, Request request) throws Exception {
+        return service.handlers.DESCRIBE.handle("benchmark", request.name);
+    }
+
+    @Benchmark @Threads(Threads.MAX)
+    public ActionHandler.Result describeMultiThreaded(Service service, Request request) throws Exception {
+        return service.handlers.DESCRIBE.handle("benchmark", request.name);
+    }
+}
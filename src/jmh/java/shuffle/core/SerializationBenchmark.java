@@ -0,0 +1,51 @@
+package shuffle.core;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning decks into response bodies: one deck for describe, and a page of decks for list and export.
+ *
+ * @author Drew Fead
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+    @Param({"10", "256"})
+    public int pageSize;
+
+    Deck deck;
+    List<Deck> page;
+
+    @Setup public void init() {
+        page = new ArrayList<>(pageSize);
+        for(int i = 0; i < pageSize; i++) {
+            final Deck d = new Deck();
+            d.setName("benchmark-deck-" + i);
+            d.setOrdinals(DeckHandlers.shuffleALot(DeckHandlers.initCards()));
+            page.add(d);
+        }
+        deck = page.get(0);
+    }
+
+    @Benchmark public byte[] deckResult() {
+        return DeckHandlers.deckResult(deck).payload();
+    }
+
+    @Benchmark public byte[] pageResult() {
+        return DeckHandlers.deckResult(page).payload();
+    }
+
+    @Benchmark public void pageStream() throws IOException {
+        DeckHandlers.deckStream(page.iterator()).writeTo(NullOutputStream.NULL_OUTPUT_STREAM);
+    }
+}
@@ -0,0 +1,46 @@
+package shuffle.core;
+
+import org.openjdk.jmh.annotations.*;
+import shuffle.adapters.store.InMemoryStore;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-deck card work behind create, randomize and shuffle, without the store or serialization around it.
+ *
+ * @author Drew Fead
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShuffleBenchmark {
+    @Param({"threadlocal", "splittable", "secure"})
+    public String random;
+
+    @Param({"52", "416", "65535"}) // a deck, an eight deck shoe, and the largest deck, shuffled in parallel
+    public int size;
+
+    DeckHandlers handlers;
+    byte[] cards;
+
+    @Setup public void init() {
+        handlers = new DeckHandlers(new InMemoryStore(), 10, new ResponseCache(0),
+            RandomSource.of(RandomSource.Mode.valueOf(random.toUpperCase())));
+        cards = DeckHandlers.initCards(size);
+    }
+
+    @Benchmark public byte[] initCards() {
+        return DeckHandlers.initCards(size);
+    }
+
+    @Benchmark public byte[] randomize() {
+        return handlers.randomize(cards);
+    }
+
+    @Benchmark public byte[] shuffleALot() {
+        return DeckHandlers.shuffleALot(cards);
+    }
+}
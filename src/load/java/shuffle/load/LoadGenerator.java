@@ -0,0 +1,270 @@
+package shuffle.load;
+
+import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.configuration2.MapConfiguration;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import shuffle.app.App;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a mix of create, shuffle, describe, list and delete requests at the service and reports throughput,
+ * latency percentiles and errors per operation.  Unless {@code load.target} points at a running service, it starts
+ * {@link App} in-process with the same settings, so any store, driver or executor mode can be measured with
+ * {@code gradle loadTest -PloadArgs='driver.store.type=journal load.mode=open load.rate=20000'}.
+ * <p>
+ * Closed-loop runs keep {@code load.concurrency} requests in flight and measure what the service can sustain.
+ * Open-loop runs send {@code load.rate} requests a second whatever the service does, and time each request from when
+ * it was due rather than when it was sent, so queueing behind a slow response counts against latency.
+ *
+ * @author Drew Fead
+ */
+public class LoadGenerator {
+    public enum Mode { OPEN, CLOSED }
+
+    public static final String TARGET = "load.target";
+    public static final String MODE = "load.mode";
+    public static final String CONCURRENCY = "load.concurrency";
+    public static final String RATE = "load.rate";
+    public static final String CONNECTIONS = "load.connections";
+    public static final String DURATION = "load.duration.seconds";
+    public static final String WARMUP = "load.warmup.seconds";
+    public static final String DECKS = "load.decks";
+    public static final String MIX = "load.mix";
+
+    private static final int BULK = 1000;
+
+    private final String target;
+    private final Mode mode;
+    private final int concurrency;
+    private final int rate;
+    private final int connections;
+    private final long durationNanos;
+    private final long warmupNanos;
+    private final int decks;
+    private final Workload workload;
+    private final CloseableHttpClient client;
+
+    private final ConcurrentLinkedQueue<String> churn = new ConcurrentLinkedQueue<>();
+    private final AtomicLong churned = new AtomicLong();
+
+    public LoadGenerator(Configuration config) {
+        this.target = config.getString(TARGET, "http://localhost:" + config.getInt(App.PORT));
+        this.mode = Mode.valueOf(config.getString(MODE, "closed").toUpperCase());
+        this.concurrency = config.getInt(CONCURRENCY, 64);
+        this.rate = config.getInt(RATE, 1000);
+        this.connections = config.getInt(CONNECTIONS, mode == Mode.CLOSED? concurrency : 256);
+        this.durationNanos = TimeUnit.SECONDS.toNanos(config.getLong(DURATION, 30));
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(config.getLong(WARMUP, 5));
+        this.decks = config.getInt(DECKS, 1000);
+        this.workload = Workload.parse(config.getString(MIX, "create:1,shuffle:4,describe:10,list:1,delete:1"));
+        this.client = HttpClientBuilder.create()
+            .setMaxConnTotal(connections)
+            .setMaxConnPerRoute(connections)
+            .build();
+    }
+
+    private static String name(int i) {
+        return "load-" + i;
+    }
+
+    private static String encode(String s) {
+        try {
+            return URLEncoder.encode(s, "UTF-8");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ByteArrayEntity json(String body) {
+        return new ByteArrayEntity(body.getBytes(StandardCharsets.UTF_8), ContentType.APPLICATION_JSON);
+    }
+
+    private HttpPost post(String path, String body) {
+        final HttpPost post = new HttpPost(target + path);
+        post.setEntity(json(body));
+        return post;
+    }
+
+    private int execute(HttpUriRequest request) throws IOException {
+        final HttpResponse response = client.execute(request);
+        EntityUtils.consume(response.getEntity());
+        return response.getStatusLine().getStatusCode();
+    }
+
+    /**
+     * Creates the working set that shuffle, describe and list run against.  Creates and deletes work on a separate
+     * set of names, so the working set never has holes and misses don't show up as errors.
+     */
+    private void populate() throws IOException {
+        for(int from = 0; from < decks; from += BULK) {
+            final StringBuilder names = new StringBuilder("{\"names\":[");
+            for(int i = from; i < Math.min(decks, from + BULK); i++) {
+                names.append(i == from? "" : ",").append('"').append(name(i)).append('"');
+            }
+
+            final int status = execute(post("/deck/create/bulk", names.append("]}").toString()));
+            if(status != 200) {
+                throw new IOException("couldn't create the working set, status: " + status);
+            }
+        }
+    }
+
+    /**
+     * @param doomed the churned deck to delete, for {@link Workload.Op#DELETE}
+     */
+    private HttpUriRequest request(Workload.Op op, String doomed) {
+        final String name = name(ThreadLocalRandom.current().nextInt(decks));
+        switch (op) {
+            case SHUFFLE:
+                return post("/deck/shuffle", "{\"name\":\"" + name + "\"}");
+            case DESCRIBE:
+                return new HttpGet(target + "/deck/describe?name=" + encode(name));
+            case LIST:
+                return post("/deck/list", "{\"pageSize\":10,\"after\":\"" + name + "\"}");
+            case DELETE:
+                return new HttpDelete(target + "/deck/delete?name=" + encode(doomed));
+            case CREATE:
+                final String created = "churn-" + churned.incrementAndGet();
+                churn.add(created);
+                return new HttpPut(target + "/deck/create?name=" + encode(created));
+            default:
+                throw new IllegalArgumentException("unknown operation: " + op);
+        }
+    }
+
+    /**
+     * Sends {@code op}, or a create in place of a delete while there's nothing churned to delete yet, and records it
+     * under whichever was sent.
+     */
+    private void call(Workload.Op op, long due, long measureFrom, Report report) {
+        final String doomed = op == Workload.Op.DELETE? churn.poll() : null;
+        final Workload.Op sent = op == Workload.Op.DELETE && doomed == null? Workload.Op.CREATE : op;
+
+        int status;
+        try {
+            status = execute(request(sent, doomed));
+        } catch (IOException e) {
+            status = 0;
+        }
+
+        final long end = System.nanoTime();
+        if(due >= measureFrom) {
+            report.record(sent, status, end - due);
+        }
+    }
+
+    private void closedLoop(long start, Report report) throws InterruptedException {
+        final long measureFrom = start + warmupNanos;
+        final long end = measureFrom + durationNanos;
+
+        final List<Thread> workers = new ArrayList<>();
+        for(int i = 0; i < concurrency; i++) {
+            final Thread worker = new Thread(() -> {
+                for(long now = System.nanoTime(); now < end; now = System.nanoTime()) {
+                    call(workload.next(), now, measureFrom, report);
+                }
+            }, "load-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+
+        for(Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    private void openLoop(long start, Report report) throws InterruptedException {
+        final long measureFrom = start + warmupNanos;
+        final long end = measureFrom + durationNanos;
+        final long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+
+        final ExecutorService senders = Executors.newFixedThreadPool(connections);
+        for(long due = start; due < end; due += interval) {
+            final long wait = due - System.nanoTime();
+            if(wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            final long scheduled = due;
+            senders.execute(() -> call(workload.next(), scheduled, measureFrom, report));
+        }
+
+        senders.shutdown();
+        senders.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    public Report run() throws Exception {
+        populate();
+
+        final Report report = new Report(String.format("%s loop, %s, %ss after %ss warmup, %s decks",
+            mode.name().toLowerCase(),
+            mode == Mode.CLOSED? concurrency + " in flight" : rate + " req/s offered",
+            TimeUnit.NANOSECONDS.toSeconds(durationNanos), TimeUnit.NANOSECONDS.toSeconds(warmupNanos), decks));
+
+        final long start = System.nanoTime();
+        if(mode == Mode.CLOSED) {
+            closedLoop(start, report);
+        } else {
+            openLoop(start, report);
+        }
+        report.finish(durationNanos);
+
+        client.close();
+        return report;
+    }
+
+    /**
+     * @param args {@code key=value} settings for the load and for the in-process service
+     */
+    public static void main(String... args) throws Exception {
+        final Map<String, Object> settings = new HashMap<>();
+        settings.put(App.PORT, 9431);
+        settings.put(App.PAGE_SIZE, 10);
+        settings.put(App.HUMAN_SHUFFLE, false);
+        settings.put(App.LOG_LEVEL, "warn");
+        for(String arg : args) {
+            final int eq = arg.indexOf('=');
+            if(eq < 1) {
+                throw new IllegalArgumentException("expected key=value, got: " + arg);
+            }
+            settings.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+
+        final Configuration config = new MapConfiguration(settings);
+        final boolean inProcess = !config.containsKey(TARGET);
+        if(inProcess) {
+            App.logging(config);
+            App.start(config);
+        }
+
+        try {
+            new LoadGenerator(config).run().print(System.out);
+        } finally {
+            if(inProcess) { App.stop(); }
+        }
+    }
+}
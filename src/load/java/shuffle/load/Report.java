@@ -0,0 +1,81 @@
+package shuffle.load;
+
+import shuffle.adapters.monitor.LatencyHistogram;
+
+import java.io.PrintStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency and outcomes per operation for one run.  Status 0 stands for requests that never got a response.
+ *
+ * @author Drew Fead
+ */
+public class Report {
+    private static class Stats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+        final ConcurrentMap<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+    }
+
+    private final String description;
+    private final Map<Workload.Op, Stats> stats = new EnumMap<>(Workload.Op.class);
+    private double seconds;
+
+    Report(String description) {
+        this.description = description;
+        for(Workload.Op op : Workload.Op.values()) {
+            stats.put(op, new Stats());
+        }
+    }
+
+    void record(Workload.Op op, int status, long nanos) {
+        final Stats s = stats.get(op);
+        s.latency.record(nanos);
+        s.statuses.computeIfAbsent(status, k -> new LongAdder()).increment();
+        if(status == 0 || status >= 400) {
+            s.errors.increment();
+        }
+    }
+
+    void finish(long durationNanos) {
+        this.seconds = durationNanos / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    public void print(PrintStream out) {
+        out.println(description);
+        out.println(String.format("%-9s %10s %10s %8s %9s %9s %9s %9s %9s",
+            "op", "requests", "req/s", "errors", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+
+        long total = 0, errors = 0;
+        for(Map.Entry<Workload.Op, Stats> e : stats.entrySet()) {
+            final LatencyHistogram.Snapshot s = e.getValue().latency.snapshot();
+            if(s.count() == 0) { continue; }
+
+            total += s.count();
+            errors += e.getValue().errors.sum();
+            out.println(String.format("%-9s %10d %10.0f %7.2f%% %9.3f %9.3f %9.3f %9.3f %9.3f",
+                e.getKey().name().toLowerCase(), s.count(), s.count() / seconds,
+                100.0 * e.getValue().errors.sum() / s.count(),
+                millis(s.percentile(50)), millis(s.percentile(90)), millis(s.percentile(99)),
+                millis(s.percentile(99.9)), millis(s.max())));
+        }
+
+        out.println(String.format("%-9s %10d %10.0f %7.2f%%", "total", total, total / seconds,
+            total == 0? 0 : 100.0 * errors / total));
+
+        final SortedMap<Integer, Long> statuses = new TreeMap<>();
+        stats.values().forEach(s -> s.statuses.forEach((status, n) -> statuses.merge(status, n.sum(), Long::sum)));
+        out.println("statuses: " + statuses);
+    }
+}
@@ -0,0 +1,62 @@
+package shuffle.load;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A weighted mix of operations, like {@code create:1,shuffle:4,describe:10,list:1,delete:1}.
+ *
+ * @author Drew Fead
+ */
+public class Workload {
+    public enum Op { CREATE, SHUFFLE, DESCRIBE, LIST, DELETE }
+
+    private final Op[] ops;
+    private final int[] cumulative;
+
+    private Workload(Op[] ops, int[] cumulative) {
+        this.ops = ops;
+        this.cumulative = cumulative;
+    }
+
+    public static Workload parse(String mix) {
+        final List<Op> ops = new ArrayList<>();
+        final List<Integer> weights = new ArrayList<>();
+        for(String entry : mix.split(",")) {
+            final String[] parts = entry.trim().split(":");
+            if(parts.length != 2) {
+                throw new IllegalArgumentException("expected op:weight, got: " + entry);
+            }
+
+            final int weight = Integer.parseInt(parts[1].trim());
+            if(weight > 0) {
+                ops.add(Op.valueOf(parts[0].trim().toUpperCase()));
+                weights.add(weight);
+            }
+        }
+        if(ops.isEmpty()) {
+            throw new IllegalArgumentException("the mix needs at least one operation: " + mix);
+        }
+
+        final int[] cumulative = new int[weights.size()];
+        int total = 0;
+        for(int i = 0; i < cumulative.length; i++) {
+            total += weights.get(i);
+            cumulative[i] = total;
+        }
+
+        return new Workload(ops.toArray(new Op[0]), cumulative);
+    }
+
+    public Op next() {
+        final int pick = ThreadLocalRandom.current().nextInt(cumulative[cumulative.length - 1]);
+        for(int i = 0; i < cumulative.length; i++) {
+            if(pick < cumulative[i]) {
+                return ops[i];
+            }
+        }
+
+        return ops[ops.length - 1];
+    }
+}
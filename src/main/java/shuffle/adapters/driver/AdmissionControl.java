@@ -0,0 +1,178 @@
+package shuffle.adapters.driver;
+
+import shuffle.ports.Monitor.Admission;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per-route concurrency limits for {@link HttpDriver}, so that under overload requests are turned away quickly
+ * instead of queueing behind each other until everyone's latency is unbounded.
+ * <p>
+ * Each route's limit adapts AIMD style: it grows by one for every limit's worth of requests that finish within
+ * {@code latencyMillis} while the limit is at least half used, and shrinks by a tenth when one takes longer or is
+ * turned away further down (a 503 from the handler executor), at most once per {@code latencyMillis}.  Requests
+ * over the limit wait their turn, oldest first, in a queue of at most {@code queue} per route, for no more than
+ * {@code maxWaitMillis}; past that they're shed, and the driver answers 503 with {@code Retry-After}.
+ * <p>
+ * Waiting requests hold on to their Jetty thread, so however many routes there are, no more than
+ * {@code maxWaiting} requests wait at once across all of them; any more are shed straight away.  Keep it well under
+ * the size of Jetty's thread pool (200 by default) so that waiters can never take every thread and leave none to
+ * finish the requests they're waiting on.
+ *
+ * @author Drew Fead
+ */
+public class AdmissionControl {
+    private static final int MIN_LIMIT = 1;
+    private static final double BACKOFF = 0.9;
+
+    private final int initialLimit;
+    private final int maxLimit;
+    private final int queue;
+    private final int maxWaiting;
+    private final long maxWaitNanos;
+    private final long latencyNanos;
+    private final int retryAfterSeconds;
+    private final Set<String> unlimited;
+    private final AtomicInteger waiting = new AtomicInteger(); // across every route
+
+    /**
+     * @param maxWaiting how many requests may wait at once across every route, below the driver's thread count
+     * @param unlimited routes left alone, such as long polls, whose latency says nothing about load
+     */
+    public AdmissionControl(int initialLimit, int maxLimit, int queue, int maxWaiting, long maxWaitMillis,
+                            long latencyMillis, int retryAfterSeconds, Set<String> unlimited) {
+        if(initialLimit < MIN_LIMIT || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("limits must be positive, and the initial limit no more than the max");
+        }
+
+        this.initialLimit = initialLimit;
+        this.maxLimit = maxLimit;
+        this.queue = queue;
+        this.maxWaiting = maxWaiting;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.unlimited = unlimited;
+    }
+
+    public int retryAfterSeconds() { return retryAfterSeconds; }
+
+    /**
+     * @return a new limiter for {@code route}, or null when the route isn't limited
+     */
+    public Limiter limiter(String route) {
+        return unlimited.contains(route)? null : new Limiter();
+    }
+
+    public final class Limiter {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition room = lock.newCondition(); // waiters are signalled in the order they arrived
+
+        private double limit = initialLimit;
+        private int inFlight;
+        private int waiting;
+        private long lastDecrease = System.nanoTime() - latencyNanos;
+
+        private boolean full() {
+            return inFlight >= (int) limit;
+        }
+
+        /**
+         * Takes a slot, waiting for one if need be.  Requests that arrive while others are waiting join the back of
+         * the queue rather than taking a slot ahead of them.
+         *
+         * @return {@link Admission#SHED} if no slot was taken, otherwise whether the request had to wait for it
+         */
+        public Admission acquire() {
+            lock.lock();
+            try {
+                if(waiting == 0 && !full()) {
+                    inFlight++;
+                    return Admission.ADMITTED;
+                }
+                if(waiting >= queue || maxWaitNanos <= 0) {
+                    return Admission.SHED;
+                }
+                if(AdmissionControl.this.waiting.incrementAndGet() > maxWaiting) {
+                    AdmissionControl.this.waiting.decrementAndGet();
+                    return Admission.SHED;
+                }
+
+                waiting++;
+                try {
+                    long remaining = maxWaitNanos;
+                    while(full()) {
+                        if(remaining <= 0) {
+                            return Admission.SHED;
+                        }
+                        remaining = room.awaitNanos(remaining);
+                    }
+
+                    inFlight++;
+                    if(waiting > 1 && !full()) {
+                        room.signal(); // the limit grew, so there may be room for the next one too
+                    }
+                    return Admission.QUEUED;
+
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return Admission.SHED;
+
+                } finally {
+                    waiting--;
+                    AdmissionControl.this.waiting.decrementAndGet();
+                }
+
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Gives back a slot taken by {@link #acquire}, adjusting the limit by how the request went.
+         *
+         * @param nanos how long the request held its slot
+         * @param dropped whether it was turned away after being admitted, a sign of overload further down
+         */
+        public void release(long nanos, boolean dropped) {
+            lock.lock();
+            try {
+                final boolean used = inFlight * 2 >= limit;
+                inFlight--;
+
+                if(dropped || nanos > latencyNanos) {
+                    final long now = System.nanoTime();
+                    if(now - lastDecrease >= latencyNanos) {
+                        limit = Math.max(MIN_LIMIT, limit * BACKOFF);
+                        lastDecrease = now;
+                    }
+                } else if(used) {
+                    limit = Math.min(maxLimit, limit + 1 / limit);
+                }
+
+                if(waiting > 0 && !full()) {
+                    room.signal();
+                }
+
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return the current limit, as a whole number of requests
+         */
+        public int limit() {
+            lock.lock();
+            try {
+                return (int) limit;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package shuffle.adapters.driver;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.apache.commons.io.output.ByteArrayOutputStream;
+import shuffle.ports.ActionHandler.Format;
+import shuffle.ports.ActionHandler.Result;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Content negotiation for the driver: picking a response format from {@code Accept}, and turning binary request
+ * bodies and query parameters into the JSON handlers parse.
+ *
+ * @author Drew Fead
+ */
+final class Formats {
+    private static final JsonFactory json = new JsonFactory();
+    private static final JsonFactory smile = new SmileFactory();
+    private static final JsonFactory cbor = new CBORFactory();
+
+    private Formats() {}
+
+    /**
+     * Thrown for request bodies in a format handlers can't take.
+     */
+    static class UnsupportedBodyException extends IOException {
+        UnsupportedBodyException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * @return the format with the highest quality in {@code accept} that the result supports, taking the first on
+     *         ties; JSON when nothing acceptable is supported, so clients that don't negotiate keep working
+     */
+    static Format negotiate(String accept, Result result) {
+        if(accept == null || accept.isEmpty()) {
+            return Format.JSON;
+        }
+
+        Format best = Format.JSON;
+        double bestQuality = 0;
+        for(String range : accept.split(",")) {
+            final int params = range.indexOf(';');
+            final String type = (params < 0? range : range.substring(0, params)).trim();
+            final double quality = params < 0? 1 : quality(range.substring(params + 1));
+
+            final Format format = "*/*".equals(type) || "application/*".equalsIgnoreCase(type)?
+                Format.JSON : Format.of(type);
+            if(format != null && quality > bestQuality && result.supports(format)) {
+                best = format;
+                bestQuality = quality;
+            }
+        }
+
+        return best;
+    }
+
+    private static double quality(String params) {
+        for(String param : params.split(";")) {
+            final String p = param.trim();
+            if(p.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(p.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+
+        return 1;
+    }
+
+    /**
+     * @return the body as JSON; bodies without a content type we recognize are assumed to be JSON already
+     */
+    static byte[] toJson(byte[] body, String contentType) throws IOException {
+        final Format format = Format.of(contentType);
+        if(format == null || format == Format.JSON || body.length == 0) {
+            return body;
+        }
+        if(format == Format.ORDINALS) {
+            throw new UnsupportedBodyException("requests can't be sent as " + format.mediaType());
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(body.length * 2);
+        try (JsonParser parser = (format == Format.SMILE? smile : cbor).createParser(body);
+             JsonGenerator gen = json.createGenerator(out)) {
+            while(parser.nextToken() != null) {
+                gen.copyCurrentStructure(parser);
+            }
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * @return the parameters as a JSON object of strings, taking the first value of any that repeat; handlers
+     *         read numbers from them as they would from JSON numbers
+     */
+    static byte[] fromParams(Map<String, String[]> params) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator gen = json.createGenerator(out)) {
+            gen.writeStartObject();
+            for(Map.Entry<String, String[]> param : params.entrySet()) {
+                if(param.getValue().length > 0) { gen.writeStringField(param.getKey(), param.getValue()[0]); }
+            }
+            gen.writeEndObject();
+        }
+
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,76 @@
+package shuffle.adapters.driver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for running handlers off Jetty's threads.
+ *
+ * @author Drew Fead
+ */
+public final class HandlerExecutors {
+    private static final Logger log = LoggerFactory.getLogger(HandlerExecutors.class);
+
+    public enum Mode {
+        JETTY,      // no executor, handlers run on the Jetty thread that took the request
+        VIRTUAL,    // a virtual thread per request; fails on JDKs without them
+        POOL,       // a bounded pool of platform threads with a bounded queue
+        AUTO        // virtual threads where the JDK has them, otherwise a bounded pool
+    }
+
+    private HandlerExecutors() {}
+
+    /**
+     * @return the executor for the mode, or null for {@link Mode#JETTY}
+     */
+    public static ExecutorService of(Mode mode, int threads, int queue) {
+        switch (mode) {
+            case JETTY: return null;
+            case VIRTUAL: return virtual();
+            case POOL: return bounded(threads, queue);
+            case AUTO:
+                try {
+                    return virtual();
+                } catch (UnsupportedOperationException e) {
+                    if(log.isInfoEnabled()) { log.info("no virtual threads on this JDK, using a bounded pool"); }
+                    return bounded(threads, queue);
+                }
+            default: throw new IllegalArgumentException("unknown executor mode: " + mode);
+        }
+    }
+
+    /**
+     * Looked up reflectively so the service still builds and runs on Java 8.
+     */
+    public static ExecutorService virtual() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("virtual threads need JDK 21 or later", e);
+        }
+    }
+
+    /**
+     * A pool that rejects work once {@code threads} handlers are running and {@code queue} more are waiting, rather
+     * than queueing without limit.
+     */
+    public static ExecutorService bounded(int threads, int queue) {
+        final AtomicInteger count = new AtomicInteger();
+        final ThreadFactory factory = r -> {
+            final Thread t = new Thread(r, "handler-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queue), factory, new ThreadPoolExecutor.AbortPolicy());
+    }
+}
@@ -5,25 +5,33 @@ import org.apache.commons.io.IOUtils;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.handler.AbstractHandler;
-import org.eclipse.jetty.server.handler.ContextHandler;
-import org.eclipse.jetty.server.handler.ContextHandlerCollection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
+import shuffle.ports.ActionHandler.Format;
 import shuffle.ports.ActionHandler.Result;
 import shuffle.ports.ActionHandler.Status;
+import shuffle.ports.ActionHandler.StreamingResult;
 import shuffle.ports.Driver;
 import shuffle.ports.ActionHandler;
 import shuffle.ports.Monitor;
+import shuffle.ports.Monitor.Admission;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.UUID;
-
-import static shuffle.ports.Monitor.MetricType.REQUEST_DURATION;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * @author Drew Fead
@@ -32,6 +40,10 @@ public class HttpDriver implements Driver {
     private static Logger log = LoggerFactory.getLogger(HttpDriver.class);
 
     private static final String NAME_PARAM = "name";
+    private static final String ACCEPT = "Accept";
+    private static final String RETRY_AFTER = "Retry-After";
+    private static final String METRICS_PATH = "metrics";
+    public static final int DEFAULT_MAX_BODY = 8 * 1024 * 1024;
 
     public enum Method { PUT, POST, GET, DELETE }
 
@@ -49,13 +61,44 @@ public class HttpDriver implements Driver {
 
     private Map<String, HttpAction> pathActions;
     private Monitor monitor;
+    private Executor executor;
+    private AdmissionControl admission;
+    private int maxBody;
+    private final RequestIds requestIds = new RequestIds();
     private Server server;
     private int port;
 
     public HttpDriver(int port, Map<String, HttpAction> pathActions, Monitor monitor) {
+        this(port, pathActions, monitor, null);
+    }
+
+    /**
+     * @param executor runs handlers while their requests are suspended, or null to run them on Jetty's threads;
+     *                 {@link ActionHandler.Async} handlers are always suspended
+     */
+    public HttpDriver(int port, Map<String, HttpAction> pathActions, Monitor monitor, Executor executor) {
+        this(port, pathActions, monitor, executor, null);
+    }
+
+    /**
+     * @param admission limits how many requests each route runs at once, or null to run every request as it comes
+     */
+    public HttpDriver(int port, Map<String, HttpAction> pathActions, Monitor monitor, Executor executor,
+                      AdmissionControl admission) {
+        this(port, pathActions, monitor, executor, admission, DEFAULT_MAX_BODY);
+    }
+
+    /**
+     * @param maxBody the most bytes a request body may have; larger ones are answered 413 without being read
+     */
+    public HttpDriver(int port, Map<String, HttpAction> pathActions, Monitor monitor, Executor executor,
+                      AdmissionControl admission, int maxBody) {
         this.port = port;
         this.pathActions = pathActions;
         this.monitor = monitor;
+        this.executor = executor;
+        this.admission = admission;
+        this.maxBody = maxBody;
     }
 
     private static final Map<Status, Integer> statusCodes = ImmutableMap.of(
@@ -64,73 +107,308 @@ public class HttpDriver implements Driver {
         Status.FAILED, HttpServletResponse.SC_INTERNAL_SERVER_ERROR
     );
 
-    private ContextHandler ctx(String path, HttpAction action) {
-        ContextHandler ch = new ContextHandler(path);
-        ch.setHandler(new AbstractHandler() {
-            public void handle(String tg, Request base, HttpServletRequest req, HttpServletResponse res)
+    /**
+     * Streaming results are written straight to the response, which Jetty sends chunked once its buffer fills, so
+     * neither time to first byte nor memory grows with the size of the payload.
+     */
+    private static void write(Result result, Format format, HttpServletResponse res) throws IOException {
+        res.setContentType(format.mediaType());
+        if(result instanceof StreamingResult) {
+            ((StreamingResult) result).writeTo(res.getOutputStream(), format);
+
+        } else {
+            final byte[] out = result.payload(format);
+            res.setContentLength(out.length);
+            res.getOutputStream().write(out);
+        }
+    }
+
+    private static final int MAX_POOLED_BODY = 64 * 1024;
+    private static final ThreadLocal<byte[]> bodyBuffers = ThreadLocal.withInitial(() -> new byte[8 * 1024]);
+
+    /**
+     * Thrown for request bodies over the driver's limit, declared or not.
+     */
+    static class BodyTooLargeException extends IOException {
+        BodyTooLargeException(long max) {
+            super("request bodies are limited to " + max + " bytes");
+        }
+    }
+
+    /**
+     * Small bodies of a declared length are read straight into an array of that length.  Anything else is read into
+     * a buffer kept per thread that grows only as bytes actually arrive, so a client can't make the driver allocate
+     * more than it sends, and only the final copy is allocated.
+     *
+     * @throws BodyTooLargeException if more than {@code max} bytes are declared or sent
+     */
+    static byte[] readBody(InputStream in, int contentLength, int max) throws IOException {
+        if(contentLength > max) {
+            throw new BodyTooLargeException(max);
+        }
+        if(contentLength >= 0 && contentLength <= MAX_POOLED_BODY) {
+            final byte[] body = new byte[contentLength];
+            IOUtils.readFully(in, body);
+            return body;
+        }
+
+        byte[] buffer = bodyBuffers.get();
+        int length = 0;
+        for(int n; (n = in.read(buffer, length, buffer.length - length)) != -1; ) {
+            length += n;
+            if(length > max) {
+                throw new BodyTooLargeException(max);
+            }
+            if(length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, (int) Math.min(buffer.length * 2L, max + 1L));
+                if(buffer.length <= MAX_POOLED_BODY) { bodyBuffers.set(buffer); }
+            }
+        }
+
+        return Arrays.copyOf(buffer, length);
+    }
+
+    private byte[] read(HttpAction action, Request base) throws IOException {
+        if(action.method() == Method.POST) {
+            final byte[] body = readBody(base.getInputStream(), base.getContentLength(), maxBody);
+            return Formats.toJson(body, base.getContentType());
+        }
+        if(action.method() == Method.PUT) {
+            return Formats.fromParams(base.getParameterMap());
+        }
+
+        final String name = base.getParameter(NAME_PARAM);
+        return name == null? new byte[0] : name.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the status for a request that finished with {@code result} or failed with {@code error}, 500 when
+     *         there's neither
+     */
+    private static int code(Result result, Throwable error) {
+        if(error == null) {
+            return result == null? HttpServletResponse.SC_INTERNAL_SERVER_ERROR : statusCodes.get(result.status());
+        }
+
+        final Throwable cause = error instanceof CompletionException && error.getCause() != null?
+            error.getCause() : error;
+        if(cause instanceof RejectedExecutionException) {
+            return HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+        }
+
+        if(cause instanceof BodyTooLargeException) {
+            return HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE;
+        }
+
+        return cause instanceof Formats.UnsupportedBodyException?
+            HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE : HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+    }
+
+    private void respond(String path, String requestId, long start, Result result, int code,
+                         Request base, HttpServletResponse res) throws IOException {
+        try {
+            res.setStatus(code);
+            if(code == HttpServletResponse.SC_SERVICE_UNAVAILABLE && admission != null) {
+                res.setHeader(RETRY_AFTER, String.valueOf(admission.retryAfterSeconds()));
+            }
+            if(result != null) { write(result, Formats.negotiate(base.getHeader(ACCEPT), result), res); }
+            res.getOutputStream().flush();
+
+        } catch (IOException e) {
+            if(log.isErrorEnabled()) { log.error("failed to write response", e); }
+            throw e;
+
+        } try {
+            monitor.logRequest(requestId, path, code, System.nanoTime() - start);
+
+        } catch (Exception e) {
+            if(log.isWarnEnabled()) {log.warn("failed to log metrics", e); }
+        }
+    }
+
+    /**
+     * Runs tasks on the driver's executor with the request's logging context.
+     */
+    private Executor tagged(String requestId) {
+        return task -> executor.execute(() -> {
+            MDC.put("request_id", requestId);
+            try {
+                task.run();
+            } finally {
+                MDC.remove("request_id");
+            }
+        });
+    }
+
+    private static final class Route {
+        final String path;
+        final HttpAction action;
+        final boolean async;
+        final AdmissionControl.Limiter limiter; // null when the route isn't limited
+
+        Route(String path, HttpAction action, boolean async, AdmissionControl.Limiter limiter) {
+            this.path = path;
+            this.action = action;
+            this.async = async;
+            this.limiter = limiter;
+        }
+
+        /**
+         * Gives back the request's slot, if it took one, once its response has been written.
+         */
+        void release(long admitted, int code) {
+            if(limiter != null) {
+                limiter.release(System.nanoTime() - admitted, code == HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            }
+        }
+    }
+
+    /**
+     * Waits for a slot on a limited route, and answers 503 if none comes up in time.
+     *
+     * @return whether the request was admitted
+     */
+    private boolean admit(Route route, String requestId, long start, Request base, HttpServletResponse res)
+            throws IOException {
+
+        if(route.limiter == null) {
+            return true;
+        }
+
+        final Admission decision = route.limiter.acquire();
+        try {
+            monitor.logAdmission(requestId, route.path, decision, route.limiter.limit(), System.nanoTime() - start);
+
+        } catch (Exception e) {
+            if(log.isWarnEnabled()) {log.warn("failed to log admission", e); }
+        }
+
+        if(decision == Admission.SHED) {
+            respond(route.path, requestId, start, null, HttpServletResponse.SC_SERVICE_UNAVAILABLE, base, res);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Routes are matched exactly, on the path with any trailing slash removed, from a table built once at start.
+     */
+    private static String normalize(String path) {
+        final String rooted = path.startsWith("/")? path : "/" + path;
+        return rooted.length() > 1 && rooted.endsWith("/")? rooted.substring(0, rooted.length() - 1) : rooted;
+    }
+
+    private AbstractHandler dispatcher(Map<String, Route> routes) {
+        return new AbstractHandler() {
+            public void handle(String target, Request base, HttpServletRequest req, HttpServletResponse res)
                     throws IOException, ServletException {
 
-                final long start = System.currentTimeMillis();
-                final String requestId = UUID.randomUUID().toString();
-                MDC.put("request_id", requestId);
+                base.setHandled(true);
+                Route route = routes.get(target);
+                if(route == null) { route = routes.get(normalize(target)); }
+                if(route == null) {
+                    res.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                    return;
+                }
 
-                byte[] out = new byte[0];
-                int code = 0;
+                final long start = System.nanoTime();
+                final String requestId = requestIds.next();
+                MDC.put("request_id", requestId);
                 try {
-                    final byte[] in;
-                    if(action.method() == Method.POST) {
-                        in = IOUtils.toByteArray(base.getInputStream());
+                    if(!admit(route, requestId, start, base, res)) {
+                        return;
+                    }
+
+                    final long admitted = System.nanoTime();
+                    if(route.async) {
+                        handleAsync(route, requestId, start, admitted, base, res);
                     } else {
-                        in = req.getParameter(NAME_PARAM).getBytes();
+                        handleSync(route, requestId, start, admitted, base, res);
                     }
 
-                    final Result result = action.handler().handle(requestId, in);
-                    code = statusCodes.get(result.status());
-                    out = result.payload();
+                } finally {
+                    MDC.remove("request_id");
+                }
+            }
+        };
+    }
 
-                } catch (Exception e) {
-                    code = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+    private void handleSync(Route route, String requestId, long start, long admitted, Request base,
+                            HttpServletResponse res) throws IOException {
 
-                } finally {
-                    try {
-                        res.setStatus(code);
-                        res.getOutputStream().write(out);
-                        res.getOutputStream().flush();
-                        base.setHandled(true);
+        Result result = null;
+        Throwable error = null;
+        try {
+            result = route.action.handler().handle(requestId, read(route.action, base));
 
-                    } catch (IOException e) {
-                        if(log.isErrorEnabled()) { log.error("failed to write response", e); }
-                        throw e;
+        } catch (Throwable e) { // errors too, so the request is still answered and its slot given back
+            error = e;
 
-                    } try {
-                        final long duration = System.currentTimeMillis() - start;
-                        monitor.logMetric(requestId, REQUEST_DURATION, duration);
+        } finally {
+            int code = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+            try {
+                code = code(result, error);
+                respond(route.path, requestId, start, result, code, base, res);
+            } finally {
+                route.release(admitted, code);
+            }
+        }
+    }
 
-                    } catch (Exception e) {
-                        if(log.isWarnEnabled()) {log.warn("failed to log metrics", e); }
+    /**
+     * Suspends the request and frees the Jetty thread while the handler runs; the response is written from
+     * whichever thread completes it.
+     */
+    private void handleAsync(Route route, String requestId, long start, long admitted, Request base,
+                             HttpServletResponse res) {
+        final AsyncContext context;
+        try {
+            context = base.startAsync();
+        } catch (Throwable e) {
+            route.release(admitted, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            throw e;
+        }
+        context.setTimeout(0); // handlers are never timed out in the synchronous mode either
 
-                    } finally {
-                        MDC.clear();
-                    }
-                }
+        CompletableFuture<Result> future;
+        try {
+            future = route.action.handler().handleAsync(requestId, read(route.action, base),
+                executor == null? null : tagged(requestId));
+        } catch (Throwable e) { // errors too, so the request is still completed and its slot given back
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+
+        future.whenComplete((result, error) -> {
+            MDC.put("request_id", requestId);
+            int code = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+            try {
+                code = code(result, error);
+                respond(route.path, requestId, start, result, code, base, res);
+            } catch (IOException e) {
+                // already logged, and the client has most likely gone away
+            } finally {
+                route.release(admitted, code);
+                context.complete();
+                MDC.remove("request_id");
             }
         });
-
-        return ch;
     }
 
     public void start() throws Exception {
         server = new Server(port);
 
         if(log.isInfoEnabled()) { log.info("listening on port" + port); }
-        final ContextHandlerCollection contexts = new ContextHandlerCollection();
-        contexts.setHandlers(
-            pathActions.entrySet().stream()
-                .map(e -> ctx(e.getKey(), e.getValue()))
-                .toArray(ContextHandler[]::new)
-        );
-
-        server.setHandler(contexts);
+        final Map<String, HttpAction> routes = new LinkedHashMap<>(pathActions);
+        monitor.metrics().ifPresent(metrics -> routes.putIfAbsent(METRICS_PATH, action(metrics, Method.GET)));
+
+        final Map<String, Route> table = new HashMap<>();
+        routes.forEach((path, action) -> table.put(normalize(path), new Route(path, action,
+            executor != null || action.handler() instanceof ActionHandler.Async,
+            admission == null? null : admission.limiter(path))));
+
+        server.setHandler(dispatcher(table));
         server.start();
     }
 
@@ -0,0 +1,29 @@
+package shuffle.adapters.driver;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cheap unique request IDs: a random prefix per process, then a sequence number.  Each thread reserves sequence
+ * numbers in blocks, so threads only touch the shared counter once every {@value #BLOCK} requests, and nothing
+ * blocks on {@code SecureRandom} the way {@link java.util.UUID#randomUUID()} does.
+ *
+ * @author Drew Fead
+ */
+final class RequestIds {
+    private static final int BLOCK = 1024;
+
+    private final String prefix = String.format("%08x-", ThreadLocalRandom.current().nextInt());
+    private final AtomicLong blocks = new AtomicLong();
+    private final ThreadLocal<long[]> range = ThreadLocal.withInitial(() -> new long[] {0, 0}); // {next, end}
+
+    String next() {
+        final long[] r = range.get();
+        if(r[0] == r[1]) {
+            r[0] = blocks.getAndIncrement() * BLOCK;
+            r[1] = r[0] + BLOCK;
+        }
+
+        return prefix + Long.toHexString(r[0]++);
+    }
+}
@@ -0,0 +1,128 @@
+package shuffle.adapters.monitor;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import shuffle.ports.ActionHandler;
+import shuffle.ports.Monitor;
+import shuffle.ports.Monitor.Admission;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps a {@link LatencyHistogram} of request durations, in nanoseconds, for every route and status code, and
+ * serves their percentiles as JSON.  Recording allocates nothing once a route and status have been seen, and never
+ * logs.  Admission decisions are counted per route too, with a histogram of how long admitted requests waited.
+ *
+ * @author Drew Fead
+ */
+public class HistogramMonitor implements Monitor {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    /** route for durations logged without one, through {@link #logMetric} */
+    static final String UNROUTED = "*";
+
+    /** status reported for a route's admission decisions, alongside its response codes */
+    static final String ADMISSION = "admission";
+
+    private final ConcurrentMap<String, ConcurrentMap<Integer, LatencyHistogram>> histograms =
+        new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Admissions> admissions = new ConcurrentHashMap<>();
+
+    private static final class Admissions {
+        final LongAdder[] decisions = new LongAdder[Admission.values().length];
+        final LatencyHistogram waits = new LatencyHistogram(); // of requests that were queued before being let in
+        volatile int limit;
+
+        Admissions() {
+            for(int i = 0; i < decisions.length; i++) {
+                decisions[i] = new LongAdder();
+            }
+        }
+    }
+
+    LatencyHistogram histogram(String route, int status) {
+        ConcurrentMap<Integer, LatencyHistogram> byStatus = histograms.get(route);
+        if(byStatus == null) {
+            byStatus = histograms.computeIfAbsent(route, r -> new ConcurrentHashMap<>());
+        }
+
+        final LatencyHistogram histogram = byStatus.get(status);
+        return histogram != null? histogram : byStatus.computeIfAbsent(status, s -> new LatencyHistogram());
+    }
+
+    public void logMetric(String requestId, MetricType type, long magnitude) {
+        histogram(UNROUTED, 0).record(magnitude);
+    }
+
+    public void logRequest(String requestId, String route, int status, long nanos) {
+        histogram(route, status).record(nanos);
+    }
+
+    public void logAdmission(String requestId, String route, Admission decision, int limit, long waitNanos) {
+        Admissions counts = admissions.get(route);
+        if(counts == null) {
+            counts = admissions.computeIfAbsent(route, r -> new Admissions());
+        }
+
+        counts.decisions[decision.ordinal()].increment();
+        counts.limit = limit;
+        if(decision == Admission.QUEUED) {
+            counts.waits.record(waitNanos);
+        }
+    }
+
+    /**
+     * @return {@code {route: {status: {count, mean, p50, p90, p99, p99.9, max}}}}, in nanoseconds, sorted by route;
+     *         limited routes also have an {@code admission} entry with the count of each decision, the current
+     *         limit, and the p99 and max wait of queued requests
+     */
+    public Map<String, Map<String, Map<String, Object>>> report() {
+        final SortedMap<String, Map<String, Map<String, Object>>> out = new TreeMap<>();
+        histograms.forEach((route, byStatus) -> {
+            final SortedMap<String, Map<String, Object>> statuses = new TreeMap<>();
+            byStatus.forEach((status, histogram) -> {
+                final LatencyHistogram.Snapshot s = histogram.snapshot();
+                final Map<String, Object> stats = new LinkedHashMap<>();
+                stats.put("count", s.count());
+                stats.put("mean", Math.round(s.mean()));
+                stats.put("p50", s.percentile(50));
+                stats.put("p90", s.percentile(90));
+                stats.put("p99", s.percentile(99));
+                stats.put("p99.9", s.percentile(99.9));
+                stats.put("max", s.max());
+                statuses.put(String.valueOf(status), stats);
+            });
+            out.put(route, statuses);
+        });
+
+        admissions.forEach((route, counts) -> {
+            final LatencyHistogram.Snapshot waits = counts.waits.snapshot();
+            final Map<String, Object> stats = new LinkedHashMap<>();
+            for(Admission decision : Admission.values()) {
+                stats.put(decision.name().toLowerCase(), counts.decisions[decision.ordinal()].sum());
+            }
+            stats.put("limit", counts.limit);
+            stats.put("p99", waits.percentile(99));
+            stats.put("max", waits.max());
+            out.computeIfAbsent(route, r -> new TreeMap<>()).put(ADMISSION, stats);
+        });
+
+        return out;
+    }
+
+    public Optional<ActionHandler> metrics() {
+        return Optional.of((requestId, bytes) -> {
+            final byte[] payload = mapper.writeValueAsBytes(report());
+            return new ActionHandler.Result() {
+                public byte[] payload() { return payload; }
+                public ActionHandler.Status status() { return ActionHandler.Status.SUCCESS; }
+            };
+        });
+    }
+}
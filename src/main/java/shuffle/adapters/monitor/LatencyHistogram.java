@@ -0,0 +1,111 @@
+package shuffle.adapters.monitor;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Lock-free log-linear histogram of non-negative values, in the style of HdrHistogram.  Values below 128 get a
+ * bucket each; above that, each power of two is split into 64 buckets, so any recorded value is reported to within
+ * about 1.6% whatever its magnitude.  Recording is a single atomic increment, and the whole range of a long fits in
+ * under 4k buckets, so there's nothing to size up front.
+ *
+ * @author Drew Fead
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;      // buckets per power of two
+    private static final int LINEAR = 2 * SUB_BUCKETS;                  // values recorded exactly
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    static int index(long value) {
+        if(value < LINEAR) {
+            return (int) value;
+        }
+
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * @return the largest value that lands in the bucket, so percentiles are never understated
+     */
+    static long highestEquivalent(int index) {
+        if(index < LINEAR) {
+            return index;
+        }
+
+        final int shift = index / SUB_BUCKETS - 1;
+        final long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    public void record(long value) {
+        final long v = Math.max(0, value);
+        counts.incrementAndGet(index(v));
+        max.accumulate(v);
+    }
+
+    public Snapshot snapshot() {
+        final long[] copy = new long[BUCKETS];
+        for(int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+
+        return new Snapshot(copy, max.get());
+    }
+
+    /**
+     * A point-in-time copy of the counts.  Concurrent recording may land just before or after the copy of a given
+     * bucket, which skews nothing by more than the handful of values in flight.
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long max;
+        private final double mean;
+
+        Snapshot(long[] counts, long max) {
+            this.counts = counts;
+            this.max = max;
+
+            long n = 0;
+            double sum = 0;
+            for(int i = 0; i < counts.length; i++) {
+                if(counts[i] > 0) {
+                    n += counts[i];
+                    sum += (double) counts[i] * highestEquivalent(i);
+                }
+            }
+            this.count = n;
+            this.mean = n == 0? 0 : sum / n;
+        }
+
+        public long count() { return count; }
+        public long max() { return max; }
+        public double mean() { return mean; }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return the smallest recorded value that at least {@code percentile}% of values are at or below
+         */
+        public long percentile(double percentile) {
+            if(count == 0) {
+                return 0;
+            }
+
+            final long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for(int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if(seen >= target) {
+                    return Math.min(highestEquivalent(i), max);
+                }
+            }
+
+            return max;
+        }
+    }
+}
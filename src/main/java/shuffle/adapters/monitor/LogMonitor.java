@@ -11,6 +11,6 @@ public class LogMonitor implements Monitor {
     private static final Logger log = LoggerFactory.getLogger(LogMonitor.class);
 
     public void logMetric(String requestId, MetricType type, long magnitude) {
-        if(log.isInfoEnabled()) { log.info(String.format("%s: %s", type, magnitude)); }
+        log.info("{}: {}", type, magnitude);
     }
 }
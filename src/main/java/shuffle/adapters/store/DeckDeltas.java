@@ -0,0 +1,219 @@
+package shuffle.adapters.store;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compact encoding of how one ordering of a deck differs from another, for keeping version history without keeping
+ * every version.  {@code diff(older, newer)} produces a delta that {@code apply} turns {@code newer} back into
+ * {@code older} with, in whichever of three forms is smallest:
+ * <ul>
+ * <li>{@link #SPARSE}: the positions that changed and what they held, when only a few cards moved</li>
+ * <li>{@link #RANKED}: the reordering as a Lehmer code, packed into the fewest bits each digit needs; about 32 bytes
+ *     for a 52 card deck, whatever the shuffle</li>
+ * <li>{@link #FULL}: the older ordinals as they were, when the deck changed size</li>
+ * </ul>
+ *
+ * @author Drew Fead
+ */
+public final class DeckDeltas {
+    public static final byte FULL = 0;
+    public static final byte SPARSE = 1;
+    public static final byte RANKED = 2;
+
+    private DeckDeltas() {}
+
+    public static byte[] diff(byte[] older, byte[] newer) {
+        if(older.length != newer.length || older.length > 0xffff) {
+            return full(older);
+        }
+
+        int changed = 0;
+        for(int i = 0; i < older.length; i++) {
+            if(older[i] != newer[i]) { changed++; }
+        }
+
+        final int sparseBytes = 3 + 3 * changed;
+        final int[] sources = sources(older, newer);
+        if(sources == null || sparseBytes <= 3 + rankedBytes(older.length)) {
+            return sparse(older, newer, changed);
+        }
+
+        return ranked(sources);
+    }
+
+    /**
+     * @return {@code newer} as it was before the change {@code delta} was taken from
+     */
+    public static byte[] apply(byte[] newer, byte[] delta) {
+        final ByteBuffer in = ByteBuffer.wrap(delta);
+        switch(in.get()) {
+            case FULL:
+                return Arrays.copyOfRange(delta, 1, delta.length);
+
+            case SPARSE: {
+                final byte[] out = newer.clone();
+                for(int count = in.getShort() & 0xffff; count > 0; count--) {
+                    final int position = in.getShort() & 0xffff;
+                    out[position] = in.get();
+                }
+                return out;
+            }
+
+            case RANKED: {
+                final int[] sources = unrank(in.getShort() & 0xffff, in);
+                final byte[] out = new byte[newer.length];
+                for(int i = 0; i < out.length; i++) {
+                    out[i] = newer[sources[i]];
+                }
+                return out;
+            }
+
+            default:
+                throw new IllegalArgumentException("unknown delta type: " + delta[0]);
+        }
+    }
+
+    private static byte[] full(byte[] older) {
+        final byte[] out = new byte[1 + older.length];
+        out[0] = FULL;
+        System.arraycopy(older, 0, out, 1, older.length);
+        return out;
+    }
+
+    private static byte[] sparse(byte[] older, byte[] newer, int changed) {
+        final ByteBuffer out = ByteBuffer.allocate(3 + 3 * changed);
+        out.put(SPARSE);
+        out.putShort((short) changed);
+        for(int i = 0; i < older.length; i++) {
+            if(older[i] != newer[i]) {
+                out.putShort((short) i);
+                out.put(older[i]);
+            }
+        }
+
+        return out.array();
+    }
+
+    /**
+     * @return where each card of {@code older} sits in {@code newer}, so {@code older[i] == newer[sources[i]]}, or
+     *         null when they don't hold the same cards.  Repeated cards, as in a multi-deck shoe, are matched in order.
+     */
+    private static int[] sources(byte[] older, byte[] newer) {
+        final int[] first = new int[256];
+        Arrays.fill(first, -1);
+        final int[] following = new int[newer.length];
+        for(int j = newer.length - 1; j >= 0; j--) {
+            final int card = newer[j] & 0xff;
+            following[j] = first[card];
+            first[card] = j;
+        }
+
+        final int[] sources = new int[older.length];
+        for(int i = 0; i < older.length; i++) {
+            final int card = older[i] & 0xff;
+            final int j = first[card];
+            if(j < 0) {
+                return null;
+            }
+            sources[i] = j;
+            first[card] = following[j];
+        }
+
+        return sources;
+    }
+
+    private static int width(int max) {
+        return 32 - Integer.numberOfLeadingZeros(max);
+    }
+
+    private static int rankedBytes(int size) {
+        long bits = 0;
+        for(int i = 0; i < size; i++) {
+            bits += width(size - 1 - i);
+        }
+
+        return (int) ((bits + 7) / 8);
+    }
+
+    /**
+     * Digit {@code i} of the Lehmer code counts the later positions with a smaller source, so it's below
+     * {@code size - i}; a Fenwick tree over the sources already seen keeps this O(n log n).
+     */
+    private static byte[] ranked(int[] sources) {
+        final int size = sources.length;
+        final int[] seen = new int[size + 1];
+
+        final ByteBuffer out = ByteBuffer.allocate(3 + rankedBytes(size));
+        out.put(RANKED);
+        out.putShort((short) size);
+
+        long bits = 0;
+        int pending = 0;
+        for(int i = 0; i < size; i++) {
+            int smallerSeen = 0;
+            for(int k = sources[i]; k > 0; k -= k & -k) {
+                smallerSeen += seen[k];
+            }
+            for(int k = sources[i] + 1; k <= size; k += k & -k) {
+                seen[k]++;
+            }
+
+            final int digit = sources[i] - smallerSeen;
+            final int width = width(size - 1 - i);
+            bits = (bits << width) | digit;
+            pending += width;
+            while(pending >= 8) {
+                pending -= 8;
+                out.put((byte) (bits >>> pending));
+            }
+        }
+        if(pending > 0) {
+            out.put((byte) (bits << (8 - pending)));
+        }
+
+        return out.array();
+    }
+
+    /**
+     * Undoes {@link #ranked}: digit {@code i} picks the digit-th position not yet used, found by walking down a
+     * Fenwick tree of the unused positions, so large shoes also unrank in O(n log n).
+     */
+    private static int[] unrank(int size, ByteBuffer in) {
+        final int[] unused = new int[size + 1];
+        for(int k = 1; k <= size; k++) {
+            unused[k]++;
+            final int parent = k + (k & -k);
+            if(parent <= size) { unused[parent] += unused[k]; }
+        }
+        final int top = Integer.highestOneBit(Math.max(size, 1));
+
+        final int[] sources = new int[size];
+        long bits = 0;
+        int available = 0;
+        for(int i = 0; i < size; i++) {
+            final int width = width(size - 1 - i);
+            while(available < width) {
+                bits = (bits << 8) | (in.get() & 0xff);
+                available += 8;
+            }
+            available -= width;
+            final int digit = (int) (bits >>> available) & ((1 << width) - 1);
+
+            int position = 0;
+            int rest = digit;
+            for(int step = top; step > 0; step >>= 1) {
+                if(position + step <= size && unused[position + step] <= rest) {
+                    position += step;
+                    rest -= unused[position];
+                }
+            }
+            sources[i] = position;
+            for(int k = position + 1; k <= size; k += k & -k) {
+                unused[k]--;
+            }
+        }
+
+        return sources;
+    }
+}
@@ -0,0 +1,200 @@
+package shuffle.adapters.store;
+
+import shuffle.core.Deck;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Binary encoding of deck mutations, used for journals and snapshots.  Each record is framed as
+ * {@code [body length][crc32 of body][body]}, so a reader can tell a complete record from one that was cut short by
+ * a crash and stop there.
+ * <p>
+ * A deck with pending shuffles or drawn cards is written with them after its cards, as
+ * {@code [pending count][pending...][drawn]}, which older readers simply don't look at.  A
+ * change that only added a shuffle to the chain is written as just that shuffle, by {@link #change(Deck)}; such a
+ * {@link #SHUFFLED} record only makes sense replayed, in order, over the version before it.
+ * <p>
+ * Names are written with a 16-bit length, so encoding a name longer than {@link Deck#MAX_NAME_BYTES} throws rather
+ * than writing a record that can't be read back.
+ *
+ * @author Drew Fead
+ */
+public final class DeckRecords {
+    public static final byte UPSERT = 1;
+    public static final byte DELETE = 2;
+    public static final byte SHUFFLED = 3;
+    public static final byte RETIRED = 4;
+
+    private static final int FRAME = 8;
+    private static final int MAX_BODY = 16 * 1024 * 1024;
+
+    private DeckRecords() {}
+
+    /**
+     * A decoded record; {@code deck} is null for deletes, and for {@link #SHUFFLED} records holds only the name, the
+     * new version and the added shuffle as its one pending entry.  {@link #RETIRED} records have only a version.
+     */
+    public static class Entry {
+        public final byte type;
+        public final String name;
+        public final Deck deck;
+        public final long version;
+
+        Entry(byte type, String name, Deck deck, long version) {
+            this.type = type;
+            this.name = name;
+            this.deck = deck;
+            this.version = version;
+        }
+    }
+
+    public static byte[] upsert(Deck deck) {
+        final byte[] name = Deck.encodeName(deck.name());
+        final byte[] cards = deck.ordinals();
+        final long[] pending = deck.pending();
+
+        final boolean extended = pending.length > 0 || deck.head() > 0;
+
+        final ByteBuffer out = ByteBuffer.allocate(FRAME + 1 + 8 + 2 + name.length + 4 + cards.length
+            + (extended? 4 + 8 * pending.length + 4 : 0));
+        out.position(FRAME);
+        out.put(UPSERT);
+        out.putLong(deck.version());
+        out.putShort((short) name.length);
+        out.put(name);
+        out.putInt(cards.length);
+        out.put(cards);
+        if(extended) {
+            out.putInt(pending.length);
+            for(long shuffle : pending) {
+                out.putLong(shuffle);
+            }
+            out.putInt(deck.head());
+        }
+        return frame(out);
+    }
+
+    /**
+     * Decks only ever gain pending shuffles one at a time, by being shuffled, and every other change leaves nothing
+     * pending.  A full chain is worked out into the cards before the next shuffle starts a new one.  So a deck with
+     * more than one shuffle pending differs from its previous version by exactly the last one, and that's all that
+     * needs writing.
+     */
+    public static byte[] change(Deck deck) {
+        final long[] pending = deck.pending();
+        if(pending.length < 2) {
+            return upsert(deck);
+        }
+
+        final byte[] name = Deck.encodeName(deck.name());
+        final ByteBuffer out = ByteBuffer.allocate(FRAME + 1 + 8 + 2 + name.length + 8);
+        out.position(FRAME);
+        out.put(SHUFFLED);
+        out.putLong(deck.version());
+        out.putShort((short) name.length);
+        out.put(name);
+        out.putLong(pending[pending.length - 1]);
+        return frame(out);
+    }
+
+    public static byte[] delete(String name) {
+        final byte[] encoded = Deck.encodeName(name);
+
+        final ByteBuffer out = ByteBuffer.allocate(FRAME + 1 + 2 + encoded.length);
+        out.position(FRAME);
+        out.put(DELETE);
+        out.putShort((short) encoded.length);
+        out.put(encoded);
+        return frame(out);
+    }
+
+    /**
+     * Written at the end of a snapshot: the highest version any deleted deck reached.  The snapshot's decks no
+     * longer show it, and without it a deck created again after recovery would reuse its old versions.
+     */
+    public static byte[] retired(long version) {
+        final ByteBuffer out = ByteBuffer.allocate(FRAME + 1 + 8);
+        out.position(FRAME);
+        out.put(RETIRED);
+        out.putLong(version);
+        return frame(out);
+    }
+
+    private static byte[] frame(ByteBuffer out) {
+        final byte[] bytes = out.array();
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, FRAME, bytes.length - FRAME);
+
+        out.putInt(0, bytes.length - FRAME);
+        out.putInt(4, (int) crc.getValue());
+        return bytes;
+    }
+
+    /**
+     * @return the next record, or null at the end of the input or at the first incomplete or corrupt record
+     */
+    public static Entry read(DataInputStream in) throws IOException {
+        final byte[] body;
+        final int checksum;
+        try {
+            final int length = in.readInt();
+            if(length <= 0 || length > MAX_BODY) {
+                return null;
+            }
+
+            checksum = in.readInt();
+            body = new byte[length];
+            in.readFully(body);
+
+        } catch (EOFException end) {
+            return null;
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        if((int) crc.getValue() != checksum) {
+            return null;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap(body);
+        final byte type = buffer.get();
+        final long version = type == DELETE? 0 : buffer.getLong();
+        if(type == RETIRED) {
+            return new Entry(type, null, null, version);
+        }
+
+        final byte[] name = new byte[buffer.getShort() & 0xffff];
+        buffer.get(name);
+        final String deckName = new String(name, StandardCharsets.UTF_8);
+
+        if(type == DELETE) {
+            return new Entry(type, deckName, null, 0);
+        }
+
+        final Deck deck = new Deck();
+        deck.setName(deckName);
+        deck.setVersion(version);
+        if(type == SHUFFLED) {
+            deck.setPending(new long[] {buffer.getLong()});
+            return new Entry(type, deckName, deck, version);
+        }
+
+        final byte[] cards = new byte[buffer.getInt()];
+        buffer.get(cards);
+        deck.setOrdinals(cards);
+        if(buffer.remaining() >= 4) {
+            final long[] pending = new long[buffer.getInt()];
+            for(int i = 0; i < pending.length; i++) {
+                pending[i] = buffer.getLong();
+            }
+            deck.setPending(pending);
+            deck.setHead(buffer.getInt());
+        }
+        return new Entry(type, deckName, deck, version);
+    }
+}
@@ -0,0 +1,245 @@
+package shuffle.adapters.store;
+
+import shuffle.core.Deck;
+import shuffle.core.ShuffleChain;
+import shuffle.ports.DeckStore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+/**
+ * Keeps earlier versions of every deck alongside the store it wraps, so {@link #findVersion} can answer for them.
+ * <p>
+ * The store only ever holds a deck's current version.  Each write here also records a {@link DeckDeltas} delta that
+ * turns the new ordering back into the one it replaced, so an earlier version is rebuilt by walking back from the
+ * current one.  A hand shuffle's delta takes about 32 bytes, against 52 for a copy of the cards.  Deltas are taken
+ * between worked out orders, so decks with pending shuffles are worked out on every write here.  Only orders are
+ * kept, so an earlier version comes back with every card in it, whatever had been drawn.
+ * <p>
+ * At most {@code maxVersions} earlier versions are kept per deck, and all the history together is held to about
+ * {@code maxBytes}, dropping the oldest versions of any deck first once it's over.  Deleting a deck drops its
+ * history.
+ *
+ * @author Drew Fead
+ */
+public class HistoryStore implements DeckStore, Closeable {
+    private static final int ENTRY_OVERHEAD = 40;    // the delta array's header and its slot in the deck's history
+    private static final int EVICTION_OVERHEAD = 24; // a node in the eviction queue
+
+    private final DeckStore store;
+    private final int maxVersions;
+    private final long maxBytes;
+
+    private final ConcurrentMap<String, History> histories = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<History> eviction = new ConcurrentLinkedQueue<>(); // one per delta, in order
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * One deck's earlier versions, newest last.  A delta's place in the eviction queue is freed when the queue
+     * reaches it, so a deck trimmed or deleted in the meantime just skips that many turns.
+     */
+    private static final class History {
+        final ArrayDeque<byte[]> deltas = new ArrayDeque<>();
+        long newest;        // the version the last delta rebuilds
+        int skips;          // eviction turns owed for deltas already dropped
+        boolean deleted;
+    }
+
+    public HistoryStore(DeckStore store, int maxVersions, long maxBytes) {
+        this.store = store;
+        this.maxVersions = maxVersions;
+        this.maxBytes = maxBytes;
+    }
+
+    private static long cost(byte[] delta) {
+        return delta.length + ENTRY_OVERHEAD;
+    }
+
+    /**
+     * Records that {@code current} replaced {@code previous}.  A delta that doesn't follow on from the last one, when
+     * concurrent writes to the same deck finish out of order, starts the history over, since versions before the gap
+     * couldn't be rebuilt anyway.
+     */
+    private void record(String name, byte[] previous, Deck current) {
+        if(maxVersions <= 0) {
+            return;
+        }
+
+        final byte[] delta = DeckDeltas.diff(previous, ShuffleChain.materialize(current).ordinals());
+        final History history = histories.computeIfAbsent(name, n -> new History());
+        synchronized (history) {
+            if(history.deleted) {
+                return;
+            }
+            if(!history.deltas.isEmpty() && history.newest != current.version() - 2) {
+                drop(history, history.deltas.size());
+            }
+
+            history.deltas.addLast(delta);
+            history.newest = current.version() - 1;
+            bytes.addAndGet(cost(delta) + EVICTION_OVERHEAD);
+            eviction.add(history);
+
+            if(history.deltas.size() > maxVersions) {
+                drop(history, history.deltas.size() - maxVersions);
+            }
+        }
+
+        evict();
+    }
+
+    /**
+     * Drops the {@code count} oldest deltas of a history whose lock is held.
+     */
+    private void drop(History history, int count) {
+        for(int i = 0; i < count; i++) {
+            bytes.addAndGet(-cost(history.deltas.removeFirst()));
+            history.skips++;
+        }
+    }
+
+    private void evict() {
+        while(bytes.get() > maxBytes) {
+            final History oldest = eviction.poll();
+            if(oldest == null) {
+                return;
+            }
+
+            bytes.addAndGet(-EVICTION_OVERHEAD);
+            synchronized (oldest) {
+                if(oldest.skips > 0) {
+                    oldest.skips--;
+                } else if(!oldest.deleted && !oldest.deltas.isEmpty()) {
+                    bytes.addAndGet(-cost(oldest.deltas.removeFirst()));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the memory held by history, in bytes, as estimated for the budget
+     */
+    public long bytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Upserts replace a deck without seeing it, so the deck is read first; if another write got in between, the
+     * versions don't line up and nothing is recorded.
+     */
+    private void recordReplaced(Deck previous, Deck current) {
+        if(previous != null && current.version() == previous.version() + 1) {
+            record(current.name(), ShuffleChain.materialize(previous).ordinals(), current);
+        }
+    }
+
+    public Optional<Deck> upsert(Deck deck) {
+        final Deck previous = store.findOne(deck.name()).orElse(null);
+        final Optional<Deck> out = store.upsert(deck);
+        out.ifPresent(current -> recordReplaced(previous, current));
+
+        return out;
+    }
+
+    public List<Deck> upsertAll(List<Deck> decks) {
+        final List<Deck> previous = new ArrayList<>(decks.size());
+        for(Deck deck : decks) {
+            previous.add(store.findOne(deck.name()).orElse(null));
+        }
+
+        final List<Deck> out = store.upsertAll(decks);
+        if(out.size() == decks.size()) {
+            for(int i = 0; i < out.size(); i++) {
+                recordReplaced(previous.get(i), out.get(i));
+            }
+        }
+
+        return out;
+    }
+
+    public Optional<Deck> update(String name, UnaryOperator<Deck> mutation) {
+        final byte[][] previous = new byte[1][];
+        final Optional<Deck> out = store.update(name, deck -> {
+            previous[0] = ShuffleChain.materialize(deck).ordinals().clone(); // mutations may reorder cards in place
+            return mutation.apply(deck);
+        });
+        out.ifPresent(deck -> record(name, previous[0], deck));
+
+        return out;
+    }
+
+    /**
+     * Rebuilds an earlier version by undoing each later change in turn, newest first.
+     */
+    public Optional<Deck> findVersion(String name, long version) {
+        final Deck current = store.findOne(name).orElse(null);
+        if(current == null || version > current.version() || version < 1) {
+            return Optional.empty();
+        }
+        if(version == current.version()) {
+            return Optional.of(current);
+        }
+
+        final History history = histories.get(name);
+        if(history == null) {
+            return Optional.empty();
+        }
+
+        byte[] cards = ShuffleChain.materialize(current).ordinals();
+        synchronized (history) {
+            final long oldest = history.newest - history.deltas.size() + 1;
+            if(history.newest != current.version() - 1 || version < oldest) {
+                return Optional.empty(); // not kept, or a write has landed but not been recorded yet
+            }
+
+            final Iterator<byte[]> newestFirst = history.deltas.descendingIterator();
+            for(long v = history.newest; v >= version; v--) {
+                cards = DeckDeltas.apply(cards, newestFirst.next());
+            }
+        }
+
+        final Deck out = new Deck();
+        out.setName(name);
+        out.setVersion(version);
+        out.setOrdinals(cards);
+        return Optional.of(out);
+    }
+
+    public Optional<Deck> findOne(String name) {
+        return store.findOne(name);
+    }
+
+    public List<Deck> findPage(Integer pageSize, Integer offset) {
+        return store.findPage(pageSize, offset);
+    }
+
+    public List<Deck> findPageAfter(String after, Integer pageSize) {
+        return store.findPageAfter(after, pageSize);
+    }
+
+    public void delete(String name) {
+        store.delete(name);
+
+        final History history = histories.remove(name);
+        if(history != null) {
+            synchronized (history) {
+                history.deleted = true;
+                drop(history, history.deltas.size());
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        if(store instanceof Closeable) { ((Closeable) store).close(); }
+    }
+}
@@ -3,46 +3,205 @@ package shuffle.adapters.store;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import shuffle.core.Deck;
+import shuffle.core.ShuffleChain;
 import shuffle.ports.DeckStore;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
+ * Thread-safe in-memory store.  Writes go through {@link ConcurrentMap#compute}, which only locks the hash bin of
+ * the deck being written, so operations on different decks don't contend and reads never block.  A sorted index of
+ * deck names is maintained alongside, so pages are read in name order without sorting the whole store.
+ * <p>
+ * A deck's version goes up by one with every change, and never repeats even across a delete: a new deck starts
+ * above the highest version any deleted deck reached, so a deck created again under an old name can't be mistaken
+ * for its predecessor by anything that cached it by name and version.
+ *
  * @author Drew Fead
  */
 public class InMemoryStore implements DeckStore {
     private static final Logger log = LoggerFactory.getLogger(InMemoryStore.class);
 
-    private Map<String, Deck> cache = new HashMap<>();
+    /**
+     * Told about every change, while the deck's hash bin is still locked, so changes to one deck are always seen in
+     * the order they were made.  Implementations must be quick and must not call back into the store.
+     */
+    public interface Listener {
+        void upserted(Deck deck);
+        void deleted(String name);
+    }
+
+    private static final Listener NONE = new Listener() {
+        public void upserted(Deck deck) {}
+        public void deleted(String name) {}
+    };
+
+    private final ConcurrentMap<String, Deck> cache = new ConcurrentHashMap<>();
+    private final NavigableSet<String> names = new ConcurrentSkipListSet<>();
+    private final AtomicLong retired = new AtomicLong(); // the highest version of any deleted deck
+    private final Listener listener;
+
+    public InMemoryStore() {
+        this(NONE);
+    }
+
+    public InMemoryStore(Listener listener) {
+        this.listener = listener;
+    }
+
+    private Deck stamp(Deck next, Deck current) {
+        next.setVersion((current == null? retired.get() : current.version()) + 1);
+        listener.upserted(next);
+        return next;
+    }
 
     public Optional<Deck> upsert(Deck deck) {
-        if(log.isInfoEnabled()) { log.info(String.format("upserting deck: %s", deck.name())); }
+        log.debug("upserting deck: {}", deck.name());
 
-        cache.put(deck.name(), deck);
-        return Optional.of(deck);
+        return Optional.of(cache.compute(deck.name(), (name, current) -> {
+            final Deck next = stamp(deck, current); // first, so a listener that refuses the deck leaves no trace
+            if(current == null) { names.add(name); }
+            return next;
+        }));
+    }
+
+    public Optional<Deck> update(String name, UnaryOperator<Deck> mutation) {
+        log.debug("updating deck: {}", name);
+
+        return Optional.ofNullable(cache.computeIfPresent(name, (key, current) ->
+            stamp(Objects.requireNonNull(mutation.apply(current.copy())), current)
+        ));
     }
 
     public Optional<Deck> findOne(String name) {
-        if(log.isInfoEnabled()) { log.info(String.format("finding deck: %s", name)); }
+        log.debug("finding deck: {}", name);
 
         return Optional.ofNullable(cache.get(name));
     }
 
     public List<Deck> findPage(Integer pageSize, Integer offset) {
-        if(log.isInfoEnabled()) { log.info(String.format("finding %s decks from offset: %s", pageSize, offset)); }
+        log.debug("finding {} decks from offset: {}", pageSize, offset);
+
+        return page(names.stream().skip(offset), pageSize);
+    }
+
+    public List<Deck> findPageAfter(String after, Integer pageSize) {
+        log.debug("finding {} decks after: {}", pageSize, after);
+
+        return page((after == null? names : names.tailSet(after, false)).stream(), pageSize);
+    }
 
-        return cache.entrySet().stream()
-            .sorted(Comparator.comparing(Map.Entry::getKey))
-            .map(Map.Entry::getValue)
-            .skip(offset)
+    private List<Deck> page(Stream<String> sortedNames, Integer pageSize) {
+        return sortedNames
+            .map(cache::get)
+            .filter(Objects::nonNull) // the index can briefly lead the map while a write is in flight
             .limit(pageSize)
             .collect(Collectors.toList());
     }
 
     public void delete(String name) {
-        if(log.isInfoEnabled()) { log.info(String.format("deleting deck: %s", name)); }
+        log.debug("deleting deck: {}", name);
+
+        cache.computeIfPresent(name, (key, current) -> {
+            listener.deleted(key);
+            names.remove(key);
+            retire(current.version());
+            return null;
+        });
+    }
+
+    private void retire(long version) {
+        retired.accumulateAndGet(version, Math::max);
+    }
+
+    /**
+     * @return the highest version any deleted deck reached, for snapshots to keep
+     */
+    long retired() {
+        return retired.get();
+    }
+
+    /**
+     * Puts a deck back exactly as it was recorded, keeping its version and without telling the listener.
+     */
+    void restore(Deck deck) {
+        cache.compute(deck.name(), (name, current) -> {
+            if(current == null) { names.add(name); }
+            return deck;
+        });
+    }
+
+    /**
+     * Replays a recorded change without telling the listener.  Snapshots are taken while writes carry on, so
+     * replaying records over one can repeat changes it already holds: an upsert or shuffle no newer than the deck
+     * is skipped.  A {@link DeckRecords#SHUFFLED} record adds its shuffle to the version right before it, so one
+     * that doesn't follow on from the deck as it is (a deck since deleted and created again, or missing) is skipped
+     * too; a later record of the deck will put it right.
+     */
+    void apply(DeckRecords.Entry entry) {
+        switch(entry.type) {
+            case DeckRecords.UPSERT:
+                cache.compute(entry.name, (name, current) -> {
+                    if(current == null) { names.add(name); }
+                    return current != null && entry.deck.version() <= current.version()? current : entry.deck;
+                });
+                break;
+
+            case DeckRecords.DELETE:
+                evict(entry.name);
+                break;
+
+            case DeckRecords.RETIRED:
+                retire(entry.version);
+                break;
+
+            case DeckRecords.SHUFFLED:
+                final long version = entry.deck.version();
+                final Deck shuffled = cache.computeIfPresent(entry.name, (key, current) -> {
+                    if(version != current.version() + 1) {
+                        if(version > current.version()) {
+                            log.warn("skipped a shuffle of {} to version {} from version {}",
+                                key, version, current.version());
+                        }
+                        return current;
+                    }
+
+                    final Deck next = current.copy();
+                    next.setVersion(entry.deck.version());
+                    next.setPending(ShuffleChain.then(current.pending(), entry.deck.pending()[0]));
+                    next.setHead(0);
+                    return next;
+                });
+                if(shuffled == null) { log.warn("skipped a shuffle of a missing deck: {}", entry.name); }
+                break;
+
+            default:
+                throw new IllegalArgumentException("unknown record type: " + entry.type);
+        }
+    }
+
+    /**
+     * Removes a deck without telling the listener.
+     */
+    void evict(String name) {
+        cache.computeIfPresent(name, (key, current) -> {
+            names.remove(key);
+            retire(current.version());
+            return null;
+        });
+    }
 
-        cache.remove(name);
+    /**
+     * @return a weakly consistent view of every deck, for taking snapshots
+     */
+    Collection<Deck> decks() {
+        return cache.values();
     }
 }
@@ -0,0 +1,398 @@
+package shuffle.adapters.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import shuffle.core.Deck;
+import shuffle.ports.DeckStore;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Durable store that serves everything from an {@link InMemoryStore} and logs every upsert and delete to an
+ * append-only journal before acknowledging it.
+ * <p>
+ * Writers don't sync the journal themselves.  They queue their record and a single commit thread writes whatever
+ * has queued up in one go and syncs once for all of it (group commit), optionally after waiting {@code windowMicros}
+ * for more writers to join the batch.  In {@link Sync#FSYNC} mode writers wait for that sync before returning.  In
+ * {@link Sync#ASYNC} mode they don't wait at all, so a crash can lose up to one window's worth of writes.
+ * <p>
+ * The journal is split into numbered segments.  Once the current segment has grown past {@code compactBytes}, a
+ * background task starts a new segment, writes every deck to a snapshot, and deletes the segments the snapshot
+ * covers.  Recovery loads the newest snapshot and replays the segments after it.
+ *
+ * @author Drew Fead
+ */
+public class JournalStore implements DeckStore, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(JournalStore.class);
+
+    public enum Sync { FSYNC, ASYNC }
+
+    private static final Pattern SEGMENT = Pattern.compile("journal-(\\d+)\\.log");
+    private static final Pattern SNAPSHOT = Pattern.compile("snapshot-(\\d+)\\.dat");
+
+    private final File directory;
+    private final Sync sync;
+    private final long windowNanos;
+    private final long compactBytes;
+    private final InMemoryStore state;
+
+    private final Object queueLock = new Object();
+    private List<byte[]> queue = new ArrayList<>();
+    private long appended = 0;              // records queued so far, guarded by queueLock
+    private long rotateRequested = 0;       // segment the compactor asked for, guarded by queueLock
+
+    private final Object durableLock = new Object();
+    private long durable = 0;               // records written (and synced, in FSYNC mode), guarded by durableLock
+    private volatile long segment;          // current segment, changed under durableLock
+    private IOException failure;            // guarded by durableLock
+
+    private FileChannel journal;            // only touched by the commit thread once started
+    private volatile long segmentBytes = 0; // only changed by the commit thread once started
+    private volatile boolean running = true;
+
+    private final Thread committer;
+    private final ScheduledExecutorService compactor;
+
+    public JournalStore(File directory, Sync sync, long windowMicros, long compactBytes) throws IOException {
+        this(directory, sync, windowMicros, compactBytes, null);
+    }
+
+    /**
+     * @param also told about every change once it's queued for the journal, or null; decks recovered at startup
+     *             aren't passed to it
+     */
+    public JournalStore(File directory, Sync sync, long windowMicros, long compactBytes,
+                        InMemoryStore.Listener also) throws IOException {
+        this.directory = directory;
+        this.sync = sync;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.compactBytes = compactBytes;
+        this.state = new InMemoryStore(new InMemoryStore.Listener() {
+            public void upserted(Deck deck) {
+                enqueue(DeckRecords.change(deck));
+                if(also != null) { also.upserted(deck); }
+            }
+            public void deleted(String name) {
+                enqueue(DeckRecords.delete(name));
+                if(also != null) { also.deleted(name); }
+            }
+        });
+
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("couldn't create journal directory: " + directory);
+        }
+
+        segment = recover() + 1; // never append to a segment that may end in a torn record
+        journal = open(segment);
+
+        committer = new Thread(this::commitLoop, "journal-commit");
+        committer.setDaemon(true);
+        committer.start();
+
+        compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread t = new Thread(r, "journal-compact");
+            t.setDaemon(true);
+            return t;
+        });
+        compactor.scheduleWithFixedDelay(this::compactIfNeeded, 1, 1, TimeUnit.SECONDS);
+    }
+
+    private File segmentFile(long n) {
+        return new File(directory, String.format("journal-%012d.log", n));
+    }
+
+    private File snapshotFile(long n) {
+        return new File(directory, String.format("snapshot-%012d.dat", n));
+    }
+
+    private static SortedMap<Long, File> numbered(File directory, Pattern pattern) {
+        final SortedMap<Long, File> out = new TreeMap<>();
+        final File[] files = directory.listFiles();
+        for(File f : files == null? new File[0] : files) {
+            final Matcher m = pattern.matcher(f.getName());
+            if(m.matches()) { out.put(Long.parseLong(m.group(1)), f); }
+        }
+
+        return out;
+    }
+
+    private FileChannel open(long n) throws IOException {
+        return FileChannel.open(segmentFile(n).toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Loads the newest snapshot and replays the segments it doesn't cover.
+     *
+     * @return the number of the last segment found
+     */
+    private long recover() throws IOException {
+        final SortedMap<Long, File> snapshots = numbered(directory, SNAPSHOT);
+        final long from = snapshots.isEmpty()? 0 : snapshots.lastKey();
+        if(!snapshots.isEmpty()) {
+            replay(snapshots.get(from));
+        }
+
+        final SortedMap<Long, File> segments = numbered(directory, SEGMENT).tailMap(from);
+        for(File f : segments.values()) {
+            replay(f);
+        }
+
+        log.info("recovered {} decks from snapshot {} and {} segments",
+            state.decks().size(), from, segments.size());
+
+        return segments.isEmpty()? from : Math.max(from, segments.lastKey());
+    }
+
+    private void replay(File f) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            for(DeckRecords.Entry entry = DeckRecords.read(in); entry != null; entry = DeckRecords.read(in)) {
+                state.apply(entry);
+            }
+        }
+    }
+
+    private void enqueue(byte[] record) {
+        synchronized (queueLock) {
+            queue.add(record);
+            appended++;
+            queueLock.notify();
+        }
+    }
+
+    /**
+     * Blocks until every record queued so far is durable, in {@link Sync#FSYNC} mode.
+     */
+    private void await() {
+        final long target;
+        synchronized (queueLock) {
+            target = appended;
+        }
+
+        synchronized (durableLock) {
+            while(failure == null && durable < target && sync == Sync.FSYNC) {
+                try {
+                    durableLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("interrupted while waiting for the journal", e);
+                }
+            }
+
+            if(failure != null) {
+                throw new UncheckedIOException("journal is unavailable", failure);
+            }
+        }
+    }
+
+    private void commitLoop() {
+        final long idleNanos = TimeUnit.MILLISECONDS.toNanos(100);
+
+        while(running || !isQueueEmpty()) {
+            try {
+                final List<byte[]> batch;
+                final long batchEnd;
+                final long rotateTo;
+                synchronized (queueLock) {
+                    if(queue.isEmpty() && rotateRequested <= segment && running) {
+                        TimeUnit.NANOSECONDS.timedWait(queueLock, idleNanos);
+                    }
+                    if(windowNanos > 0 && !queue.isEmpty() && running) {
+                        final long deadline = System.nanoTime() + windowNanos; // let more writers join the batch
+                        for(long left = windowNanos; left > 0; left = deadline - System.nanoTime()) {
+                            TimeUnit.NANOSECONDS.timedWait(queueLock, left);
+                        }
+                    }
+
+                    batch = queue;
+                    batchEnd = appended;
+                    rotateTo = rotateRequested;
+                    queue = new ArrayList<>();
+                }
+
+                if(!batch.isEmpty()) {
+                    write(batch);
+                    journal.force(false);
+                }
+
+                synchronized (durableLock) {
+                    durable = batchEnd;
+                    if(rotateTo > segment) {
+                        journal.close();
+                        journal = open(rotateTo);
+                        segment = rotateTo;
+                        segmentBytes = 0;
+                    }
+                    durableLock.notifyAll();
+                }
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+
+            } catch (IOException e) {
+                if(log.isErrorEnabled()) { log.error("couldn't write journal", e); }
+                synchronized (durableLock) {
+                    failure = e;
+                    durableLock.notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    private boolean isQueueEmpty() {
+        synchronized (queueLock) {
+            return queue.isEmpty();
+        }
+    }
+
+    private void write(List<byte[]> batch) throws IOException {
+        if(batch.isEmpty()) {
+            return;
+        }
+
+        final ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+        long remaining = 0;
+        for(int i = 0; i < buffers.length; i++) {
+            buffers[i] = ByteBuffer.wrap(batch.get(i));
+            remaining += buffers[i].remaining();
+        }
+
+        segmentBytes += remaining;
+        while(remaining > 0) {
+            remaining -= journal.write(buffers);
+        }
+    }
+
+    private void compactIfNeeded() {
+        try {
+            if(segmentBytes >= compactBytes) {
+                compact();
+            }
+        } catch (Exception e) {
+            if(log.isErrorEnabled()) { log.error("couldn't compact journal", e); }
+        }
+    }
+
+    /**
+     * Starts a new segment, then snapshots the current state.  Every record in the older segments was applied in
+     * memory before it was queued, so the snapshot covers them.  Records that land in the new segment while the
+     * snapshot is being written may be in it as well; on recovery they're replayed over it, and those no newer than
+     * the snapshot's deck are skipped, so none are applied twice.
+     */
+    public void compact() throws IOException {
+        final long next = segment + 1;
+        synchronized (queueLock) {
+            rotateRequested = next;
+            queueLock.notify();
+        }
+        synchronized (durableLock) {
+            while(segment < next && failure == null) {
+                try {
+                    durableLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        final File tmp = new File(directory, "snapshot.tmp");
+        try (FileOutputStream file = new FileOutputStream(tmp);
+             OutputStream out = new BufferedOutputStream(file)) {
+            for(Deck deck : state.decks()) {
+                out.write(DeckRecords.upsert(deck));
+            }
+            out.write(DeckRecords.retired(state.retired())); // after, so decks deleted meanwhile are counted
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(tmp.toPath(), snapshotFile(next).toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+        for(Map.Entry<Long, File> old : numbered(directory, SEGMENT).headMap(next).entrySet()) {
+            Files.deleteIfExists(old.getValue().toPath());
+        }
+        for(Map.Entry<Long, File> old : numbered(directory, SNAPSHOT).headMap(next).entrySet()) {
+            Files.deleteIfExists(old.getValue().toPath());
+        }
+
+        log.info("compacted journal into snapshot {}", next);
+    }
+
+    public Optional<Deck> upsert(Deck deck) {
+        final Optional<Deck> out = state.upsert(deck);
+        await();
+        return out;
+    }
+
+    public List<Deck> upsertAll(List<Deck> decks) {
+        final List<Deck> out = new ArrayList<>(decks.size());
+        for(Deck deck : decks) {
+            state.upsert(deck).ifPresent(out::add);
+        }
+        await(); // one wait, and typically one sync, for the whole batch
+
+        return out;
+    }
+
+    public Optional<Deck> update(String name, UnaryOperator<Deck> mutation) {
+        final Optional<Deck> out = state.update(name, mutation);
+        if(out.isPresent()) { await(); }
+        return out;
+    }
+
+    public Optional<Deck> findOne(String name) {
+        return state.findOne(name);
+    }
+
+    public List<Deck> findPage(Integer pageSize, Integer offset) {
+        return state.findPage(pageSize, offset);
+    }
+
+    public List<Deck> findPageAfter(String after, Integer pageSize) {
+        return state.findPageAfter(after, pageSize);
+    }
+
+    public void delete(String name) {
+        state.delete(name);
+        await();
+    }
+
+    /**
+     * Commits everything queued so far and stops the background threads.
+     */
+    public void close() throws IOException {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES); // a compaction in progress needs the commit thread
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        running = false;
+        synchronized (queueLock) {
+            queueLock.notify();
+        }
+
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        journal.close();
+    }
+}
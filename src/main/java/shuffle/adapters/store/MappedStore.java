@@ -0,0 +1,601 @@
+package shuffle.adapters.store;
+
+import com.google.common.util.concurrent.Striped;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import shuffle.core.Card;
+import shuffle.core.Deck;
+import shuffle.core.ShuffleChain;
+import shuffle.ports.DeckStore;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+/**
+ * Durable store that keeps decks as fixed-size records in a memory-mapped file, so reads and shuffles cost about
+ * the same as in memory while the data survives restarts.
+ * <p>
+ * {@code decks.dat} holds {@code capacity} slots, each with a state and two copies of
+ * {@code [checksum][version][name length][name][card count][cards]}.  The state says which copy is current, and a
+ * write fills the other copy before flipping the state to it, so a write cut short by a crash leaves the previous
+ * version whole.  The flip may still reach the disk before the copy it points at, so each copy carries a CRC-32 of
+ * the rest of it: on open, a slot whose current copy doesn't match falls back to its other copy, and one with no
+ * good copy is freed and logged.  A new deck is written to both copies.
+ * Cards already drawn from a deck are marked by the high bit of their ordinal, which is otherwise always clear.
+ * {@code decks.idx} is an open-addressing hash table from deck name to slot, also memory-mapped.  The index is
+ * marked dirty while the store is open; if it wasn't closed cleanly, it's rebuilt from the slots on the next open.
+ * Slots freed by {@link #delete(String)} are reused by later inserts, and their index entries are removed by
+ * shifting the rest of the probe run back, so deletes leave no tombstones for later lookups to wade through.
+ * Capacity is fixed when the files are created, and upserts of new decks fail once every slot is taken.  The
+ * header keeps the highest version any deleted deck reached, and new decks start above it, so a deck created again
+ * never repeats its predecessor's versions.
+ * <p>
+ * Writes to one deck are serialized by a striped lock on its name; allocating slots and changing the index also
+ * takes a single structure lock, which only inserts and deletes need.  Lookups don't take it, so one that misses
+ * while a delete is shifting entries is retried.
+ *
+ * @author Drew Fead
+ */
+public class MappedStore implements DeckStore, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(MappedStore.class);
+
+    public static final int DEFAULT_MAX_NAME_BYTES = Deck.MAX_NAME_BYTES;
+    public static final int DEFAULT_MAX_CARDS = 8 * Card.COUNT; // an eight deck shoe, the largest commonly dealt
+
+    private static final int MAGIC = 0x5348_4446; // "SHDF"
+    private static final int FORMAT = 2;
+    private static final int HEADER = 64;
+
+    // header layout, shared by both files except where noted
+    private static final int FORMAT_VERSION = 4;
+    private static final int SIZE = 8;          // slot size in decks.dat, bucket count in decks.idx
+    private static final int CAPACITY = 12;     // decks.dat only
+    private static final int DIRTY = 12;        // decks.idx only
+    private static final int RETIRED = 16;      // decks.dat only, the highest version of any deleted deck
+
+    private static final byte FREE = 0;
+    private static final byte USED = 1;        // copy 0 is current; USED + 1 for copy 1
+
+    private static final byte DRAWN = (byte) 0x80;
+
+    private static final int EMPTY = 0;
+    private static final int TOMBSTONE = -1; // left by deletes in older index files, which are rebuilt on open
+
+    // slot layout
+    private static final int STATE = 0;
+    private static final int COPIES = 8;
+
+    // copy layout
+    private static final int CHECKSUM = 0;
+    private static final int VERSION = 4;
+    private static final int NAME_LENGTH = 12;
+    private static final int NAME = 14;
+
+    private final int capacity;
+    private final int maxNameBytes;
+    private final int maxCards;
+    private final int copySize;
+    private final int slotSize;
+    private final int buckets;
+    private final boolean sync;
+
+    private final FileChannel dataChannel;
+    private final FileChannel indexChannel;
+    private final MappedByteBuffer data;
+    private final MappedByteBuffer index;
+
+    private final Striped<ReadWriteLock> locks = Striped.readWriteLock(1024);
+    private final Lock structure = new ReentrantLock();
+    private volatile int shifts; // odd while a delete is shifting index entries, bumped by each one
+    private final Queue<Integer> freeSlots = new ConcurrentLinkedQueue<>();
+    private final NavigableSet<String> names = new ConcurrentSkipListSet<>();
+
+    public MappedStore(File directory, int capacity) throws IOException {
+        this(directory, capacity, DEFAULT_MAX_NAME_BYTES, DEFAULT_MAX_CARDS, false);
+    }
+
+    /**
+     * @param sync whether to force every write to disk before returning; without it writes survive a crash of this
+     *             process, but not of the machine
+     */
+    public MappedStore(File directory, int capacity, int maxNameBytes, int maxCards, boolean sync)
+            throws IOException {
+
+        this.copySize = align(NAME + maxNameBytes + 2 + maxCards);
+        this.slotSize = COPIES + 2 * copySize;
+        if(capacity < 1 || (long) HEADER + (long) capacity * slotSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("capacity must fit in a single mapping: " + capacity);
+        }
+
+        this.capacity = capacity;
+        this.maxNameBytes = maxNameBytes;
+        this.maxCards = maxCards;
+        this.buckets = Integer.highestOneBit(capacity * 4 - 1); // keeps the load factor at or below 1/2
+        this.sync = sync;
+
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("couldn't create store directory: " + directory);
+        }
+
+        final File dataFile = new File(directory, "decks.dat");
+        final File indexFile = new File(directory, "decks.idx");
+        final boolean existing = dataFile.exists();
+
+        dataChannel = new RandomAccessFile(dataFile, "rw").getChannel();
+        indexChannel = new RandomAccessFile(indexFile, "rw").getChannel();
+        data = dataChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) capacity * slotSize);
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) buckets * 4);
+
+        if(existing) {
+            checkHeader();
+        }
+        writeHeader(data, slotSize);
+        data.putInt(CAPACITY, capacity);
+
+        final boolean intact = !existing || verify();
+        final boolean indexClean = existing && intact && index.getInt(0) == MAGIC && index.getInt(SIZE) == buckets
+            && index.get(DIRTY) == 0 && !hasTombstones();
+        if(existing && !indexClean && log.isWarnEnabled()) { log.warn("deck index wasn't closed cleanly, rebuilding"); }
+        load(!indexClean);
+
+        writeHeader(index, buckets);
+        index.put(DIRTY, (byte) 1); // until closed
+        index.force();
+    }
+
+    private boolean hasTombstones() {
+        for(int b = 0; b < buckets; b++) {
+            if(index.getInt(bucketOffset(b)) == TOMBSTONE) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static int align(int size) {
+        return (size + 7) & ~7;
+    }
+
+    private void checkHeader() throws IOException {
+        if(data.getInt(0) != MAGIC) {
+            throw new IOException("not a deck store file");
+        }
+        if(data.getInt(FORMAT_VERSION) != FORMAT) {
+            throw new IOException("deck store is in format " + data.getInt(FORMAT_VERSION)
+                + ", this version only reads format " + FORMAT);
+        }
+        if(data.getInt(SIZE) != slotSize) {
+            throw new IOException("deck store was created with a different record layout");
+        }
+        if(data.getInt(CAPACITY) > capacity) {
+            throw new IOException("deck store can't shrink below its capacity of " + data.getInt(CAPACITY));
+        }
+    }
+
+    private static void writeHeader(ByteBuffer buffer, int size) {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(FORMAT_VERSION, FORMAT);
+        buffer.putInt(SIZE, size);
+    }
+
+    /**
+     * Points every used slot at a copy that matches its checksum, freeing any slot with none.
+     *
+     * @return whether every slot was already intact
+     */
+    private boolean verify() {
+        boolean intact = true;
+        for(int slot = 0; slot < capacity; slot++) {
+            final byte state = data.get(slotOffset(slot) + STATE);
+            final int current = state - USED;
+            if(state == FREE || (current == 0 || current == 1) && intact(slot, current)) {
+                continue;
+            }
+
+            intact = false;
+            if((current == 0 || current == 1) && intact(slot, 1 - current)) {
+                log.warn("deck in slot {} was cut short, keeping its previous version", slot);
+                data.put(slotOffset(slot) + STATE, (byte) (USED + 1 - current));
+            } else {
+                log.error("deck in slot {} was cut short with no good copy to fall back on, dropping it", slot);
+                data.put(slotOffset(slot) + STATE, FREE);
+            }
+        }
+
+        return intact;
+    }
+
+    private int copyOffset(int slot, int copy) {
+        return slotOffset(slot) + COPIES + copy * copySize;
+    }
+
+    /**
+     * @return the current copy of a used slot
+     */
+    private int copyOffset(int slot) {
+        return copyOffset(slot, data.get(slotOffset(slot) + STATE) - USED);
+    }
+
+    /**
+     * @return the checksum of a copy's contents, or -1 if its lengths are out of range
+     */
+    private long checksum(int offset) {
+        final int nameLength = data.getShort(offset + NAME_LENGTH) & 0xffff;
+        final int cardCount = data.getShort(offset + NAME + maxNameBytes) & 0xffff;
+        if(nameLength > maxNameBytes || cardCount > maxCards) {
+            return -1;
+        }
+
+        final ByteBuffer view = data.duplicate();
+        view.position(offset + VERSION);
+        view.limit(offset + NAME + nameLength);
+        final CRC32 crc = new CRC32();
+        crc.update(view);
+        view.limit(offset + NAME + maxNameBytes + 2 + cardCount);
+        view.position(offset + NAME + maxNameBytes);
+        crc.update(view);
+        return crc.getValue();
+    }
+
+    private boolean intact(int slot, int copy) {
+        final int offset = copyOffset(slot, copy);
+        return checksum(offset) == (data.getInt(offset + CHECKSUM) & 0xffff_ffffL);
+    }
+
+    private void load(boolean rebuildIndex) {
+        if(rebuildIndex) {
+            for(int b = 0; b < buckets; b++) {
+                index.putInt(bucketOffset(b), EMPTY);
+            }
+        }
+
+        for(int slot = 0; slot < capacity; slot++) {
+            if(data.get(slotOffset(slot) + STATE) != FREE) {
+                final String name = new String(nameBytes(slot), StandardCharsets.UTF_8);
+                names.add(name);
+                if(rebuildIndex) { insertIndex(name, slot); }
+
+            } else {
+                freeSlots.add(slot);
+            }
+        }
+    }
+
+    private int slotOffset(int slot) {
+        return HEADER + slot * slotSize;
+    }
+
+    private int bucketOffset(int bucket) {
+        return HEADER + bucket * 4;
+    }
+
+    private int bucket(String name) {
+        final int h = name.hashCode() * 0x9E3779B9; // spread the hash, String.hashCode clusters on similar names
+        return (h ^ (h >>> 16)) & (buckets - 1);
+    }
+
+    private byte[] nameBytes(int slot) {
+        final int offset = copyOffset(slot);
+        final byte[] name = new byte[Math.min(data.getShort(offset + NAME_LENGTH) & 0xffff, maxNameBytes)];
+        final ByteBuffer view = data.duplicate();
+        view.position(offset + NAME);
+        view.get(name);
+        return name;
+    }
+
+    /**
+     * @return the bucket holding {@code name}, or -1; only stable under the structure lock
+     */
+    private int findBucket(String name, byte[] encoded) {
+        for(int b = bucket(name), probes = 0; probes < buckets; b = (b + 1) & (buckets - 1), probes++) {
+            final int entry = index.getInt(bucketOffset(b));
+            if(entry == EMPTY) {
+                return -1;
+            }
+            if(Arrays.equals(encoded, nameBytes(entry - 1))) {
+                return b;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return the slot holding {@code name}, or -1.  A miss is only trusted if no delete was shifting entries while
+     *         the index was probed, since one could have moved the entry back past the probe.
+     */
+    private int findSlot(String name, byte[] encoded) {
+        while(true) {
+            final int before = shifts;
+            for(int b = bucket(name), probes = 0; probes < buckets; b = (b + 1) & (buckets - 1), probes++) {
+                final int entry = index.getInt(bucketOffset(b));
+                if(entry == EMPTY) {
+                    break;
+                }
+                if(Arrays.equals(encoded, nameBytes(entry - 1))) {
+                    return entry - 1;
+                }
+            }
+
+            if((before & 1) == 0 && shifts == before) {
+                return -1;
+            }
+            Thread.yield();
+        }
+    }
+
+    private void insertIndex(String name, int slot) {
+        for(int b = bucket(name); ; b = (b + 1) & (buckets - 1)) {
+            if(index.getInt(bucketOffset(b)) == EMPTY) {
+                index.putInt(bucketOffset(b), slot + 1);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Empties {@code bucket}, moving back any later entry in the run that would otherwise no longer be reachable
+     * from its home bucket.  Each entry is written to its new bucket before its old one is reused, so lookups see
+     * it in one place or the other.  Called with the structure lock held.
+     */
+    private void removeIndex(int bucket) {
+        shifts++;
+        try {
+            int hole = bucket;
+            for(int b = (hole + 1) & (buckets - 1); ; b = (b + 1) & (buckets - 1)) {
+                final int entry = index.getInt(bucketOffset(b));
+                if(entry == EMPTY) {
+                    break;
+                }
+
+                final int home = bucket(new String(nameBytes(entry - 1), StandardCharsets.UTF_8));
+                final boolean reachable = hole <= b? hole < home && home <= b : hole < home || home <= b;
+                if(!reachable) {
+                    index.putInt(bucketOffset(hole), entry);
+                    hole = b;
+                }
+            }
+            index.putInt(bucketOffset(hole), EMPTY);
+
+        } finally {
+            shifts++;
+        }
+    }
+
+    private Deck read(int slot) {
+        final int offset = copyOffset(slot);
+        final byte[] name = nameBytes(slot);
+        final int cardsOffset = offset + NAME + maxNameBytes;
+        final byte[] cards = new byte[Math.min(data.getShort(cardsOffset) & 0xffff, maxCards)];
+        final ByteBuffer view = data.duplicate();
+        view.position(cardsOffset + 2);
+        view.get(cards);
+
+        int drawn = 0;
+        while(drawn < cards.length && (cards[drawn] & DRAWN) != 0) {
+            cards[drawn++] &= ~DRAWN;
+        }
+
+        final Deck deck = new Deck();
+        deck.setName(new String(name, StandardCharsets.UTF_8));
+        deck.setVersion(data.getLong(offset + VERSION));
+        deck.setOrdinals(cards);
+        deck.setHead(drawn);
+        return deck;
+    }
+
+    /**
+     * Slots have no room for pending shuffles, so they're worked out before the cards are written.  Drawn cards are
+     * marked in a copy, leaving the deck's own cards alone.  The deck goes into the slot's spare copy, or both
+     * copies of a free slot, and the state is flipped to it last.
+     */
+    private void write(int slot, byte[] name, Deck deck) {
+        final Deck current = ShuffleChain.materialize(deck);
+        final byte[] cards = current.head() == 0? current.ordinals() : current.ordinals().clone();
+        for(int i = 0; i < current.head(); i++) {
+            cards[i] |= DRAWN;
+        }
+
+        final byte state = data.get(slotOffset(slot) + STATE);
+        final int spare = state == FREE? 0 : 1 - (state - USED);
+        if(state == FREE) {
+            writeCopy(copyOffset(slot, 1), name, deck.version(), cards);
+        }
+        writeCopy(copyOffset(slot, spare), name, deck.version(), cards);
+
+        data.put(slotOffset(slot) + STATE, (byte) (USED + spare)); // last, so a torn copy is never current
+        if(sync) { data.force(); }
+    }
+
+    private void writeCopy(int offset, byte[] name, long version, byte[] cards) {
+        final ByteBuffer view = data.duplicate();
+
+        data.putLong(offset + VERSION, version);
+        data.putShort(offset + NAME_LENGTH, (short) name.length);
+        view.position(offset + NAME);
+        view.put(name);
+
+        final int cardsOffset = offset + NAME + maxNameBytes;
+        data.putShort(cardsOffset, (short) cards.length);
+        view.position(cardsOffset + 2);
+        view.put(cards);
+
+        data.putInt(offset + CHECKSUM, (int) checksum(offset));
+    }
+
+    private byte[] encode(Deck deck) {
+        final byte[] name = deck.name().getBytes(StandardCharsets.UTF_8);
+        if(name.length > maxNameBytes) {
+            throw new IllegalArgumentException("deck name is longer than " + maxNameBytes + " bytes");
+        }
+        if(deck.ordinals().length > maxCards) {
+            throw new IllegalArgumentException("deck has more than " + maxCards + " cards");
+        }
+
+        return name;
+    }
+
+    public Optional<Deck> upsert(Deck deck) {
+        log.debug("upserting deck: {}", deck.name());
+
+        final byte[] name = encode(deck);
+        final Lock lock = locks.get(deck.name()).writeLock();
+        lock.lock();
+        try {
+            final int existing = findSlot(deck.name(), name);
+            if(existing >= 0) {
+                final int slot = existing;
+                deck.setVersion(data.getLong(copyOffset(slot) + VERSION) + 1);
+                write(slot, name, deck);
+                return Optional.of(deck);
+            }
+
+            structure.lock();
+            try {
+                final Integer slot = freeSlots.poll();
+                if(slot == null) {
+                    log.error("store is full, capacity: {}", capacity);
+                    return Optional.empty();
+                }
+
+                deck.setVersion(data.getLong(RETIRED) + 1);
+                write(slot, name, deck);
+                insertIndex(deck.name(), slot);
+                names.add(deck.name());
+                return Optional.of(deck);
+
+            } finally {
+                structure.unlock();
+            }
+
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Optional<Deck> update(String name, UnaryOperator<Deck> mutation) {
+        log.debug("updating deck: {}", name);
+
+        final byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+        final Lock lock = locks.get(name).writeLock();
+        lock.lock();
+        try {
+            final int slot = findSlot(name, encoded);
+            if(slot < 0) {
+                return Optional.empty();
+            }
+
+            final Deck current = read(slot);
+            final Deck next = Objects.requireNonNull(mutation.apply(current.copy()));
+            next.setVersion(current.version() + 1);
+            write(slot, encode(next), next);
+            return Optional.of(next);
+
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Optional<Deck> findOne(String name) {
+        log.debug("finding deck: {}", name);
+
+        final byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+        final Lock lock = locks.get(name).readLock();
+        lock.lock();
+        try {
+            final int slot = findSlot(name, encoded);
+            return slot < 0? Optional.empty() : Optional.of(read(slot));
+
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public List<Deck> findPage(Integer pageSize, Integer offset) {
+        log.debug("finding {} decks from offset: {}", pageSize, offset);
+
+        return names.stream()
+            .skip(offset)
+            .map(name -> findOne(name).orElse(null))
+            .filter(Objects::nonNull)
+            .limit(pageSize)
+            .collect(Collectors.toList());
+    }
+
+    public List<Deck> findPageAfter(String after, Integer pageSize) {
+        log.debug("finding {} decks after: {}", pageSize, after);
+
+        return (after == null? names : names.tailSet(after, false)).stream()
+            .map(name -> findOne(name).orElse(null))
+            .filter(Objects::nonNull)
+            .limit(pageSize)
+            .collect(Collectors.toList());
+    }
+
+    public void delete(String name) {
+        log.debug("deleting deck: {}", name);
+
+        final byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+        final Lock lock = locks.get(name).writeLock();
+        lock.lock();
+        try {
+            structure.lock();
+            try {
+                final int bucket = findBucket(name, encoded);
+                if(bucket < 0) {
+                    return;
+                }
+
+                final int slot = index.getInt(bucketOffset(bucket)) - 1;
+                final long version = data.getLong(copyOffset(slot) + VERSION);
+                data.putLong(RETIRED, Math.max(data.getLong(RETIRED), version)); // before the slot is freed
+                data.put(slotOffset(slot) + STATE, FREE);
+                removeIndex(bucket);
+                if(sync) { data.force(); }
+
+                names.remove(name);
+                freeSlots.add(slot);
+
+            } finally {
+                structure.unlock();
+            }
+
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Flushes both files and marks the index clean, so the next open can trust it.
+     */
+    public void close() throws IOException {
+        structure.lock();
+        try {
+            data.force();
+            index.force();
+            index.put(DIRTY, (byte) 0);
+            index.force();
+            dataChannel.close();
+            indexChannel.close();
+
+        } finally {
+            structure.unlock();
+        }
+    }
+}
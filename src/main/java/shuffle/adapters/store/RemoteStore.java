@@ -0,0 +1,227 @@
+package shuffle.adapters.store;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.io.IOUtils;
+import shuffle.core.Deck;
+import shuffle.ports.DeckStore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+/**
+ * A store on another instance, reached through the {@code store/*} endpoints that {@link StoreHandlers} serve.
+ * Updates read the deck, apply the mutation here, and write it back only if the deck's version hasn't moved in the
+ * meantime, retrying when it has, so concurrent updates from different instances are never lost.
+ *
+ * @author Drew Fead
+ */
+public class RemoteStore implements DeckStore {
+    public static final String FIND = "store/find";
+    public static final String PAGE = "store/page";
+    public static final String UPSERT = "store/upsert";
+    public static final String UPSERT_ALL = "store/upsert/all";
+    public static final String UPDATE = "store/update";
+    public static final String DELETE = "store/delete";
+    public static final String VERSION = "store/version";
+
+    private static final int MAX_UPDATE_ATTEMPTS = 100;
+
+    static final ObjectMapper mapper = new ObjectMapper();
+    static {
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        mapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+        mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    }
+
+    /**
+     * A deck as it travels between instances: unlike the public format, the cards go as base64 ordinals, drawn ones
+     * included, with any pending shuffles alongside rather than worked out.
+     */
+    public static class StoredDeck {
+        public String name;
+        public long version;
+        public byte[] cards;
+        public long[] pending;
+        public int head;
+
+        static StoredDeck of(Deck deck) {
+            final StoredDeck out = new StoredDeck();
+            out.name = deck.name();
+            out.version = deck.version();
+            out.cards = deck.ordinals();
+            out.pending = deck.pending().length == 0? null : deck.pending();
+            out.head = deck.head();
+            return out;
+        }
+
+        Deck toDeck() {
+            final Deck deck = new Deck();
+            deck.setName(name);
+            deck.setVersion(version);
+            deck.setOrdinals(cards);
+            if(pending != null) { deck.setPending(pending); }
+            deck.setHead(head);
+            return deck;
+        }
+    }
+
+    public static class StoreRequest {
+        public String name;
+        public String after;
+        public Integer offset;
+        public Integer pageSize;
+        public StoredDeck deck;
+        public List<StoredDeck> decks;
+        public Long expected;
+        public Long version;
+    }
+
+    public static class StoreReply {
+        public StoredDeck deck;
+        public List<StoredDeck> decks;
+        public boolean conflict;
+    }
+
+    /**
+     * How requests reach the other instance.
+     */
+    public interface Transport {
+        byte[] post(String path, byte[] body) throws IOException;
+    }
+
+    /**
+     * Plain {@link HttpURLConnection}s, which the JDK keeps alive and reuses between requests to the same host.
+     */
+    public static Transport http(String baseUrl, int timeoutMillis) {
+        final String base = baseUrl.endsWith("/")? baseUrl : baseUrl + "/";
+        return (path, body) -> {
+            final HttpURLConnection connection = (HttpURLConnection) new URL(base + path).openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setConnectTimeout(timeoutMillis);
+            connection.setReadTimeout(timeoutMillis);
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setFixedLengthStreamingMode(body.length);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+
+            final int status = connection.getResponseCode();
+            if(status != HttpURLConnection.HTTP_OK) {
+                try (InputStream err = connection.getErrorStream()) {
+                    final String message = err == null? "" : IOUtils.toString(err, "UTF-8");
+                    throw new IOException(String.format("%s%s answered %s: %s", base, path, status, message));
+                }
+            }
+            try (InputStream in = connection.getInputStream()) {
+                return IOUtils.toByteArray(in);
+            }
+        };
+    }
+
+    private final Transport transport;
+
+    public RemoteStore(String baseUrl, int timeoutMillis) {
+        this(http(baseUrl, timeoutMillis));
+    }
+
+    public RemoteStore(Transport transport) {
+        this.transport = transport;
+    }
+
+    private StoreReply call(String path, StoreRequest request) {
+        try {
+            return mapper.readValue(transport.post(path, mapper.writeValueAsBytes(request)), StoreReply.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Optional<Deck> deck(StoreReply reply) {
+        return Optional.ofNullable(reply.deck).map(StoredDeck::toDeck);
+    }
+
+    private static List<Deck> decks(StoreReply reply) {
+        return reply.decks.stream().map(StoredDeck::toDeck).collect(Collectors.toList());
+    }
+
+    public Optional<Deck> upsert(Deck deck) {
+        final StoreRequest req = new StoreRequest();
+        req.deck = StoredDeck.of(deck);
+        return deck(call(UPSERT, req));
+    }
+
+    public List<Deck> upsertAll(List<Deck> decks) {
+        final StoreRequest req = new StoreRequest();
+        req.decks = decks.stream().map(StoredDeck::of).collect(Collectors.toList());
+        return decks(call(UPSERT_ALL, req));
+    }
+
+    public Optional<Deck> findOne(String name) {
+        final StoreRequest req = new StoreRequest();
+        req.name = name;
+        return deck(call(FIND, req));
+    }
+
+    public List<Deck> findPage(Integer pageSize, Integer offset) {
+        final StoreRequest req = new StoreRequest();
+        req.pageSize = pageSize;
+        req.offset = offset;
+        return decks(call(PAGE, req));
+    }
+
+    public List<Deck> findPageAfter(String after, Integer pageSize) {
+        final StoreRequest req = new StoreRequest();
+        req.after = after;
+        req.pageSize = pageSize;
+        return decks(call(PAGE, req));
+    }
+
+    public Optional<Deck> findVersion(String name, long version) {
+        final StoreRequest req = new StoreRequest();
+        req.name = name;
+        req.version = version;
+        return deck(call(VERSION, req));
+    }
+
+    public void delete(String name) {
+        final StoreRequest req = new StoreRequest();
+        req.name = name;
+        call(DELETE, req);
+    }
+
+    public Optional<Deck> update(String name, UnaryOperator<Deck> mutation) {
+        for(int attempt = 0; attempt < MAX_UPDATE_ATTEMPTS; attempt++) {
+            final Optional<Deck> current = findOne(name);
+            if(!current.isPresent()) {
+                return Optional.empty();
+            }
+
+            final Deck next = mutation.apply(current.get().copy());
+            next.setName(name);
+
+            final StoreRequest req = new StoreRequest();
+            req.deck = StoredDeck.of(next);
+            req.expected = current.get().version();
+            final StoreReply reply = call(UPDATE, req);
+            if(!reply.conflict) {
+                return deck(reply);
+            }
+        }
+
+        throw new ConcurrentModificationException("gave up updating " + name + " after repeated conflicts");
+    }
+}
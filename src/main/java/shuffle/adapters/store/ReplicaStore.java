@@ -0,0 +1,174 @@
+package shuffle.adapters.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import shuffle.core.Deck;
+import shuffle.ports.DeckStore;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+/**
+ * A follower's store: a copy of the leader's decks, kept up to date by long-polling the leader's
+ * {@link ReplicationLog}.
+ * <p>
+ * Reads are served from the copy as long as it was known to be caught up with the leader within the last
+ * {@code maxStalenessMillis}; past that, while the leader is slow or unreachable, they go to the leader instead.
+ * Writes always go to the leader, so they're ordered in one place, and reach the copy through the log like any
+ * other change.  A follower may therefore not yet see its own writes, for up to the staleness bound.
+ *
+ * @author Drew Fead
+ */
+public class ReplicaStore implements DeckStore, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(ReplicaStore.class);
+
+    private static final long RETRY_MILLIS = 500;
+
+    private final RemoteStore leader;
+    private final RemoteStore.Transport transport;
+    private final long maxStalenessNanos;
+    private final long waitMillis;
+
+    private volatile InMemoryStore replica = new InMemoryStore();
+    private volatile long freshAsOf = Long.MIN_VALUE;     // System.nanoTime() the copy was last known to be current
+    private long epoch = 0;                               // only touched by the poll thread
+    private long from = -1;                               // only touched by the poll thread
+    private volatile boolean running = true;
+
+    private final Thread poller;
+
+    /**
+     * @param transport  reaches the leader, with a read timeout comfortably longer than {@code waitMillis}
+     * @param waitMillis how long the leader holds a poll open when there are no changes
+     */
+    public ReplicaStore(RemoteStore.Transport transport, long maxStalenessMillis, long waitMillis) {
+        this.transport = transport;
+        this.leader = new RemoteStore(transport);
+        this.maxStalenessNanos = TimeUnit.MILLISECONDS.toNanos(maxStalenessMillis);
+        this.waitMillis = waitMillis;
+
+        poller = new Thread(this::pollLoop, "replication-poll");
+        poller.setDaemon(true);
+        poller.start();
+    }
+
+    private void pollLoop() {
+        while(running) {
+            try {
+                poll();
+
+            } catch (Exception e) {
+                if(!running) { return; }
+                log.warn("couldn't poll the leader, retrying: {}", e.toString());
+                try {
+                    Thread.sleep(RETRY_MILLIS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Fetches and applies one batch of changes.  A batch cut short only advances the copy past the records that
+     * arrived whole; a cut short snapshot is thrown away.
+     */
+    void poll() throws IOException {
+        final ReplicationLog.PollRequest req = new ReplicationLog.PollRequest();
+        req.epoch = epoch;
+        req.from = from;
+        req.waitMillis = waitMillis;
+
+        final long sent = System.nanoTime();
+        final byte[] reply = transport.post(ReplicationLog.POLL_PATH, RemoteStore.mapper.writeValueAsBytes(req));
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(reply));
+        final long replyEpoch = in.readLong();
+        final long next = in.readLong();
+        final long head = in.readLong();
+        final boolean snapshot = in.readByte() != 0;
+
+        if(snapshot) {
+            final InMemoryStore fresh = new InMemoryStore();
+            final int applied = apply(in, fresh);
+            replica = fresh;
+            epoch = replyEpoch;
+            from = next;
+            log.info("loaded a snapshot of {} decks from the leader at {}", applied, next);
+
+        } else {
+            from += apply(in, replica);
+        }
+
+        if(from >= head) {
+            freshAsOf = sent; // everything the leader had done before this poll was sent has been applied
+        }
+    }
+
+    private static int apply(DataInputStream in, InMemoryStore to) throws IOException {
+        int applied = 0;
+        for(DeckRecords.Entry entry = DeckRecords.read(in); entry != null; entry = DeckRecords.read(in)) {
+            to.apply(entry);
+            applied++;
+        }
+
+        return applied;
+    }
+
+    /**
+     * @return whether reads are served from the copy
+     */
+    public boolean isFresh() {
+        final long as = freshAsOf;
+        return as != Long.MIN_VALUE && System.nanoTime() - as <= maxStalenessNanos;
+    }
+
+    private DeckStore reads() {
+        return isFresh()? replica : leader;
+    }
+
+    public Optional<Deck> upsert(Deck deck) {
+        return leader.upsert(deck);
+    }
+
+    public List<Deck> upsertAll(List<Deck> decks) {
+        return leader.upsertAll(decks);
+    }
+
+    public Optional<Deck> update(String name, UnaryOperator<Deck> mutation) {
+        return leader.update(name, mutation);
+    }
+
+    public Optional<Deck> findOne(String name) {
+        return reads().findOne(name);
+    }
+
+    public List<Deck> findPage(Integer pageSize, Integer offset) {
+        return reads().findPage(pageSize, offset);
+    }
+
+    public List<Deck> findPageAfter(String after, Integer pageSize) {
+        return reads().findPageAfter(after, pageSize);
+    }
+
+    public void delete(String name) {
+        leader.delete(name);
+    }
+
+    /**
+     * Earlier versions are only kept by the leader.
+     */
+    public Optional<Deck> findVersion(String name, long version) {
+        return leader.findVersion(name, version);
+    }
+
+    public void close() {
+        running = false;
+        poller.interrupt();
+    }
+}
@@ -0,0 +1,214 @@
+package shuffle.adapters.store;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import shuffle.core.Deck;
+import shuffle.ports.ActionHandler;
+import shuffle.ports.DeckStore;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The leader's side of replication: every change to the leader's store, in the order it was made, numbered and
+ * encoded as {@link DeckRecords}.  The most recent {@code capacity} changes are kept for followers to poll; a
+ * follower that has fallen further behind than that, or that last polled a different run of the leader, gets a
+ * snapshot of the whole store instead, then carries on from the change the snapshot started at.
+ * <p>
+ * Changes are appended from inside the store's hash bin locks, so appending takes no lock of its own: each change
+ * claims the next sequence number and drops its record into that number's slot in a ring.  Changes to one deck are
+ * numbered in the order they were made, since its bin is locked while they claim their numbers; changes to
+ * different decks never wait for each other.  Followers see the changes up to the first slot that's still being
+ * filled.
+ * <p>
+ * A poll reply is {@code [long epoch][long next sequence][long leader head][byte snapshot?][records...]}.
+ *
+ * @author Drew Fead
+ */
+public class ReplicationLog implements InMemoryStore.Listener {
+    public static final String POLL_PATH = "replication/poll";
+
+    private static final int MAX_BATCH = 10_000;
+    private static final int SNAPSHOT_PAGE = 1024;
+    private static final long MAX_WAIT_MILLIS = 30_000;
+
+    private static final ObjectMapper mapper = new ObjectMapper()
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    public static class PollRequest {
+        public long epoch;
+        public long from = -1;
+        public long waitMillis;
+    }
+
+    /**
+     * A change and its sequence number, so a reader can tell it from whichever change later takes its slot.
+     */
+    private static final class Change {
+        final long seq;
+        final byte[] record;
+
+        Change(long seq, byte[] record) {
+            this.seq = seq;
+            this.record = record;
+        }
+    }
+
+    private final long epoch = new SecureRandom().nextLong();
+    private final AtomicReferenceArray<Change> ring;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();   // sequence of the next change to be appended
+    private final AtomicLong head = new AtomicLong();      // sequence of the first change not yet in the ring
+    private final Queue<Thread> waiting = new ConcurrentLinkedQueue<>();
+    private DeckStore store;
+
+    /**
+     * @param capacity the fewest changes to keep; rounded up to a power of two
+     */
+    public ReplicationLog(int capacity) {
+        final int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * @param store the leader's store, read from when a follower needs a snapshot
+     */
+    public void attach(DeckStore store) {
+        this.store = store;
+    }
+
+    private void append(byte[] record) {
+        final Change change = new Change(claimed.getAndIncrement(), record);
+        final int slot = (int) change.seq & mask;
+        for(Change there = ring.get(slot); there == null || there.seq < change.seq; there = ring.get(slot)) {
+            if(ring.compareAndSet(slot, there, change)) { break; }
+        }
+
+        advance();
+        for(Thread reader; (reader = waiting.poll()) != null; ) {
+            LockSupport.unpark(reader);
+        }
+    }
+
+    /**
+     * Moves the head past every change now in the ring.  A change whose slot has already been taken by a later one
+     * counts as in, so the head never waits on it.
+     */
+    private void advance() {
+        for(long at = head.get(); ; at = head.get()) {
+            final Change there = ring.get((int) at & mask);
+            if(there == null || there.seq < at) {
+                return;
+            }
+            head.compareAndSet(at, at + 1);
+        }
+    }
+
+    public void upserted(Deck deck) {
+        append(DeckRecords.change(deck));
+    }
+
+    public void deleted(String name) {
+        append(DeckRecords.delete(name));
+    }
+
+    public long head() {
+        return head.get();
+    }
+
+    /**
+     * Waits up to {@code waitMillis} for a change at or after {@code from}.
+     *
+     * @return the changes from {@code from} on, or null when they're no longer kept
+     */
+    List<byte[]> read(long from, long waitMillis) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+        while(head.get() <= from && deadline - System.nanoTime() > 0) {
+            final Thread self = Thread.currentThread();
+            waiting.add(self);
+            if(head.get() <= from) { // a change appended before we queued wouldn't have woken us
+                LockSupport.parkNanos(this, deadline - System.nanoTime());
+            }
+            waiting.remove(self);
+            if(Thread.interrupted()) { throw new InterruptedException(); }
+        }
+
+        final long last = head.get();
+        if(from < last - ring.length() || from > last) {
+            return null;
+        }
+
+        final List<byte[]> out = new ArrayList<>((int) Math.min(last - from, MAX_BATCH));
+        for(long seq = from; seq < last && out.size() < MAX_BATCH; seq++) {
+            final Change change = ring.get((int) seq & mask);
+            if(change.seq != seq) {
+                return null; // overwritten while we read
+            }
+            out.add(change.record);
+        }
+
+        return out;
+    }
+
+    private void header(DataOutputStream out, long next, long head, boolean snapshot) throws IOException {
+        out.writeLong(epoch);
+        out.writeLong(next);
+        out.writeLong(head);
+        out.writeByte(snapshot? 1 : 0);
+    }
+
+    public ActionHandler POLL = (requestId, bytes) -> {
+        final PollRequest req = mapper.readValue(bytes, PollRequest.class);
+        final List<byte[]> batch = req.epoch != epoch? null :
+            read(req.from, Math.min(Math.max(req.waitMillis, 0), MAX_WAIT_MILLIS));
+
+        if(batch != null) {
+            final long next = req.from + batch.size();
+            final long current = head();
+            return new ActionHandler.StreamingResult() {
+                public ActionHandler.Status status() { return ActionHandler.Status.SUCCESS; }
+
+                public void writeTo(OutputStream out) throws IOException {
+                    final DataOutputStream data = new DataOutputStream(out);
+                    header(data, next, current, false);
+                    for(byte[] record : batch) {
+                        data.write(record);
+                    }
+                    data.flush();
+                }
+            };
+        }
+
+        // changes made while the snapshot is read are after its start, and may be in it too; the follower skips
+        // records no newer than what the snapshot holds, so none are applied twice
+        final long start = head();
+        return new ActionHandler.StreamingResult() {
+            public ActionHandler.Status status() { return ActionHandler.Status.SUCCESS; }
+
+            public void writeTo(OutputStream out) throws IOException {
+                final DataOutputStream data = new DataOutputStream(out);
+                header(data, start, start, true);
+                String after = null;
+                for(List<Deck> page = store.findPageAfter(null, SNAPSHOT_PAGE); !page.isEmpty();
+                        page = store.findPageAfter(after, SNAPSHOT_PAGE)) {
+                    for(Deck deck : page) {
+                        data.write(DeckRecords.upsert(deck));
+                    }
+                    after = page.get(page.size() - 1).name();
+                }
+                data.flush();
+            }
+        };
+    };
+}
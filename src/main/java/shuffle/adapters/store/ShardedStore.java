@@ -0,0 +1,191 @@
+package shuffle.adapters.store;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import shuffle.core.Deck;
+import shuffle.ports.DeckStore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+/**
+ * Spreads decks over several stores with a consistent-hash ring.  Each node is placed on the ring at
+ * {@code virtualNodes} points, and a deck belongs to the first point at or after the hash of its name, so decks are
+ * spread evenly and adding or removing a node only moves the decks on its own points.
+ * <p>
+ * Nodes are usually one local store and a {@link RemoteStore} for every other instance, all configured with the same
+ * node ids so every instance agrees on the ring.  Operations on a single deck go to its owner; pages are read from
+ * every node in parallel and merged in name order.  Calls that go to several nodes at once run on the store's own
+ * threads, since remote ones block on HTTP and would starve the common fork-join pool.
+ *
+ * @author Drew Fead
+ */
+public class ShardedStore implements DeckStore, Closeable {
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private static final HashFunction hashing = Hashing.murmur3_32();
+    private static final Comparator<Deck> BY_NAME = Comparator.comparing(Deck::name);
+
+    private final Collection<DeckStore> nodes;
+    private final int[] points;         // sorted ring positions
+    private final DeckStore[] owners;   // owner of each position
+    private final ExecutorService calls = Executors.newCachedThreadPool(r -> {
+        final Thread t = new Thread(r, "shard-call");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * @param nodes stores by node id; the ids, not the order, decide where each node sits on the ring
+     */
+    public ShardedStore(Map<String, DeckStore> nodes, int virtualNodes) {
+        if(nodes.isEmpty()) {
+            throw new IllegalArgumentException("a sharded store needs at least one node");
+        }
+
+        final SortedMap<Integer, DeckStore> ring = new TreeMap<>();
+        new TreeMap<>(nodes).forEach((id, store) -> {
+            for(int v = 0; v < virtualNodes; v++) {
+                ring.putIfAbsent(hash(id + "#" + v), store); // on the rare collision, the lower id keeps the point
+            }
+        });
+
+        this.nodes = new ArrayList<>(nodes.values());
+        this.points = ring.keySet().stream().mapToInt(Integer::intValue).toArray();
+        this.owners = ring.values().toArray(new DeckStore[0]);
+    }
+
+    private static int hash(String s) {
+        return hashing.hashString(s, StandardCharsets.UTF_8).asInt();
+    }
+
+    DeckStore owner(String name) {
+        final int found = Arrays.binarySearch(points, hash(name));
+        final int at = found >= 0? found : -found - 1;
+        return owners[at == points.length? 0 : at];
+    }
+
+    public Optional<Deck> upsert(Deck deck) {
+        return owner(deck.name()).upsert(deck);
+    }
+
+    /**
+     * Runs every call on the store's threads and waits for them all.
+     *
+     * @return their results, in the order of {@code work}
+     */
+    private <T> List<T> everywhere(List<Supplier<T>> work) {
+        final List<CompletableFuture<T>> futures = work.stream()
+            .map(call -> CompletableFuture.supplyAsync(call, calls))
+            .collect(Collectors.toList());
+
+        try {
+            return futures.stream().map(CompletableFuture::join).collect(Collectors.toList());
+        } catch (CompletionException e) {
+            if(e.getCause() instanceof RuntimeException) { throw (RuntimeException) e.getCause(); }
+            if(e.getCause() instanceof Error) { throw (Error) e.getCause(); }
+            throw e;
+        }
+    }
+
+    /**
+     * Sends each node its share of the decks in one call, and puts what they stored back in the order given.  Each
+     * node answers in the order it was sent, leaving out decks it couldn't store, so its answers are matched to
+     * its share by name, in turn.
+     */
+    public List<Deck> upsertAll(List<Deck> decks) {
+        final Map<DeckStore, List<Integer>> byOwner = new IdentityHashMap<>(); // positions in decks
+        for(int i = 0; i < decks.size(); i++) {
+            byOwner.computeIfAbsent(owner(decks.get(i).name()), o -> new ArrayList<>()).add(i);
+        }
+
+        final List<List<Integer>> shares = new ArrayList<>(byOwner.values());
+        final List<Supplier<List<Deck>>> work = new ArrayList<>();
+        byOwner.forEach((node, share) -> work.add(() ->
+            node.upsertAll(share.stream().map(decks::get).collect(Collectors.toList()))));
+        final List<List<Deck>> stored = everywhere(work);
+
+        final Deck[] placed = new Deck[decks.size()];
+        for(int s = 0; s < shares.size(); s++) {
+            final List<Deck> answered = stored.get(s);
+            int next = 0;
+            for(int position : shares.get(s)) {
+                if(next < answered.size() && answered.get(next).name().equals(decks.get(position).name())) {
+                    placed[position] = answered.get(next++);
+                }
+            }
+        }
+
+        final List<Deck> out = new ArrayList<>(decks.size());
+        for(Deck deck : placed) {
+            if(deck != null) { out.add(deck); }
+        }
+        return out;
+    }
+
+    public Optional<Deck> findOne(String name) {
+        return owner(name).findOne(name);
+    }
+
+    /**
+     * Merging by offset needs the first {@code offset + pageSize} decks from every node, so deep offsets cost more
+     * here than anywhere; {@link #findPageAfter} only ever needs a page from each.
+     */
+    public List<Deck> findPage(Integer pageSize, Integer offset) {
+        return merge(everywhere(nodes.stream()
+            .map(node -> (Supplier<List<Deck>>) () -> node.findPage(offset + pageSize, 0))
+            .collect(Collectors.toList())), offset, pageSize);
+    }
+
+    public List<Deck> findPageAfter(String after, Integer pageSize) {
+        return merge(everywhere(nodes.stream()
+            .map(node -> (Supplier<List<Deck>>) () -> node.findPageAfter(after, pageSize))
+            .collect(Collectors.toList())), 0, pageSize);
+    }
+
+    private static List<Deck> merge(List<List<Deck>> pages, int skip, int limit) {
+        return pages.stream()
+            .flatMap(List::stream)
+            .sorted(BY_NAME)
+            .skip(skip)
+            .limit(limit)
+            .collect(Collectors.toList());
+    }
+
+    public void delete(String name) {
+        owner(name).delete(name);
+    }
+
+    public Optional<Deck> findVersion(String name, long version) {
+        return owner(name).findVersion(name, version);
+    }
+
+    public Optional<Deck> update(String name, UnaryOperator<Deck> mutation) {
+        return owner(name).update(name, mutation);
+    }
+
+    public void close() throws IOException {
+        calls.shutdown();
+        for(DeckStore node : nodes) {
+            if(node instanceof Closeable) { ((Closeable) node).close(); }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package shuffle.adapters.store;
+
+import shuffle.core.Card;
+import shuffle.core.Deck;
+import shuffle.core.DeckHandlers;
+import shuffle.core.ShuffleChain;
+import shuffle.ports.ActionHandler;
+import shuffle.ports.DeckStore;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static shuffle.adapters.store.RemoteStore.StoreReply;
+import static shuffle.adapters.store.RemoteStore.StoreRequest;
+import static shuffle.adapters.store.RemoteStore.StoredDeck;
+import static shuffle.adapters.store.RemoteStore.mapper;
+
+/**
+ * Serves this instance's own store to {@link RemoteStore}s on other instances.  These always act on the local
+ * store, never on a {@link ShardedStore} over it, so a request that arrives here is never forwarded again.
+ * <p>
+ * They share the public port, so decks sent here are checked before they're stored: anything that couldn't have
+ * come from another instance's store is rejected rather than written where it would break every later read.
+ *
+ * @author Drew Fead
+ */
+public class StoreHandlers {
+    private DeckStore local;
+
+    public StoreHandlers(DeckStore local) {
+        this.local = local;
+    }
+
+    /**
+     * Thrown from an update to leave the deck untouched when its version has moved.
+     */
+    private static class Conflict extends RuntimeException {
+        Conflict() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static StoreRequest request(byte[] bytes) throws Exception {
+        return mapper.readValue(bytes, StoreRequest.class);
+    }
+
+    /**
+     * @return the deck sent, once it's been checked to be one a store could hold
+     * @throws IllegalArgumentException if it couldn't be
+     */
+    private static Deck valid(StoredDeck sent) {
+        if(sent == null || sent.name == null || sent.cards == null) {
+            throw new IllegalArgumentException("missing required field");
+        }
+        Deck.encodeName(sent.name);
+        if(sent.cards.length > DeckHandlers.MAX_CARDS) {
+            throw new IllegalArgumentException("decks hold at most " + DeckHandlers.MAX_CARDS + " cards");
+        }
+        for(byte card : sent.cards) {
+            if(card < 0 || card >= Card.COUNT) {
+                throw new IllegalArgumentException("no such card: " + card);
+            }
+        }
+        if(sent.head < 0 || sent.head > sent.cards.length) {
+            throw new IllegalArgumentException("head is outside the deck: " + sent.head);
+        }
+        if(sent.pending != null) {
+            for(long shuffle : sent.pending) {
+                if(shuffle != ShuffleChain.HAND && (shuffle & 1) == 0) {
+                    throw new IllegalArgumentException("no such shuffle: " + shuffle);
+                }
+            }
+        }
+        return sent.toDeck();
+    }
+
+    private static ActionHandler.Result reply(StoreReply reply) throws Exception {
+        final byte[] payload = mapper.writeValueAsBytes(reply);
+        return new ActionHandler.Result() {
+            public byte[] payload() { return payload; }
+            public ActionHandler.Status status() { return ActionHandler.Status.SUCCESS; }
+        };
+    }
+
+    private static ActionHandler.Result one(Optional<Deck> deck) throws Exception {
+        final StoreReply out = new StoreReply();
+        out.deck = deck.map(StoredDeck::of).orElse(null);
+        return reply(out);
+    }
+
+    private static ActionHandler.Result many(List<Deck> decks) throws Exception {
+        final StoreReply out = new StoreReply();
+        out.decks = decks.stream().map(StoredDeck::of).collect(Collectors.toList());
+        return reply(out);
+    }
+
+    public ActionHandler FIND = (requestId, bytes) -> one(local.findOne(request(bytes).name));
+
+    public ActionHandler VERSION = (requestId, bytes) -> {
+        final StoreRequest req = request(bytes);
+        return one(local.findVersion(req.name, req.version));
+    };
+
+    public ActionHandler PAGE = (requestId, bytes) -> {
+        final StoreRequest req = request(bytes);
+        return many(req.offset != null?
+            local.findPage(req.pageSize, req.offset) : local.findPageAfter(req.after, req.pageSize));
+    };
+
+    public ActionHandler UPSERT = (requestId, bytes) -> {
+        final Deck deck;
+        try {
+            deck = valid(request(bytes).deck);
+        } catch (IllegalArgumentException bad) {
+            return DeckHandlers.rejection(bad.getMessage());
+        }
+        return one(local.upsert(deck));
+    };
+
+    public ActionHandler UPSERT_ALL = (requestId, bytes) -> {
+        final List<Deck> decks;
+        try {
+            final List<StoredDeck> sent = request(bytes).decks;
+            if(sent == null) {
+                throw new IllegalArgumentException("missing required field");
+            }
+            decks = sent.stream().map(StoreHandlers::valid).collect(Collectors.toList());
+        } catch (IllegalArgumentException bad) {
+            return DeckHandlers.rejection(bad.getMessage());
+        }
+        return many(local.upsertAll(decks));
+    };
+
+    public ActionHandler UPDATE = (requestId, bytes) -> {
+        final StoreRequest req = request(bytes);
+        final Deck replacement;
+        try {
+            replacement = valid(req.deck);
+        } catch (IllegalArgumentException bad) {
+            return DeckHandlers.rejection(bad.getMessage());
+        }
+        try {
+            return one(local.update(replacement.name(), current -> {
+                if(current.version() != req.expected) {
+                    throw new Conflict();
+                }
+                return replacement;
+            }));
+
+        } catch (Conflict conflict) {
+            final StoreReply out = new StoreReply();
+            out.conflict = true;
+            return reply(out);
+        }
+    };
+
+    public ActionHandler DELETE = (requestId, bytes) -> {
+        local.delete(request(bytes).name);
+        return reply(new StoreReply());
+    };
+}
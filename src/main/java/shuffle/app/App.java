@@ -1,10 +1,13 @@
 package shuffle.app;
 
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.ConsoleAppender;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import org.apache.commons.configuration2.Configuration;
 import org.apache.commons.configuration2.FileBasedConfiguration;
 import org.apache.commons.configuration2.PropertiesConfiguration;
@@ -12,18 +15,38 @@ import org.apache.commons.configuration2.builder.FileBasedConfigurationBuilder;
 import org.apache.commons.configuration2.builder.fluent.Parameters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import shuffle.adapters.driver.HandlerExecutors;
+import shuffle.adapters.driver.AdmissionControl;
 import shuffle.adapters.driver.HttpDriver;
 import shuffle.adapters.driver.HttpDriver.HttpAction;
+import shuffle.adapters.monitor.HistogramMonitor;
 import shuffle.adapters.monitor.LogMonitor;
+import shuffle.adapters.store.HistoryStore;
 import shuffle.adapters.store.InMemoryStore;
+import shuffle.adapters.store.JournalStore;
+import shuffle.adapters.store.MappedStore;
+import shuffle.adapters.store.RemoteStore;
+import shuffle.adapters.store.ReplicaStore;
+import shuffle.adapters.store.ReplicationLog;
+import shuffle.adapters.store.ShardedStore;
+import shuffle.adapters.store.StoreHandlers;
+import shuffle.core.Card;
 import shuffle.core.DeckHandlers;
 import shuffle.core.LogHandler;
+import shuffle.core.RandomSource;
+import shuffle.core.ResponseCache;
 import shuffle.ports.ActionHandler;
+import shuffle.ports.DeckStore;
 import shuffle.ports.Driver;
 import shuffle.ports.Monitor;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 
 import static shuffle.adapters.driver.HttpDriver.Method.*;
 import static shuffle.adapters.driver.HttpDriver.action;
@@ -38,34 +61,243 @@ public class App {
 
     public static final String PORT = "driver.http.port";
     public static final String PAGE_SIZE = "driver.store.pagesize";
+    public static final String EXECUTOR = "driver.http.executor";
+    public static final String EXECUTOR_THREADS = "driver.http.executor.threads";
+    public static final String EXECUTOR_QUEUE = "driver.http.executor.queue";
+    public static final String MAX_BODY = "driver.http.body.max.bytes";
+    public static final String ADMISSION = "driver.http.admission";
+    public static final String ADMISSION_LIMIT = "driver.http.admission.limit";
+    public static final String ADMISSION_MAX_LIMIT = "driver.http.admission.limit.max";
+    public static final String ADMISSION_QUEUE = "driver.http.admission.queue";
+    public static final String ADMISSION_WAITING = "driver.http.admission.waiting.max";
+    public static final String ADMISSION_WAIT = "driver.http.admission.wait.millis";
+    public static final String ADMISSION_LATENCY = "driver.http.admission.latency.millis";
+    public static final String ADMISSION_RETRY_AFTER = "driver.http.admission.retry.after.seconds";
+    public static final String MONITOR = "driver.monitor";
+    public static final String STORE = "driver.store.type";
+    public static final String STORE_PATH = "driver.store.path";
+    public static final String STORE_CAPACITY = "driver.store.capacity";
+    public static final String STORE_CARDS = "driver.store.cards";
+    public static final String STORE_SYNC = "driver.store.sync";
+    public static final String SHARDS = "driver.store.shards";
+    public static final String SHARD_VNODES = "driver.store.shards.vnodes";
+    public static final String SHARD_TIMEOUT = "driver.store.shards.timeout.millis";
+    public static final String REPLICATION_ROLE = "driver.store.replication.role";
+    public static final String REPLICATION_LEADER = "driver.store.replication.leader";
+    public static final String REPLICATION_STALENESS = "driver.store.replication.staleness.millis";
+    public static final String REPLICATION_WAIT = "driver.store.replication.wait.millis";
+    public static final String REPLICATION_TIMEOUT = "driver.store.replication.timeout.millis";
+    public static final String REPLICATION_LOG_SIZE = "driver.store.replication.log.size";
+    public static final String HISTORY_VERSIONS = "driver.store.history.versions";
+    public static final String HISTORY_BYTES = "driver.store.history.bytes";
+    public static final String JOURNAL_SYNC = "driver.store.journal.sync";
+    public static final String JOURNAL_WINDOW = "driver.store.journal.window.micros";
+    public static final String JOURNAL_COMPACT = "driver.store.journal.compact.bytes";
+    public static final String LOG_LEVEL = "log.level";
+    public static final String LOG_QUEUE = "log.queue.size";
+    public static final String LOG_SAMPLE = "log.sample";
     public static final String HUMAN_SHUFFLE = "core.shuffle.human";
+    public static final String RANDOM = "core.shuffle.random";
+    public static final String LAZY_SHUFFLES = "core.shuffle.lazy.max";
+    public static final String DECKS = "core.deck.decks";
+    public static final String CACHE_BYTES = "core.cache.describe.bytes";
+    public static final String BATCH_PARALLELISM = "core.batch.parallelism";
     private static Driver driver;
+    private static DeckStore store;
+    private static ExecutorService executor;
+    private static ForkJoinPool batchPool;
+
+    /**
+     * @return per-route limits for the driver, or null when admission control is off.  Replication polls are left
+     *         alone, since they're held open on purpose.
+     */
+    private static AdmissionControl admission(Configuration config) {
+        if(!config.getBoolean(ADMISSION, false)) {
+            return null;
+        }
+
+        return new AdmissionControl(
+            config.getInt(ADMISSION_LIMIT, 100),
+            config.getInt(ADMISSION_MAX_LIMIT, 1000),
+            config.getInt(ADMISSION_QUEUE, 100),
+            config.getInt(ADMISSION_WAITING, 50),
+            config.getLong(ADMISSION_WAIT, 50),
+            config.getLong(ADMISSION_LATENCY, 500),
+            config.getInt(ADMISSION_RETRY_AFTER, 1),
+            ImmutableSet.of(ReplicationLog.POLL_PATH)
+        );
+    }
+
+    /**
+     * @return how many cards a deck is created with when the request doesn't say
+     */
+    private static int deckCards(Configuration config) {
+        return config.getInt(DECKS, 1) * Card.COUNT;
+    }
+
+    /**
+     * @param changes told about every change, for replicating them, or null
+     */
+    private static DeckStore store(Configuration config, InMemoryStore.Listener changes) throws IOException {
+        switch(config.getString(STORE, "memory")) {
+            case "memory":
+                return changes == null? new InMemoryStore() : new InMemoryStore(changes);
+
+            case "mapped":
+                if(changes != null) {
+                    throw new IllegalArgumentException("only the memory and journal stores can lead replication");
+                }
+                // fixed apart from the shoe size, since the files can only be opened with the slot size they have
+                final int cards = config.getInt(STORE_CARDS, MappedStore.DEFAULT_MAX_CARDS);
+                if(deckCards(config) > cards) {
+                    log.warn("new decks have {} cards but the mapped store only holds {}, set {}",
+                        deckCards(config), cards, STORE_CARDS);
+                }
+                return new MappedStore(
+                    new File(config.getString(STORE_PATH)),
+                    config.getInt(STORE_CAPACITY),
+                    MappedStore.DEFAULT_MAX_NAME_BYTES,
+                    cards,
+                    config.getBoolean(STORE_SYNC, false)
+                );
+
+            case "journal":
+                return new JournalStore(
+                    new File(config.getString(STORE_PATH)),
+                    JournalStore.Sync.valueOf(config.getString(JOURNAL_SYNC, "fsync").toUpperCase()),
+                    config.getLong(JOURNAL_WINDOW, 0),
+                    config.getLong(JOURNAL_COMPACT, 64 * 1024 * 1024),
+                    changes
+                );
+
+            default:
+                throw new IllegalArgumentException("unknown store type: " + config.getString(STORE));
+        }
+    }
+
+    /**
+     * @return a store over every node in {@code driver.store.shards}, a list like {@code a=local,b=http://host:9421}
+     *         where this node's own entry is {@code local}
+     */
+    private static DeckStore sharded(Configuration config, DeckStore local) {
+        final int timeout = config.getInt(SHARD_TIMEOUT, 5000);
+        final Map<String, DeckStore> nodes = new HashMap<>();
+        for(String node : config.getString(SHARDS).split(",")) {
+            final String[] parts = node.trim().split("=", 2);
+            if(parts.length != 2) {
+                throw new IllegalArgumentException("expected id=local or id=url in " + SHARDS + ", got: " + node);
+            }
+            final String location = parts[1].trim();
+            nodes.put(parts[0].trim(), "local".equals(location)? local : new RemoteStore(location, timeout));
+        }
+
+        if(!nodes.containsValue(local)) {
+            throw new IllegalArgumentException(SHARDS + " needs an entry for this node, like a=local");
+        }
+
+        return new ShardedStore(nodes, config.getInt(SHARD_VNODES, ShardedStore.DEFAULT_VIRTUAL_NODES));
+    }
+
+    /**
+     * @return a copy of the leader's decks at {@code driver.store.replication.leader}, which writes are sent on to
+     */
+    private static DeckStore follower(Configuration config) {
+        final int timeout = config.getInt(REPLICATION_TIMEOUT, 5000);
+        final long wait = config.getLong(REPLICATION_WAIT, 1000);
+        return new ReplicaStore(
+            RemoteStore.http(config.getString(REPLICATION_LEADER), timeout + (int) wait),
+            config.getLong(REPLICATION_STALENESS, 1000),
+            wait
+        );
+    }
 
     public static void start(Configuration config) {
         final Integer port;
         final Integer pageSize;
         final boolean humanShuffle;
+        final RandomSource.Mode random;
+        final long cacheBytes;
+        final int batchParallelism;
 
         port = config.getInt(PORT);
         pageSize = config.getInt(PAGE_SIZE);
         humanShuffle = config.getBoolean(HUMAN_SHUFFLE);
+        random = RandomSource.Mode.valueOf(config.getString(RANDOM, "threadlocal").toUpperCase());
+        cacheBytes = config.getLong(CACHE_BYTES, DeckHandlers.DEFAULT_CACHE_BYTES);
+        batchParallelism = config.getInt(BATCH_PARALLELISM, Runtime.getRuntime().availableProcessors());
+
+        final String role = config.getString(REPLICATION_ROLE, "none");
+        final ReplicationLog replication = "leader".equals(role)?
+            new ReplicationLog(config.getInt(REPLICATION_LOG_SIZE, 100_000)) : null;
+
+        final DeckStore local;
+        try {
+            final int historyVersions = config.getInt(HISTORY_VERSIONS, 0);
+            local = "follower".equals(role)? follower(config) : historyVersions <= 0? store(config, replication) :
+                new HistoryStore(store(config, replication), historyVersions,
+                    config.getLong(HISTORY_BYTES, 64 * 1024 * 1024));
+            store = config.containsKey(SHARDS)? sharded(config, local) : local;
+        } catch (Exception e) {
+            log.error("couldn't open store", e);
+            throw new RuntimeException(e);
+        }
 
-        final DeckHandlers deck = new DeckHandlers(new InMemoryStore(), pageSize);
+        final DeckHandlers deck = new DeckHandlers(
+            store,
+            pageSize,
+            new ResponseCache(cacheBytes),
+            RandomSource.of(random),
+            config.getInt(LAZY_SHUFFLES, 0),
+            deckCards(config)
+        );
 
         final ActionHandler shuffle = humanShuffle ? deck.SHUFFLE : deck.RANDOMIZE;
+        batchPool = new ForkJoinPool(batchParallelism);
+        final ActionHandler batchShuffle = DeckHandlers.batch(shuffle, batchPool);
 
-        final Map<String, HttpAction> actions = ImmutableMap.<String,HttpAction>builder()
+        final ImmutableMap.Builder<String, HttpAction> routes = ImmutableMap.<String,HttpAction>builder()
             .put("deck/create",     action( deck.CREATE,      PUT    ))
+            .put("deck/create/bulk", action( deck.CREATE_BULK, POST  ))
             .put("deck/shuffle",    action( shuffle,          POST   ))
+            .put("deck/shuffle/batch", action( batchShuffle,  POST   ))
             .put("deck/describe",   action( deck.DESCRIBE,    GET    ))
             .put("deck/list",       action( deck.LIST,        POST   )) // modified from requirement
                                                                         // to include pageSize & offset
-            .put("deck/delete",     action( deck.DELETE,      DELETE ))
-        .build();
+            .put("deck/version",    action( deck.VERSION,     POST   ))
+            .put("deck/revert",     action( deck.REVERT,      POST   ))
+            .put("deck/draw",       action( deck.DRAW,        POST   ))
+            .put("deck/deal",       action( deck.DEAL,        POST   ))
+            .put("deck/export",     action( deck.EXPORT,      GET    ))
+            .put("deck/delete",     action( deck.DELETE,      DELETE ));
 
-        final Monitor monitor = new LogMonitor(); // use an implementation with cloudwatch or riemann
+        if(replication != null) {
+            replication.attach(local);
+            routes.put(ReplicationLog.POLL_PATH, action( replication.POLL, POST ));
+        }
+        if(store instanceof ShardedStore || replication != null) { // other nodes reach this one's decks through these
+            final StoreHandlers storeHandlers = new StoreHandlers(local);
+            routes
+                .put(RemoteStore.FIND,          action( storeHandlers.FIND,       POST ))
+                .put(RemoteStore.PAGE,          action( storeHandlers.PAGE,       POST ))
+                .put(RemoteStore.VERSION,       action( storeHandlers.VERSION,    POST ))
+                .put(RemoteStore.UPSERT,        action( storeHandlers.UPSERT,     POST ))
+                .put(RemoteStore.UPSERT_ALL,    action( storeHandlers.UPSERT_ALL, POST ))
+                .put(RemoteStore.UPDATE,        action( storeHandlers.UPDATE,     POST ))
+                .put(RemoteStore.DELETE,        action( storeHandlers.DELETE,     POST ));
+        }
+        final Map<String, HttpAction> actions = routes.build();
 
-        driver = new HttpDriver(port, actions, monitor);
+        final Monitor monitor = "log".equals(config.getString(MONITOR, "histogram"))?
+            new LogMonitor() : new HistogramMonitor(); // or an implementation with cloudwatch or riemann
+
+        executor = HandlerExecutors.of(
+            HandlerExecutors.Mode.valueOf(config.getString(EXECUTOR, "jetty").toUpperCase()),
+            config.getInt(EXECUTOR_THREADS, 200),
+            config.getInt(EXECUTOR_QUEUE, 10_000)
+        );
+
+        driver = new HttpDriver(port, actions, monitor, executor, admission(config),
+            config.getInt(MAX_BODY, HttpDriver.DEFAULT_MAX_BODY));
         try {
             driver.start();
         } catch (Exception e) {
@@ -77,29 +309,58 @@ public class App {
     public static void stop() {
         try {
             driver.stop();
+            if(executor != null) { executor.shutdown(); }
+            if(batchPool != null) { batchPool.shutdown(); }
+            if(store instanceof Closeable) { ((Closeable) store).close(); }
         } catch (Exception e) {
             log.error("couldn't stop app", e);
             throw new RuntimeException(e);
         }
     }
 
-//    public static void logging() {
-//        final LoggerContext ctx = (LoggerContext) LoggerFactory.getILoggerFactory();
-//        ctx.reset();
-//
-//        final PatternLayoutEncoder encoder = new PatternLayoutEncoder();
-//        encoder.setContext(ctx);
-//        encoder.setPattern("%-5level [%thread][%Xrequest_id]: %message%n");
-//        encoder.start();
-//
-//        final ConsoleAppender<ILoggingEvent> appender = new ConsoleAppender<>();
-//        appender.setContext(ctx);
-//        appender.setEncoder(encoder);
-//        appender.start();
-//    }
+    /**
+     * Console logging behind an {@link AsyncAppender}, so request threads only format the message and drop the
+     * event into a bounded queue; a single worker does the writing.  Once the queue is 80% full, events below WARN
+     * are discarded, and when it's completely full new events are dropped rather than blocking the caller.  The
+     * request_id MDC is captured when the event is queued, so it's still right when it's written.
+     */
+    public static void logging(Configuration config) {
+        final LoggerContext ctx = (LoggerContext) LoggerFactory.getILoggerFactory();
+        ctx.reset();
+
+        final PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(ctx);
+        encoder.setPattern("%-5level [%thread][%X{request_id}] %logger{0}: %message%n");
+        encoder.start();
+
+        final ConsoleAppender<ILoggingEvent> console = new ConsoleAppender<>();
+        console.setContext(ctx);
+        console.setEncoder(encoder);
+        console.setImmediateFlush(false); // the async worker flushes whole batches
+        console.start();
+
+        final int queueSize = config.getInt(LOG_QUEUE, 8192);
+        final AsyncAppender async = new AsyncAppender();
+        async.setContext(ctx);
+        async.setName("async-console");
+        async.setQueueSize(queueSize);
+        async.setDiscardingThreshold(queueSize / 5);
+        async.setNeverBlock(true);
+        async.setIncludeCallerData(false);
+        async.addAppender(console);
+        async.start();
+
+        final SamplingFilter sampling = new SamplingFilter(SamplingFilter.parse(config.getString(LOG_SAMPLE, null)));
+        sampling.setContext(ctx);
+        sampling.start();
+        ctx.addTurboFilter(sampling);
+
+        final ch.qos.logback.classic.Logger root = ctx.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
+        root.setLevel(Level.toLevel(config.getString(LOG_LEVEL, "info"), Level.INFO));
+        root.addAppender(async);
+    }
 
     public static void main(String... args) {
-        //logging();
         final Parameters params = new Parameters();
         final File props = new File(configFilePath);
 
@@ -114,11 +375,14 @@ public class App {
             throw new RuntimeException(e);
         }
 
+        logging(config);
+
         Runtime.getRuntime().addShutdownHook(new Thread() {
             public void run() {
                 log.info("stopping app...");
                 App.stop();
                 log.info("app stopped.");
+                ((LoggerContext) LoggerFactory.getILoggerFactory()).stop(); // drains the async queue
             }
         });
         log.info("starting app...");
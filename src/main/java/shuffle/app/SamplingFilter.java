@@ -0,0 +1,81 @@
+package shuffle.app;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import org.slf4j.Marker;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Keeps roughly one in every N events below WARN for the configured logger categories, and drops the rest before
+ * they're formatted or queued.  A category is a logger name or any prefix of one at a dot, and the longest matching
+ * category wins.  Warnings and errors are never sampled.
+ *
+ * @author Drew Fead
+ */
+public class SamplingFilter extends TurboFilter {
+    private final Map<String, Integer> rates;
+    private final ConcurrentMap<String, Integer> byLogger = new ConcurrentHashMap<>();
+
+    public SamplingFilter(Map<String, Integer> rates) {
+        this.rates = new HashMap<>(rates);
+    }
+
+    /**
+     * @param spec like {@code shuffle.adapters.store=100, shuffle.core.LogHandler=10}
+     */
+    public static Map<String, Integer> parse(String spec) {
+        final Map<String, Integer> out = new HashMap<>();
+        if(spec == null) {
+            return out;
+        }
+
+        for(String entry : spec.split(",")) {
+            final String e = entry.trim();
+            if(e.isEmpty()) { continue; }
+
+            final int eq = e.indexOf('=');
+            if(eq < 1) {
+                throw new IllegalArgumentException("expected category=rate, got: " + e);
+            }
+            out.put(e.substring(0, eq).trim(), Integer.parseInt(e.substring(eq + 1).trim()));
+        }
+
+        return out;
+    }
+
+    int rate(String loggerName) {
+        final Integer known = byLogger.get(loggerName);
+        return known != null? known : byLogger.computeIfAbsent(loggerName, this::lookup);
+    }
+
+    private int lookup(String loggerName) {
+        for(String category = loggerName; ; category = category.substring(0, category.lastIndexOf('.'))) {
+            final Integer rate = rates.get(category);
+            if(rate != null) {
+                return rate;
+            }
+            if(category.lastIndexOf('.') < 0) {
+                return 1;
+            }
+        }
+    }
+
+    public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params,
+                              Throwable t) {
+
+        // isXxxEnabled() checks come through with no format; sampling those too would square the rate
+        if(format == null || level == null || level.isGreaterOrEqual(Level.WARN)) {
+            return FilterReply.NEUTRAL;
+        }
+
+        final int rate = rate(logger.getName());
+        return rate <= 1 || ThreadLocalRandom.current().nextInt(rate) == 0? FilterReply.NEUTRAL : FilterReply.DENY;
+    }
+}
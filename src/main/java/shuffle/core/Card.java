@@ -1,13 +1,18 @@
 package shuffle.core;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.collect.ImmutableMap;
 
 import java.util.Map;
 
 /**
+ * Immutable card flyweight.  There are exactly {@link #COUNT} instances, one per ordinal, so decks can be stored as
+ * packed ordinals and only turned back into cards at the edges.
+ *
  * @author Drew Fead
  */
-public class Card {
+public final class Card {
     public static final Integer MIN = 1;
     public static final Integer MAX = 13;
 
@@ -35,22 +40,56 @@ public class Card {
         }
     }
 
-    private Suit suit;
-    private Integer value;
+    public static final int COUNT = Suit.values().length * MAX;
 
-    public Card() {}
+    private static final Card[] cards = new Card[COUNT];
+    static {
+        for(Suit suit : Suit.values()) {
+            for(int value = MIN; value <= MAX; value++) {
+                final int ordinal = ordinal(suit, value);
+                cards[ordinal] = new Card(suit, value, ordinal);
+            }
+        }
+    }
 
-    public Card(Suit suit, Integer value) {
+    private final Suit suit;
+    private final Integer value;
+    private final int ordinal;
+    private final String name;
+
+    private Card(Suit suit, Integer value, int ordinal) {
         this.suit = suit;
         this.value = value;
+        this.ordinal = ordinal;
+        this.name = String.format("%s-%s", valueNames.get(value), suit);
+    }
+
+    private static int ordinal(Suit suit, int value) {
+        return suit.ordinal() * MAX + (value - MIN);
+    }
+
+    public static Card of(int ordinal) {
+        if(ordinal < 0 || ordinal >= COUNT) {
+            throw new IllegalArgumentException("invalid card ordinal: " + ordinal);
+        }
+
+        return cards[ordinal];
+    }
+
+    @JsonCreator
+    public static Card of(@JsonProperty("suit") Suit suit, @JsonProperty("value") Integer value) {
+        if(suit == null || value == null || value < MIN || value > MAX) {
+            throw new IllegalArgumentException("invalid card: " + value + "-" + suit);
+        }
+
+        return cards[ordinal(suit, value)];
     }
 
     public Suit suit() { return suit; }
-    public void setSuit(Suit suit) { this.suit = suit; }
     public Integer value() { return value; }
-    public void setValue(Integer value) { this.value = value; }
+    public int ordinal() { return ordinal; }
 
     public String toString() {
-        return String.format("%s-%s", valueNames.get(value), suit);
+        return name;
     }
 }
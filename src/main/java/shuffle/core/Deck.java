@@ -1,17 +1,123 @@
 package shuffle.core;
 
-import java.util.ArrayList;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
 import java.util.List;
+import java.util.RandomAccess;
 
 /**
+ * A named deck, stored as one byte per card ordinal (see {@link Card#ordinal()}), plus any shuffles that have been
+ * recorded but not yet applied to them (see {@link ShuffleChain}).  Anything that shows the deck's order should go
+ * through {@link ShuffleChain#materialize(Deck)}.
+ * <p>
+ * Cards are drawn from the top by moving {@link #head()} past them, so the cards left are never copied; the drawn
+ * ones stay in place until the deck is next shuffled, which gathers them all back.
+ *
  * @author Drew Fead
  */
+@JsonSerialize(using = DeckSerializer.class)
 public class Deck {
+    /**
+     * The longest a deck's name may be, in UTF-8.  Every store and wire format can hold a name this long, and the
+     * handlers turn longer ones away before they reach any of them.
+     */
+    public static final int MAX_NAME_BYTES = 200;
+
     private String name;
-    private List<Card> cards = new ArrayList<>();
+    private long version;
+    private byte[] ordinals = new byte[0];
+    private long[] pending = ShuffleChain.NONE;
+    private int head;
 
     public String name() { return name; }
     public void setName(String name) { this.name = name; }
-    public List<Card> cards() { return cards;}
-    public void setCards(List<Card> cards) { this.cards = cards; }
+    public long version() { return version; }
+    public void setVersion(long version) { this.version = version; }
+    public byte[] ordinals() { return ordinals; }
+
+    /**
+     * Puts the deck in exactly this order, dropping any pending shuffles and with every card back in it.
+     */
+    public void setOrdinals(byte[] ordinals) {
+        this.ordinals = ordinals;
+        this.pending = ShuffleChain.NONE;
+        this.head = 0;
+    }
+
+    /**
+     * @return how many cards have been drawn from the top of {@link #ordinals()}
+     */
+    public int head() { return head; }
+    public void setHead(int head) { this.head = head; }
+
+    /**
+     * @return shuffles still to be applied to {@link #ordinals()}, oldest first
+     */
+    public long[] pending() { return pending; }
+    public void setPending(long[] pending) { this.pending = pending; }
+
+    /**
+     * @return a read-only view of the cards left in the deck, pending shuffles applied, as shared {@link Card}
+     *         flyweights
+     */
+    public List<Card> cards() {
+        final Deck current = ShuffleChain.materialize(this);
+        return new Cards(current.ordinals, current.head);
+    }
+
+    public void setCards(List<Card> cards) {
+        final byte[] packed = new byte[cards.size()];
+        for(int i = 0; i < packed.length; i++) {
+            packed[i] = (byte) cards.get(i).ordinal();
+        }
+
+        setOrdinals(packed);
+    }
+
+    /**
+     * @return {@code name} in UTF-8, as stores and binary formats write it
+     * @throws IllegalArgumentException if it's longer than {@link #MAX_NAME_BYTES}
+     */
+    public static byte[] encodeName(String name) {
+        final byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+        if(encoded.length > MAX_NAME_BYTES) {
+            throw new IllegalArgumentException("deck names are limited to " + MAX_NAME_BYTES + " bytes");
+        }
+
+        return encoded;
+    }
+
+    /**
+     * @return a deep copy, so a stored deck can be used as the starting point of an update without being mutated
+     */
+    public Deck copy() {
+        final Deck copy = new Deck();
+        copy.name = name;
+        copy.version = version;
+        copy.ordinals = ordinals.clone();
+        copy.pending = pending; // never changed in place
+        copy.head = head;
+        return copy;
+    }
+
+    private static class Cards extends AbstractList<Card> implements RandomAccess {
+        private final byte[] ordinals;
+        private final int head;
+
+        Cards(byte[] ordinals, int head) {
+            this.ordinals = ordinals;
+            this.head = head;
+        }
+
+        public Card get(int index) {
+            if(index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("index: " + index + ", size: " + size());
+            }
+            return Card.of(ordinals[head + index]);
+        }
+
+        public int size() { return ordinals.length - head; }
+    }
 }
@@ -1,29 +1,63 @@
 package shuffle.core;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonRawValue;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Lists;
 import org.apache.commons.lang3.NotImplementedException;
 import org.apache.commons.lang3.StringUtils;
 import shuffle.ports.ActionHandler;
+import shuffle.ports.ActionHandler.Format;
 import shuffle.ports.DeckStore;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 public class DeckHandlers {
 
+    public static final long DEFAULT_CACHE_BYTES = 32 * 1024 * 1024;
+    public static final int MAX_CARDS = 0xffff; // the ordinals format counts a deck's cards in 16 bits
+    private static final int EXPORT_BATCH = 256;
+
     private DeckStore store;
     private Integer pageSize;
+    private ResponseCache describeCache;
+    private RandomSource random;
+    private int maxPending;
+    private int deckCards;
 
-    private static ObjectMapper mapper = new ObjectMapper();
-    static {
+    private static ObjectMapper configure(ObjectMapper mapper) {
         mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false); // allows for format evolution
         mapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+        return mapper;
+    }
+
+    private static ObjectMapper mapper = configure(new ObjectMapper());
+
+    private static final Map<Format, ObjectMapper> mappers = new EnumMap<>(Format.class);
+    static {
+        mappers.put(Format.JSON, mapper);
+        mappers.put(Format.SMILE, configure(new ObjectMapper(new SmileFactory())));
+        mappers.put(Format.CBOR, configure(new ObjectMapper(new CBORFactory())));
     }
 
     private static <T> T require(T o) {
@@ -39,60 +73,180 @@ public class DeckHandlers {
         return StringUtils.isEmpty(out)? null : out;
     }
 
+    /**
+     * @return a deck name from a request, trimmed
+     * @throws IllegalArgumentException if it's missing or longer than {@link Deck#MAX_NAME_BYTES}
+     */
+    private static String name(String s) {
+        final String name = require(trimToNull(s));
+        Deck.encodeName(name);
+        return name;
+    }
+
     public DeckHandlers(DeckStore store, Integer pageSize) {
+        this(store, pageSize, new ResponseCache(DEFAULT_CACHE_BYTES), RandomSource.threadLocal());
+    }
+
+    public DeckHandlers(DeckStore store, Integer pageSize, ResponseCache describeCache, RandomSource random) {
+        this(store, pageSize, describeCache, random, 0);
+    }
+
+    /**
+     * @param maxPending when positive, shuffles are recorded as a {@link ShuffleChain} rather than applied, and a
+     *                   deck's chain is only worked out once it's this long (or when the deck is shown); shuffles
+     *                   then answer with a {@link Deferred} rather than the deck
+     */
+    public DeckHandlers(DeckStore store, Integer pageSize, ResponseCache describeCache, RandomSource random,
+                        int maxPending) {
+        this(store, pageSize, describeCache, random, maxPending, Card.COUNT);
+    }
+
+    /**
+     * @param deckCards how many cards a deck is created with when the request doesn't say, e.g. 312 for a six deck
+     *                  shoe
+     */
+    public DeckHandlers(DeckStore store, Integer pageSize, ResponseCache describeCache, RandomSource random,
+                        int maxPending, int deckCards) {
+        if(deckCards < 1 || deckCards > MAX_CARDS) {
+            throw new IllegalArgumentException("decks hold 1 to " + MAX_CARDS + " cards: " + deckCards);
+        }
+
         this.store = store;
         this.pageSize = pageSize;
+        this.describeCache = describeCache;
+        this.random = random;
+        this.maxPending = maxPending;
+        this.deckCards = deckCards;
+    }
+
+    private static final byte[] SORTED = new byte[Card.COUNT];
+    static {
+        for(int i = 0; i < Card.COUNT; i++) {
+            SORTED[i] = (byte) i;
+        }
     }
 
-    private static List<Card> initCards() {
-        final List<Card> cards = new ArrayList<>();
+    static byte[] initCards() {
+        return SORTED.clone();
+    }
 
-        for(Card.Suit suit : Card.Suit.values()) {
-            cards.addAll(IntStream.range(Card.MIN, Card.MAX + 1)
-                .mapToObj(i -> new Card(suit, i))
-                .collect(Collectors.toList()));
+    /**
+     * @return {@code size} cards in sorted order, one standard deck after another, the last one cut short if
+     *         {@code size} isn't a multiple of {@link Card#COUNT}
+     */
+    static byte[] initCards(int size) {
+        if(size == Card.COUNT) {
+            return initCards();
         }
 
+        final byte[] cards = new byte[size];
+        for(int i = 0; i < size; i += Card.COUNT) {
+            System.arraycopy(SORTED, 0, cards, i, Math.min(Card.COUNT, size - i));
+        }
         return cards;
     }
 
-    private static List<Card> randomize(List<Card> in) {
-        final List<Card> out = new ArrayList<>(in);
-        Collections.shuffle(out);
-        return out;
-    }
+    /**
+     * @return the number of cards asked for, by total or by a number of standard decks, or the default
+     */
+    private int size(Integer decks, Integer cards) {
+        final long size = cards != null? cards : decks != null? (long) decks * Card.COUNT : deckCards;
+        if(size < 1 || size > MAX_CARDS) {
+            throw new IllegalArgumentException("decks hold 1 to " + MAX_CARDS + " cards");
+        }
 
-    private static List<Card> shuffle(List<Card> in) {
-        final List<Card> out = new ArrayList<>();
-        final List<Card> left = in.subList(0, in.size()/2); // in odd cases this will always be the smaller half
-        final List<Card> right = in.subList(in.size()/2, in.size());
+        return (int) size;
+    }
 
-        for(int i = 0; i<right.size(); i++) {
-            out.add(left.get(i));
-            out.add(right.get(i));
-        }
+    byte[] randomize(byte[] cards) {
+        random.shuffle(cards); // cards is always a fresh copy or the store's working copy, so it's safe in place
+        return cards;
+    }
 
-        return out;
+    static byte[] shuffleALot(byte[] cards) {
+        ShuffleChain.hand(cards.length).permute(cards); // cards is the store's working copy, so it's safe in place
+        return cards;
     }
 
-    private static List<Card> shuffleALot(List<Card> in) {
-        return shuffle( shuffle( shuffle( shuffle( shuffle(in)))));
+    private static ActionHandler.Result result(byte[] payload) {
+        return new ActionHandler.Result() {
+            public byte[] payload() { return payload; }
+            public ActionHandler.Status status() { return ActionHandler.Status.SUCCESS; }
+        };
     }
 
-    public static ActionHandler.Result deckResult(Object o) {
+    private static byte[] serialize(Format format, Object o) {
         try {
-            final byte[] json = mapper.writeValueAsBytes(o);
-
-            return new ActionHandler.Result() {
-                public byte[] payload() { return json; }
-                public ActionHandler.Status status() { return ActionHandler.Status.SUCCESS; }
-            };
+            return mappers.get(format).writeValueAsBytes(o);
 
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * A result that can be written in any of the structured formats, and as ordinals when it's a single deck.
+     * JSON is serialized up front, so serialization failures still surface from the handler; other formats are
+     * serialized when they're asked for.
+     */
+    public static ActionHandler.Result deckResult(Object o) {
+        final byte[] json = serialize(Format.JSON, o);
+
+        return new ActionHandler.Result() {
+            public byte[] payload() { return json; }
+            public ActionHandler.Status status() { return ActionHandler.Status.SUCCESS; }
+
+            public boolean supports(Format format) {
+                return format != Format.ORDINALS || o instanceof Deck;
+            }
+
+            public byte[] payload(Format format) {
+                switch (format) {
+                    case JSON: return json;
+                    case ORDINALS: return DeckOrdinals.encode((Deck) o);
+                    default: return serialize(format, o);
+                }
+            }
+        };
+    }
+
+    private static final Map<Format, ObjectWriter> deckWriters = new EnumMap<>(Format.class);
+    static {
+        mappers.forEach((format, m) -> deckWriters.put(format, m.writerFor(Deck.class)
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE))); // let the generator and the driver buffer
+    }
+
+    /**
+     * Streams decks out as an array as they're serialized, rather than building the whole payload first.
+     */
+    public static ActionHandler.Result deckStream(Iterator<Deck> decks) {
+        return new ActionHandler.StreamingResult() {
+            public ActionHandler.Status status() { return ActionHandler.Status.SUCCESS; }
+            public boolean supports(Format format) { return true; }
+
+            public void writeTo(OutputStream out) throws IOException {
+                writeTo(out, Format.JSON);
+            }
+
+            public void writeTo(OutputStream out, Format format) throws IOException {
+                if(format == Format.ORDINALS) {
+                    DeckOrdinals.writeAll(out, () -> decks);
+                    return;
+                }
+
+                final ObjectWriter deckWriter = deckWriters.get(format);
+                try (JsonGenerator gen = mappers.get(format).getFactory().createGenerator(out)) {
+                    gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                    gen.writeStartArray();
+                    while(decks.hasNext()) {
+                        deckWriter.writeValue(gen, decks.next());
+                    }
+                    gen.writeEndArray();
+                }
+            }
+        };
+    }
+
     private static class Error {
         public String message;
 
@@ -102,17 +256,18 @@ public class DeckHandlers {
     }
 
     public static ActionHandler.Result error(ActionHandler.Status status, String message) {
-        try {
-            final byte[] jsonErr = mapper.writeValueAsBytes(new Error(message));
+        final Error error = new Error(message);
+        final byte[] jsonErr = serialize(Format.JSON, error);
 
-            return new ActionHandler.Result() {
-                public byte[] payload() { return jsonErr; }
-                public ActionHandler.Status status() { return status; }
-            };
+        return new ActionHandler.Result() {
+            public byte[] payload() { return jsonErr; }
+            public ActionHandler.Status status() { return status; }
+            public boolean supports(Format format) { return format != Format.ORDINALS; }
 
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+            public byte[] payload(Format format) {
+                return format == Format.JSON? jsonErr : serialize(format, error);
+            }
+        };
     }
 
     public static ActionHandler.Result rejection(String message) {
@@ -123,16 +278,26 @@ public class DeckHandlers {
         return error(ActionHandler.Status.FAILED, message);
     }
 
+    /**
+     * Sizes a deck the same way as {@link BulkCreateRequest}.
+     */
+    public static class CreateRequest {
+        public String name;
+        public Integer decks;
+        public Integer cards;
+    }
+
     public ActionHandler CREATE = (requestId, bytes) -> {
-        final String deckName = new String(bytes);
+        final CreateRequest req = mapper.readValue(bytes, CreateRequest.class);
 
         final Deck deck = new Deck();
         final Deck created;
 
         try {
-            deck.setName(   require(    trimToNull(deckName)));
-            deck.setCards(  randomize(  initCards()         )); // do an initial randomize of the deck
+            deck.setName(   name(req.name));
+            deck.setOrdinals(  randomize(  initCards(size(req.decks, req.cards))    )); // initial randomize
             created = store.upsert(deck).orElse(null);
+            if(created != null) { describeCache.invalidate(created.name()); }
 
         } catch (IllegalArgumentException bad) {
             return rejection(bad.getMessage());
@@ -141,26 +306,121 @@ public class DeckHandlers {
         return created == null? failure("couldn't create deck"): deckResult(created);
     };
 
+    public static final int MAX_BULK = 100_000;
+    private static final int BULK_BATCH = 1024;
+
+    /**
+     * Set {@code echo} to get every created deck back; otherwise only the count is returned.  Every deck gets
+     * {@code cards} cards, or {@code decks} standard decks shuffled together as a shoe, or the configured size.
+     */
+    public static class BulkCreateRequest {
+        public List<String> names;
+        public boolean echo;
+        public Integer decks;
+        public Integer cards;
+    }
+
+    public static class BulkCreateResult {
+        public int created;
+
+        BulkCreateResult(int created) {
+            this.created = created;
+        }
+    }
+
+    public ActionHandler CREATE_BULK = (requestId, bytes) -> {
+        final BulkCreateRequest req = mapper.readValue(bytes, BulkCreateRequest.class);
+
+        try {
+            if(require(req.names).size() > MAX_BULK) {
+                return rejection("at most " + MAX_BULK + " decks can be created in one request");
+            }
+
+            final List<String> names = req.names.stream() // validate every name before writing any deck
+                .map(DeckHandlers::name)
+                .collect(Collectors.toList());
+            final int size = size(req.decks, req.cards);
+
+            final List<Deck> created = new ArrayList<>(req.echo? names.size() : 0);
+            int count = 0;
+
+            for(List<String> chunk : Lists.partition(names, BULK_BATCH)) {
+                final List<Deck> batch = new ArrayList<>(chunk.size());
+                for(String name : chunk) {
+                    final Deck deck = new Deck();
+                    deck.setName(       name);
+                    deck.setOrdinals(   randomize(  initCards(size)    ));
+                    batch.add(deck);
+                }
+
+                final List<Deck> stored = store.upsertAll(batch);
+                stored.forEach(deck -> describeCache.invalidate(deck.name()));
+                if(req.echo) { created.addAll(stored); }
+                count += stored.size();
+            }
+
+            return req.echo? deckStream(created.iterator()) : deckResult(new BulkCreateResult(count));
+
+        } catch (IllegalArgumentException bad) {
+            return rejection(bad.getMessage());
+        }
+    };
+
     public static class ShuffleRequest {
         public String name;
     }
 
+    /**
+     * What a deferred shuffle answers with: the deck's new version and how many shuffles it has pending.  Its
+     * order is seen through describe.
+     */
+    public static class Deferred {
+        public String name;
+        public long version;
+        public int pending;
+
+        Deferred(Deck deck) {
+            this.name = deck.name();
+            this.version = deck.version();
+            this.pending = deck.pending().length;
+        }
+    }
+
+    /**
+     * Adds {@code shuffle} to the deck's chain, first working out the chain so far if it's already full.
+     */
+    private Deck defer(Deck deck, long shuffle) {
+        final Deck current = deck.pending().length < maxPending? deck : ShuffleChain.materialize(deck);
+        current.setPending(ShuffleChain.then(current.pending(), shuffle));
+        current.setHead(0); // a shuffle gathers drawn cards back
+        return current;
+    }
+
+    /**
+     * Works out any pending shuffles, then applies {@code shuffle} to the cards.
+     */
+    private static Deck applied(Deck deck, UnaryOperator<byte[]> shuffle) {
+        final Deck current = ShuffleChain.materialize(deck);
+        current.setOrdinals(shuffle.apply(current.ordinals()));
+        return current;
+    }
+
+    private ActionHandler.Result shuffled(Deck deck) {
+        return maxPending > 0? deckResult(new Deferred(deck)) : deckResult(deck);
+    }
+
     public ActionHandler RANDOMIZE = (requestId, bytes) -> {
         final ShuffleRequest req = mapper.readValue(bytes, ShuffleRequest.class);
 
-        final Deck deck;
         final Deck randomized;
         try {
-            deck = store.findOne(    require(    trimToNull(req.name))).orElse(null);
+            randomized = store.update(name(req.name), deck -> maxPending > 0?
+                defer(      deck,   ShuffleChain.seeded(random)) :
+                applied(    deck,   this::randomize)
+            ).orElse(null);
 
-            if(deck != null) {
-                deck.setCards(  randomize(    deck.cards()));
-                randomized = store.upsert(deck).orElse(null);
-                return randomized == null? failure("couldn't persist randomized deck") : deckResult(randomized);
-
-            } else {
-                return failure("couldn't find deck");
-            }
+            if(randomized != null) { describeCache.invalidate(randomized.name()); }
+            return randomized == null? failure("couldn't find deck") : shuffled(randomized);
 
         } catch (IllegalArgumentException bad) {
             return rejection(bad.getMessage());
@@ -170,38 +430,277 @@ public class DeckHandlers {
     public ActionHandler SHUFFLE = (requestId, bytes) -> {
         final ShuffleRequest req = mapper.readValue(bytes, ShuffleRequest.class);
 
-        final Deck deck;
         final Deck shuffled;
         try {
-            deck = store.findOne(    require(    trimToNull(req.name))).orElse(null);
+            shuffled = store.update(name(req.name), deck -> maxPending > 0?
+                defer(      deck,   ShuffleChain.HAND) :
+                applied(    deck,   DeckHandlers::shuffleALot)
+            ).orElse(null);
 
-            if(deck != null) {
-                deck.setCards(  shuffleALot(    deck.cards()));
-                shuffled = store.upsert(deck).orElse(null);
-                return shuffled == null? failure("couldn't persist shuffled deck") : deckResult(shuffled);
+            if(shuffled != null) { describeCache.invalidate(shuffled.name()); }
+            return shuffled == null? failure("couldn't find deck") : shuffled(shuffled);
 
-            } else {
+        } catch (IllegalArgumentException bad) {
+            return rejection(bad.getMessage());
+        }
+    };
+
+    public static final int MAX_BATCH = 10_000;
+
+    public static class BatchShuffleRequest {
+        public List<String> names;
+    }
+
+    public static class BatchEntry {
+        public String name;
+        public ActionHandler.Status status;
+        @JsonRawValue public String result;
+
+        BatchEntry(String name, ActionHandler.Status status, String result) {
+            this.name = name;
+            this.status = status;
+            this.result = result;
+        }
+    }
+
+    private static BatchEntry shuffleOne(ActionHandler shuffle, String requestId, String name) {
+        try {
+            final ShuffleRequest req = new ShuffleRequest();
+            req.name = name;
+
+            final ActionHandler.Result result = shuffle.handle(requestId, mapper.writeValueAsBytes(req));
+            return new BatchEntry(name, result.status(), new String(result.payload(), StandardCharsets.UTF_8));
+
+        } catch (Exception e) {
+            final ActionHandler.Result failed = failure("couldn't shuffle deck");
+            return new BatchEntry(name, failed.status(), new String(failed.payload(), StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Runs {@code shuffle} (whichever algorithm is configured) for every deck named in a {@link BatchShuffleRequest},
+     * in parallel on {@code pool}, and answers with one entry per deck in request order.
+     */
+    public static ActionHandler batch(ActionHandler shuffle, ForkJoinPool pool) {
+        return (requestId, bytes) -> {
+            final BatchShuffleRequest req = mapper.readValue(bytes, BatchShuffleRequest.class);
+
+            try {
+                final List<String> names = require(req.names);
+                if(names.size() > MAX_BATCH) {
+                    return rejection("at most " + MAX_BATCH + " decks can be shuffled in one batch");
+                }
+
+                final List<BatchEntry> entries = pool.submit(() -> names.parallelStream()
+                    .map(name -> shuffleOne(shuffle, requestId, name))
+                    .collect(Collectors.toList())
+                ).get();
+
+                return result(mapper.writeValueAsBytes(entries)); // JSON only, the entries hold raw JSON
+
+            } catch (IllegalArgumentException bad) {
+                return rejection(bad.getMessage());
+            }
+        };
+    }
+
+    /**
+     * JSON comes from the describe cache, so repeat describes of an unchanged deck serialize nothing; ordinals are
+     * copied straight from the deck.
+     */
+    private ActionHandler.Result described(Deck deck) {
+        byte[] cached = describeCache.get(deck.name(), deck.version());
+        if(cached == null) {
+            cached = serialize(Format.JSON, deck);
+            describeCache.put(deck.name(), deck.version(), cached);
+        }
+
+        final byte[] json = cached;
+        return new ActionHandler.Result() {
+            public byte[] payload() { return json; }
+            public ActionHandler.Status status() { return ActionHandler.Status.SUCCESS; }
+            public boolean supports(Format format) { return true; }
+
+            public byte[] payload(Format format) {
+                switch (format) {
+                    case JSON: return json;
+                    case ORDINALS: return DeckOrdinals.encode(deck);
+                    default: return serialize(format, deck);
+                }
+            }
+        };
+    }
+
+    public ActionHandler DESCRIBE = (requestId, bytes) -> {
+        final String deckName = new String(bytes, StandardCharsets.UTF_8);
+
+        try {
+            final Deck deck = store.findOne(name(deckName)).orElse(null);
+            if(deck == null) {
                 return failure("couldn't find deck");
             }
 
+            return described(deck);
+
         } catch (IllegalArgumentException bad) {
             return rejection(bad.getMessage());
         }
     };
 
-    public ActionHandler DESCRIBE = (requestId, bytes) -> {
-        final String deckName = new String(bytes);
+    public static class VersionRequest {
+        public String name;
+        public Long version;
+    }
+
+    /**
+     * Describes a deck as it was at an earlier version, if the store still keeps it.  Not cached.
+     */
+    public ActionHandler VERSION = (requestId, bytes) -> {
+        final VersionRequest req = mapper.readValue(bytes, VersionRequest.class);
 
         try {
-            final Deck deck = store.findOne(require(trimToNull(deckName))).orElse(null);
-            return deck == null? failure("couldn't find deck") : deckResult(deck);
+            final Deck deck = store.findVersion(name(req.name), require(req.version)).orElse(null);
+            return deck == null? failure("couldn't find deck version") : deckResult(deck);
 
         } catch (IllegalArgumentException bad) {
             return rejection(bad.getMessage());
         }
     };
 
+    /**
+     * Puts a deck back in the order it had at an earlier version.  The revert is itself a new version, so the
+     * history in between is kept.
+     */
+    public ActionHandler REVERT = (requestId, bytes) -> {
+        final VersionRequest req = mapper.readValue(bytes, VersionRequest.class);
+
+        try {
+            final String name = name(req.name);
+            final Deck target = store.findVersion(name, require(req.version)).orElse(null);
+            if(target == null) {
+                return failure("couldn't find deck version");
+            }
+
+            final Deck reverted = store.update(name, deck -> {
+                deck.setOrdinals(   ShuffleChain.materialize(target).ordinals().clone());
+                return deck;
+            }).orElse(null);
+
+            if(reverted != null) { describeCache.invalidate(name); }
+            return reverted == null? failure("couldn't find deck") : deckResult(reverted);
+
+        } catch (IllegalArgumentException bad) {
+            return rejection(bad.getMessage());
+        }
+    };
+
+    public static class DrawRequest {
+        public String name;
+        public Integer count;
+    }
+
+    public static class DealRequest {
+        public String name;
+        public Integer hands;
+        public Integer cards;
+    }
+
+    /**
+     * Draws {@code count} cards from the top of a deck by moving its head past them, leaving the rest where they
+     * are.  Asking for more cards than are left rejects the draw and leaves the deck alone.
+     *
+     * @return the drawn cards as a deck of their own, with the drawn deck's name and new version
+     */
+    private Deck take(String name, int count) {
+        if(count < 1) {
+            throw new IllegalArgumentException("count must be positive");
+        }
+
+        final byte[][] drawn = new byte[1][];
+        final Deck updated = store.update(name, deck -> {
+            final Deck current = ShuffleChain.materialize(deck);
+            final int left = current.ordinals().length - current.head();
+            if(count > left) {
+                throw new IllegalArgumentException("only " + left + " cards left");
+            }
+
+            drawn[0] = Arrays.copyOfRange(current.ordinals(), current.head(), current.head() + count);
+            current.setHead(current.head() + count);
+            return current;
+        }).orElse(null);
+
+        if(updated == null) {
+            return null;
+        }
+
+        describeCache.invalidate(name);
+        final Deck out = new Deck();
+        out.setName(updated.name());
+        out.setVersion(updated.version());
+        out.setOrdinals(drawn[0]);
+        return out;
+    }
+
+    public ActionHandler DRAW = (requestId, bytes) -> {
+        final DrawRequest req = mapper.readValue(bytes, DrawRequest.class);
+
+        try {
+            final Deck drawn = take(name(req.name), req.count == null? 1 : req.count);
+            return drawn == null? failure("couldn't find deck") : deckResult(drawn);
+
+        } catch (IllegalArgumentException bad) {
+            return rejection(bad.getMessage());
+        }
+    };
+
+    /**
+     * Deals {@code cards} cards to each of {@code hands} hands, one at a time around the table, and answers with the
+     * hands as decks named {@code <deck>/1} to {@code <deck>/<hands>}.
+     */
+    public ActionHandler DEAL = (requestId, bytes) -> {
+        final DealRequest req = mapper.readValue(bytes, DealRequest.class);
+
+        try {
+            final String name = name(req.name);
+            final int hands = require(req.hands);
+            final int each = require(req.cards);
+            if(hands < 1 || each < 1) {
+                return rejection("hands and cards must be positive");
+            }
+
+            final long count = (long) hands * each;
+            final Deck drawn = take(name, count > Integer.MAX_VALUE? Integer.MAX_VALUE : (int) count);
+            if(drawn == null) {
+                return failure("couldn't find deck");
+            }
+
+            final List<Deck> dealt = new ArrayList<>(hands);
+            for(int h = 0; h < hands; h++) {
+                final byte[] hand = new byte[each];
+                for(int c = 0; c < each; c++) {
+                    hand[c] = drawn.ordinals()[c * hands + h];
+                }
+
+                final Deck deck = new Deck();
+                deck.setName(       name + "/" + (h + 1));
+                deck.setVersion(    drawn.version());
+                deck.setOrdinals(   hand);
+                dealt.add(deck);
+            }
+
+            return deckStream(dealt.iterator());
+
+        } catch (IllegalArgumentException bad) {
+            return rejection(bad.getMessage());
+        }
+    };
+
+    /**
+     * Either {@code after} (the name of the last deck of the previous page) or {@code offset} selects the page;
+     * {@code after} is preferred since its cost doesn't grow with the depth of the page.
+     */
     public static class ListDecksRequest {
+        public String after;
         public Integer offset;
         public Integer pageSize;
     }
@@ -209,15 +708,18 @@ public class DeckHandlers {
     public ActionHandler LIST = (requestId, bytes) -> {
         final ListDecksRequest req = mapper.readValue(bytes, ListDecksRequest.class);
 
+        final Integer size = req.pageSize == null? pageSize : req.pageSize;
         final List<Deck> decks;
         try {
-            decks = store.findPage(
-                req.pageSize == null? pageSize : req.pageSize,
-                require(req.offset)
-            );
+            if(req.offset != null && req.after == null) {
+                decks = store.findPage(size, req.offset);
+            } else {
+                decks = store.findPageAfter(trimToNull(req.after), size);
+            }
 
             if(decks != null) {
-                return deckResult(decks);
+                return deckStream(decks.iterator());
+
 
             } else {
                 return failure("couldn't find decks");
@@ -228,12 +730,39 @@ public class DeckHandlers {
         }
     };
 
+    /**
+     * Streams every deck in name order, reading the store a page at a time.
+     */
+    public ActionHandler EXPORT = (requestId, bytes) -> deckStream(new AbstractIterator<Deck>() {
+        private Iterator<Deck> page = Collections.emptyIterator();
+        private String after = null;
+        private boolean last = false;
+
+        protected Deck computeNext() {
+            if(!page.hasNext() && !last) {
+                final List<Deck> decks = store.findPageAfter(after, EXPORT_BATCH);
+                last = decks.size() < EXPORT_BATCH;
+                page = decks.iterator();
+            }
+
+            if(!page.hasNext()) {
+                return endOfData();
+            }
+
+            final Deck next = page.next();
+            after = next.name();
+            return next;
+        }
+    });
+
     public ActionHandler DELETE = (requestId, bytes) -> {
-        final String deckName = new String(bytes);
+        final String deckName = new String(bytes, StandardCharsets.UTF_8);
 
         try {
-            final Deck deck = store.findOne(require(trimToNull(deckName))).orElse(null);
-            store.delete(require(trimToNull(deckName)));
+            final String name = name(deckName);
+            final Deck deck = store.findOne(name).orElse(null);
+            store.delete(name);
+            describeCache.invalidate(name);
             return deck == null? failure("couldn't find deck") : deckResult("deleted deck");
 
         } catch (IllegalArgumentException bad) {
@@ -0,0 +1,81 @@
+package shuffle.core;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The {@code application/vnd.shuffle.ordinals} wire format.  A single deck is just its cards, one ordinal byte each
+ * ({@code suit.ordinal() * 13 + value - 1}), so a standard deck is 52 bytes; the caller already knows its name.  A
+ * sequence of decks is a run of records {@code [u16 name length][name, utf-8][u16 card count][ordinals]}.  Only the
+ * cards left in a deck are written.
+ * <p>
+ * Stored decks never have names longer than {@link Deck#MAX_NAME_BYTES}; dealt hands add a suffix to their deck's
+ * name, so writing checks the name against what 16 bits can count and throws rather than write a wrong length.
+ *
+ * @author Drew Fead
+ */
+public final class DeckOrdinals {
+    private static final int MAX_LENGTH = 0xffff;
+
+    private DeckOrdinals() {}
+
+    public static byte[] encode(Deck deck) {
+        final Deck current = ShuffleChain.materialize(deck);
+        return Arrays.copyOfRange(current.ordinals(), current.head(), current.ordinals().length);
+    }
+
+    public static void write(DataOutputStream out, Deck deck) throws IOException {
+        final byte[] name = deck.name().getBytes(StandardCharsets.UTF_8);
+        final Deck current = ShuffleChain.materialize(deck);
+        final byte[] cards = current.ordinals();
+        if(name.length > MAX_LENGTH) {
+            throw new IllegalArgumentException("deck name is longer than " + MAX_LENGTH + " bytes");
+        }
+        out.writeShort(name.length);
+        out.write(name);
+        out.writeShort(cards.length - current.head());
+        out.write(cards, current.head(), cards.length - current.head());
+    }
+
+    public static void writeAll(OutputStream out, Iterable<Deck> decks) throws IOException {
+        final DataOutputStream data = new DataOutputStream(out);
+        for(Deck deck : decks) {
+            write(data, deck);
+        }
+        data.flush();
+    }
+
+    /**
+     * @return the decks in a sequence of records, for clients and tests
+     */
+    public static List<Deck> readAll(InputStream in) throws IOException {
+        final DataInputStream data = new DataInputStream(in);
+        final List<Deck> out = new ArrayList<>();
+        while(true) {
+            final int nameLength;
+            try {
+                nameLength = data.readUnsignedShort();
+            } catch (EOFException end) {
+                return out;
+            }
+
+            final byte[] name = new byte[nameLength];
+            data.readFully(name);
+            final byte[] cards = new byte[data.readUnsignedShort()];
+            data.readFully(cards);
+
+            final Deck deck = new Deck();
+            deck.setName(new String(name, StandardCharsets.UTF_8));
+            deck.setOrdinals(cards);
+            out.add(deck);
+        }
+    }
+}
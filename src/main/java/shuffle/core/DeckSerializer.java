@@ -0,0 +1,64 @@
+package shuffle.core;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+
+/**
+ * Writes a {@link Deck} straight from its packed ordinals, in the wire format of
+ * {@code {"name":..., "version":..., "cards":[{"suit":..., "value":...}, ...]}} without materializing a card list.
+ * Only the cards left in the deck are written, with a {@code drawn} count once any have been drawn.
+ *
+ * @author Drew Fead
+ */
+public class DeckSerializer extends StdSerializer<Deck> {
+    private static final SerializedString NAME = new SerializedString("name");
+    private static final SerializedString VERSION = new SerializedString("version");
+    private static final SerializedString DRAWN = new SerializedString("drawn");
+    private static final SerializedString CARDS = new SerializedString("cards");
+    private static final SerializedString SUIT = new SerializedString("suit");
+    private static final SerializedString VALUE = new SerializedString("value");
+
+    private static final SerializedString[] suitNames = new SerializedString[Card.COUNT];
+    static {
+        for(int i = 0; i < Card.COUNT; i++) {
+            suitNames[i] = new SerializedString(Card.of(i).suit().name());
+        }
+    }
+
+    public DeckSerializer() {
+        super(Deck.class);
+    }
+
+    public void serialize(Deck value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        final Deck deck = ShuffleChain.materialize(value);
+
+        gen.writeStartObject();
+        gen.writeFieldName(NAME);
+        gen.writeString(deck.name());
+        gen.writeFieldName(VERSION);
+        gen.writeNumber(deck.version());
+        if(deck.head() > 0) {
+            gen.writeFieldName(DRAWN);
+            gen.writeNumber(deck.head());
+        }
+
+        final byte[] ordinals = deck.ordinals();
+        gen.writeFieldName(CARDS);
+        gen.writeStartArray();
+        for(int i = deck.head(); i < ordinals.length; i++) {
+            final byte ordinal = ordinals[i];
+            gen.writeStartObject();
+            gen.writeFieldName(SUIT);
+            gen.writeString(suitNames[ordinal]);
+            gen.writeFieldName(VALUE);
+            gen.writeNumber(Card.of(ordinal).value());
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+        gen.writeEndObject();
+    }
+}
@@ -11,7 +11,7 @@ public class LogHandler implements ActionHandler {
     private static final Logger log = LoggerFactory.getLogger(LogHandler.class);
 
     public Result handle(String requestId, byte[] bytes) {
-        if(log.isInfoEnabled()) { log.info(String.format("[%s] %s", requestId, bytes)); }
+        log.info("[{}] {} bytes", requestId, bytes.length);
 
         return new Result() {
             public byte[] payload() { return bytes; }
@@ -0,0 +1,108 @@
+package shuffle.core;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Uniform shuffle of large shoes on the fork-join pool, after Bacher, Bodini, Hollender and Lumbroso's MergeShuffle.
+ * The cards are split in half until the pieces are small enough to Fisher-Yates shuffle, the halves are shuffled in
+ * parallel, and each pair is then merged by taking the next card from either half on a coin flip.  Once one half
+ * runs out, the rest of the other is slotted in at random positions as in Fisher-Yates, which keeps every ordering
+ * equally likely.
+ * <p>
+ * Each half is shuffled with its own {@link RandomSource#split()}, taken before either starts, so a seeded source
+ * gives the same order however the pieces are scheduled.  That's also why the sizes here are constants: a recorded
+ * seed has to replay the same way on every instance and after every restart.
+ *
+ * @author Drew Fead
+ */
+public final class MergeShuffle {
+    public static final int PARALLEL_CARDS = 1 << 14; // shoes at least this big are shuffled in parallel
+    static final int LEAF_CARDS = 1 << 12;            // pieces this small are shuffled on one thread
+
+    private MergeShuffle() {}
+
+    public static void shuffle(byte[] cards, RandomSource random) {
+        shuffle(cards, random, LEAF_CARDS);
+    }
+
+    /**
+     * @param leafCards the size of piece that's Fisher-Yates shuffled rather than split further
+     */
+    public static void shuffle(byte[] cards, RandomSource random, int leafCards) {
+        ForkJoinPool.commonPool().invoke(new Piece(cards, 0, cards.length, random, Math.max(1, leafCards)));
+    }
+
+    private static final class Piece extends RecursiveAction {
+        private final byte[] cards;
+        private final int from;
+        private final int to;
+        private final RandomSource random;
+        private final int leafCards;
+
+        Piece(byte[] cards, int from, int to, RandomSource random, int leafCards) {
+            this.cards = cards;
+            this.from = from;
+            this.to = to;
+            this.random = random;
+            this.leafCards = leafCards;
+        }
+
+        protected void compute() {
+            if(to - from <= leafCards) {
+                fisherYates(cards, from, to, random);
+                return;
+            }
+
+            final int middle = from + (to - from)/2;
+            final RandomSource left = random.split();
+            final RandomSource right = random.split();
+            invokeAll(new Piece(cards, from, middle, left, leafCards), new Piece(cards, middle, to, right, leafCards));
+            merge(cards, from, middle, to, random);
+        }
+    }
+
+    private static void swap(byte[] cards, int i, int j) {
+        final byte swap = cards[i];
+        cards[i] = cards[j];
+        cards[j] = swap;
+    }
+
+    private static void fisherYates(byte[] cards, int from, int to, RandomSource random) {
+        for(int i = to - 1; i > from; i--) {
+            swap(cards, i, from + random.nextInt(i - from + 1));
+        }
+    }
+
+    /**
+     * Merges the shuffled runs {@code [from, middle)} and {@code [middle, to)} into one shuffled run, in place.
+     */
+    private static void merge(byte[] cards, int from, int middle, int to, RandomSource random) {
+        int i = from;
+        int j = middle;
+        int bits = 0;
+        int bitsLeft = 0;
+
+        while(true) {
+            if(bitsLeft == 0) {
+                bits = random.nextInt(1 << 30);
+                bitsLeft = 30;
+            }
+            final boolean fromRight = (bits & 1) != 0;
+            bits >>>= 1;
+            bitsLeft--;
+
+            if(fromRight) {
+                if(j == to) { break; }
+                swap(cards, i, j++);
+            } else if(i == j) {
+                break;
+            }
+            i++;
+        }
+
+        for(; i < to; i++) {
+            swap(cards, i, from + random.nextInt(i - from + 1));
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package shuffle.core;
+
+import java.util.Arrays;
+
+/**
+ * A fixed reordering of {@code size} positions, where position {@code i} of the output takes the element at
+ * {@code sources[i]} of the input.  Deterministic shuffles are compiled into one of these once, composed as needed,
+ * and then applied to a deck in place in a single pass without allocating.
+ *
+ * @author Drew Fead
+ */
+public final class Permutation {
+    private final int[] sources;
+    private final int[] cycles; // one position per cycle of length > 1, for applying in place
+
+    private Permutation(int[] sources) {
+        this.sources = sources;
+        this.cycles = cycles(sources);
+    }
+
+    private static int[] cycles(int[] sources) {
+        final boolean[] seen = new boolean[sources.length];
+        final int[] starts = new int[sources.length];
+        int count = 0;
+
+        for(int i = 0; i < sources.length; i++) {
+            if(!seen[i] && sources[i] != i) {
+                starts[count++] = i;
+                for(int j = i; !seen[j]; j = sources[j]) {
+                    seen[j] = true;
+                }
+            }
+        }
+
+        return Arrays.copyOf(starts, count);
+    }
+
+    public static Permutation identity(int size) {
+        final int[] sources = new int[size];
+        for(int i = 0; i < size; i++) {
+            sources[i] = i;
+        }
+
+        return new Permutation(sources);
+    }
+
+    /**
+     * A single perfect hand shuffle: split the deck in half and interleave the halves, starting with the left.  In
+     * odd cases the left half is the smaller one, so the last card of the right half stays at the bottom.
+     */
+    public static Permutation interleave(int size) {
+        final int[] sources = new int[size];
+        final int half = size/2;
+
+        for(int i = 0; i < half; i++) {
+            sources[2*i] = i;
+            sources[2*i + 1] = half + i;
+        }
+        if(size % 2 == 1) {
+            sources[size - 1] = size - 1;
+        }
+
+        return new Permutation(sources);
+    }
+
+    public int size() { return sources.length; }
+
+    /**
+     * @return the permutation equivalent to applying this one and then {@code next}
+     */
+    public Permutation then(Permutation next) {
+        if(next.size() != size()) {
+            throw new IllegalArgumentException("can't compose permutations of different sizes");
+        }
+
+        final int[] composed = new int[size()];
+        for(int i = 0; i < composed.length; i++) {
+            composed[i] = sources[next.sources[i]];
+        }
+
+        return new Permutation(composed);
+    }
+
+    /**
+     * @return the permutation equivalent to applying this one {@code times} times in a row
+     */
+    public Permutation times(int times) {
+        Permutation out = identity(size());
+        for(int i = 0; i < times; i++) {
+            out = out.then(this);
+        }
+
+        return out;
+    }
+
+    /**
+     * Permutes {@code cards} in place, walking each cycle once.
+     */
+    public void permute(byte[] cards) {
+        if(cards.length != size()) {
+            throw new IllegalArgumentException("expected " + size() + " cards, found " + cards.length);
+        }
+
+        for(int start : cycles) {
+            final byte first = cards[start];
+            int i = start;
+            for(int next = sources[i]; next != start; next = sources[i]) {
+                cards[i] = cards[next];
+                i = next;
+            }
+            cards[i] = first;
+        }
+    }
+}
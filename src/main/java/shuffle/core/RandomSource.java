@@ -0,0 +1,149 @@
+package shuffle.core;
+
+import java.security.SecureRandom;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Source of randomness for shuffles.  Every implementation keeps its generator state per thread, so request threads
+ * never contend on a shared seed the way they do with {@link java.util.Collections#shuffle(java.util.List)}.
+ *
+ * @author Drew Fead
+ */
+@FunctionalInterface
+public interface RandomSource {
+    enum Mode { THREADLOCAL, SPLITTABLE, SECURE }
+
+    /**
+     * @return a uniformly distributed int in {@code [0, bound)}
+     */
+    int nextInt(int bound);
+
+    /**
+     * Fisher-Yates shuffle of {@code cards} in place, or a parallel {@link MergeShuffle} for the largest shoes.
+     */
+    default void shuffle(byte[] cards) {
+        if(cards.length >= MergeShuffle.PARALLEL_CARDS) {
+            MergeShuffle.shuffle(cards, this);
+            return;
+        }
+
+        for(int i = cards.length - 1; i > 0; i--) {
+            final int j = nextInt(i + 1);
+            final byte swap = cards[i];
+            cards[i] = cards[j];
+            cards[j] = swap;
+        }
+    }
+
+    /**
+     * @return a uniformly distributed non-negative 61 bit seed
+     */
+    default long nextSeed() {
+        return (long) nextInt(1 << 30) << 31 | nextInt(1 << 30) << 1 | nextInt(2);
+    }
+
+    /**
+     * @return a source another thread can use alongside this one; sources that are already per thread are their own
+     */
+    default RandomSource split() {
+        return this;
+    }
+
+    /**
+     * @return a source that always produces the same sequence for the same seed, for replaying a shuffle
+     */
+    static RandomSource seeded(long seed) {
+        return new Seeded(new SplittableRandom(seed));
+    }
+
+    /**
+     * A single {@link SplittableRandom}, which isn't safe to share, so splits are taken from it rather than sharing it.
+     * Splits are deterministic too, so a seeded shuffle replays the same way even when it's run in parallel.
+     */
+    final class Seeded implements RandomSource {
+        private final SplittableRandom random;
+
+        Seeded(SplittableRandom random) {
+            this.random = random;
+        }
+
+        public int nextInt(int bound) { return random.nextInt(bound); }
+        public RandomSource split() { return new Seeded(random.split()); }
+    }
+
+    static RandomSource of(Mode mode) {
+        switch(mode) {
+            case THREADLOCAL:   return threadLocal();
+            case SPLITTABLE:    return splittable();
+            case SECURE:        return secure();
+            default:            throw new IllegalArgumentException("unknown random mode: " + mode);
+        }
+    }
+
+    static RandomSource threadLocal() {
+        return bound -> ThreadLocalRandom.current().nextInt(bound);
+    }
+
+    /**
+     * Each thread gets its own {@link SplittableRandom}, split from a common root so their sequences are independent.
+     */
+    static RandomSource splittable() {
+        final SplittableRandom root = new SplittableRandom();
+        final ThreadLocal<SplittableRandom> local = ThreadLocal.withInitial(() -> {
+            synchronized (root) { return root.split(); }
+        });
+
+        return bound -> local.get().nextInt(bound);
+    }
+
+    /**
+     * Cryptographically strong randomness for when the fairness of a shuffle has to be auditable.  Each thread has its
+     * own {@link SecureRandom} and draws from a buffer of its output, so the provider is called once per buffer
+     * rather than once per card.
+     */
+    static RandomSource secure() {
+        final ThreadLocal<SecureBuffer> local = ThreadLocal.withInitial(SecureBuffer::new);
+        return bound -> local.get().nextInt(bound);
+    }
+
+    final class SecureBuffer {
+        private static final int SIZE = 4096;
+
+        private final SecureRandom random = new SecureRandom();
+        private final byte[] buffer = new byte[SIZE];
+        private int position = SIZE;
+
+        private int next31() {
+            if(position > SIZE - 4) {
+                random.nextBytes(buffer);
+                position = 0;
+            }
+
+            final int bits = (buffer[position] & 0xff) << 24
+                | (buffer[position + 1] & 0xff) << 16
+                | (buffer[position + 2] & 0xff) << 8
+                | (buffer[position + 3] & 0xff);
+            position += 4;
+            return bits >>> 1;
+        }
+
+        int nextInt(int bound) {
+            if(bound <= 0) {
+                throw new IllegalArgumentException("bound must be positive");
+            }
+
+            int r = next31();
+            final int m = bound - 1;
+            if((bound & m) == 0) {
+                return r & m;
+            }
+
+            for(int u = r; u - (r = u % bound) + m < 0; u = next31()) {
+                // reject values from the incomplete last range, so the result isn't biased
+            }
+
+            return r;
+        }
+    }
+}
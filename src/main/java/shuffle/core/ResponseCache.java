@@ -0,0 +1,52 @@
+package shuffle.core;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Bounded cache of serialized responses, keyed by deck name and checked against the deck's version on every read.
+ * Stores never reuse a version for a name, even across a delete and a new create (see {@link
+ * shuffle.ports.DeckStore}), so an entry put late by a read that raced an invalidation still only matches the state
+ * it was serialized from.  Entries are weighed by their size in bytes and the least recently used ones are evicted
+ * once {@code maxBytes} is reached.
+ *
+ * @author Drew Fead
+ */
+public class ResponseCache {
+    private static final int ENTRY_OVERHEAD = 64; // rough cost of the entry, key and cache bookkeeping
+
+    private static class Entry {
+        final long version;
+        final byte[] bytes;
+
+        Entry(long version, byte[] bytes) {
+            this.version = version;
+            this.bytes = bytes;
+        }
+    }
+
+    private final Cache<String, Entry> entries;
+
+    public ResponseCache(long maxBytes) {
+        this.entries = CacheBuilder.newBuilder()
+            .maximumWeight(maxBytes)
+            .weigher((String name, Entry entry) -> ENTRY_OVERHEAD + 2 * name.length() + entry.bytes.length)
+            .build();
+    }
+
+    /**
+     * @return the cached response for exactly this version of the deck, or null
+     */
+    public byte[] get(String name, long version) {
+        final Entry entry = entries.getIfPresent(name);
+        return entry != null && entry.version == version? entry.bytes : null;
+    }
+
+    public void put(String name, long version, byte[] bytes) {
+        entries.put(name, new Entry(version, bytes));
+    }
+
+    public void invalidate(String name) {
+        entries.invalidate(name);
+    }
+}
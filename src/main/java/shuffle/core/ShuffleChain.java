@@ -0,0 +1,91 @@
+package shuffle.core;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import java.util.Arrays;
+
+/**
+ * Shuffles recorded against a deck instead of applied to it.  Each one is a single long: {@link #HAND} for a hand
+ * shuffle, or a seed for a Fisher-Yates shuffle driven by a {@link java.util.SplittableRandom} seeded with it.  Both
+ * are deterministic, so a deck's order is its ordinals with its chain replayed over them, and replaying it again,
+ * later or elsewhere, gives the same order.
+ * <p>
+ * Seeds are 61 bits, so a seeded shuffle reaches at most 2^61 of a deck's orderings, where an eager shuffle with a
+ * {@link RandomSource#secure()} source can reach them all.
+ *
+ * @author Drew Fead
+ */
+public final class ShuffleChain {
+    public static final long[] NONE = new long[0];
+    public static final long HAND = 0;
+
+    static final Permutation HAND_SHUFFLE = Permutation.interleave(Card.COUNT).times(5);
+
+    /**
+     * Hand shuffles compiled for other sizes of deck, as they're asked for.  Most deployments only ever see a few
+     * sizes, but any size up to {@link DeckHandlers#MAX_CARDS} can be created, so only the recent ones are kept.
+     */
+    private static final LoadingCache<Integer, Permutation> handShuffles = CacheBuilder.newBuilder()
+        .maximumSize(64)
+        .build(CacheLoader.from(size -> Permutation.interleave(size).times(5)));
+
+    private ShuffleChain() {}
+
+    /**
+     * @return the hand shuffle for a deck of {@code size} cards
+     */
+    static Permutation hand(int size) {
+        return size == Card.COUNT? HAND_SHUFFLE : handShuffles.getUnchecked(size);
+    }
+
+    /**
+     * @return a Fisher-Yates shuffle seeded from {@code random}
+     */
+    public static long seeded(RandomSource random) {
+        return random.nextSeed() << 1 | 1;
+    }
+
+    /**
+     * @return the deck's chain with {@code shuffle} added
+     */
+    public static long[] then(long[] chain, long shuffle) {
+        final long[] out = Arrays.copyOf(chain, chain.length + 1);
+        out[chain.length] = shuffle;
+        return out;
+    }
+
+    /**
+     * Applies one shuffle to {@code cards} in place.
+     */
+    public static void apply(long shuffle, byte[] cards) {
+        if(shuffle == HAND) {
+            hand(cards.length).permute(cards);
+        } else {
+            RandomSource.seeded(shuffle >>> 1).shuffle(cards);
+        }
+    }
+
+    /**
+     * @return the deck itself when nothing is pending, otherwise a copy in its final order with nothing pending
+     */
+    public static Deck materialize(Deck deck) {
+        final long[] pending = deck.pending();
+        if(pending.length == 0) {
+            return deck;
+        }
+
+        final byte[] cards = deck.ordinals().clone();
+        for(long shuffle : pending) {
+            apply(shuffle, cards);
+        }
+
+        final Deck out = new Deck();
+        out.setName(deck.name());
+        out.setVersion(deck.version());
+        out.setOrdinals(cards);
+        out.setHead(deck.head());
+        return out;
+    }
+}
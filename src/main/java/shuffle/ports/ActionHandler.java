@@ -1,5 +1,13 @@
 package shuffle.ports;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
 /**
  * @author Drew Fead
  */
@@ -7,10 +15,126 @@ package shuffle.ports;
 public interface ActionHandler {
     enum Status { SUCCESS, REJECTED, FAILED }
 
+    /**
+     * Wire formats a result can be written in.  JSON is the default and every result supports it; the binary
+     * formats carry the same structure more compactly, and {@link #ORDINALS} carries decks as raw card ordinals.
+     */
+    enum Format {
+        JSON("application/json"),
+        SMILE("application/x-jackson-smile"),
+        CBOR("application/cbor"),
+        ORDINALS("application/vnd.shuffle.ordinals");
+
+        private final String mediaType;
+
+        Format(String mediaType) {
+            this.mediaType = mediaType;
+        }
+
+        public String mediaType() { return mediaType; }
+
+        /**
+         * @return the format with the media type, ignoring case and any parameters, or null
+         */
+        public static Format of(String mediaType) {
+            if(mediaType == null) {
+                return null;
+            }
+
+            final int params = mediaType.indexOf(';');
+            final String type = (params < 0? mediaType : mediaType.substring(0, params)).trim();
+            for(Format f : values()) {
+                if(f.mediaType.equalsIgnoreCase(type)) { return f; }
+            }
+
+            return null;
+        }
+    }
+
     interface Result {
         byte[] payload();
         Status status();
+
+        default void writeTo(OutputStream out) throws IOException {
+            out.write(payload());
+        }
+
+        default boolean supports(Format format) {
+            return format == Format.JSON;
+        }
+
+        /**
+         * @param format one this result {@link #supports}
+         */
+        default byte[] payload(Format format) {
+            return payload();
+        }
+    }
+
+    /**
+     * A result that writes its payload directly to the output as it's produced, so the size of the response doesn't
+     * have to be buffered in memory.  {@link #payload()} is only for callers without an output to write to.
+     */
+    interface StreamingResult extends Result {
+        void writeTo(OutputStream out) throws IOException;
+
+        default void writeTo(OutputStream out, Format format) throws IOException {
+            writeTo(out);
+        }
+
+        default byte[] payload() {
+            return payload(Format.JSON);
+        }
+
+        default byte[] payload(Format format) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                writeTo(out, format);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            return out.toByteArray();
+        }
     }
 
     Result handle(String requestId, byte[] bytes) throws Exception;
+
+    /**
+     * Runs {@link #handle} on the executor, so the caller's thread is free while it runs.  A full executor rejects
+     * the task by throwing from here.
+     */
+    default CompletableFuture<Result> handleAsync(String requestId, byte[] bytes, Executor executor) {
+        final CompletableFuture<Result> out = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                out.complete(handle(requestId, bytes));
+            } catch (Throwable e) {
+                out.completeExceptionally(e);
+            }
+        });
+
+        return out;
+    }
+
+    /**
+     * A handler that completes without holding a thread while it waits, e.g. on a remote store.  It doesn't need an
+     * executor, and {@link #handle} just waits for the future.
+     */
+    @FunctionalInterface
+    interface Async extends ActionHandler {
+        CompletableFuture<Result> handleAsync(String requestId, byte[] bytes);
+
+        default CompletableFuture<Result> handleAsync(String requestId, byte[] bytes, Executor executor) {
+            return handleAsync(requestId, bytes);
+        }
+
+        default Result handle(String requestId, byte[] bytes) throws Exception {
+            try {
+                return handleAsync(requestId, bytes).get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception? (Exception) e.getCause() : e;
+            }
+        }
+    }
 }
@@ -2,15 +2,57 @@ package shuffle.ports;
 
 import shuffle.core.Deck;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.UnaryOperator;
 
 /**
+ * Decks handed out by a store are snapshots and must not be mutated; changes go through {@link #upsert(Deck)} or
+ * {@link #update(String, UnaryOperator)}, both of which assign the deck a new version.  A store never gives a name
+ * the same version twice, even once the deck is deleted and created again, so a name and version always identify
+ * one state of one deck.
+ *
  * @author Drew Fead
  */
 public interface DeckStore {
     Optional<Deck> upsert(Deck deck);
+
+    /**
+     * Upserts a batch of decks.  Stores that can write a batch more cheaply than one deck at a time should override.
+     *
+     * @return the stored decks, in the order given
+     */
+    default List<Deck> upsertAll(List<Deck> decks) {
+        final List<Deck> out = new ArrayList<>(decks.size());
+        for(Deck deck : decks) {
+            upsert(deck).ifPresent(out::add);
+        }
+
+        return out;
+    }
     Optional<Deck> findOne(String name);
     List<Deck> findPage(Integer pageSize, Integer offset);
+
+    /**
+     * Keyset pagination: returns up to {@code pageSize} decks whose names sort strictly after {@code after}, in name
+     * order.  A null {@code after} starts from the first deck.
+     */
+    List<Deck> findPageAfter(String after, Integer pageSize);
     void delete(String name);
+
+    /**
+     * Atomically applies {@code mutation} to a copy of the current version of the named deck and stores the result.
+     *
+     * @return the updated deck, or empty if no deck with that name exists
+     */
+    Optional<Deck> update(String name, UnaryOperator<Deck> mutation);
+
+    /**
+     * @return the named deck as it was at {@code version}, or empty if that version isn't kept; stores without
+     *         history only keep the current one
+     */
+    default Optional<Deck> findVersion(String name, long version) {
+        return findOne(name).filter(deck -> deck.version() == version);
+    }
 }
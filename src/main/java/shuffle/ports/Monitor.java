@@ -1,12 +1,50 @@
 package shuffle.ports;
 
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
 /**
  * @author Drew Fead
  */
 public interface Monitor {
     enum MetricType {
-        REQUEST_DURATION
+        REQUEST_DURATION,
+        ADMISSION_WAIT
     }
 
+    /**
+     * What admission control decided for a request: let in straight away, let in after waiting for a slot, or
+     * turned away.
+     */
+    enum Admission { ADMITTED, QUEUED, SHED }
+
     void logMetric(String requestId, MetricType type, long magnitude) throws Exception;
+
+    /**
+     * Records one handled request.  Monitors that don't break durations down by route just log the duration in
+     * milliseconds.
+     */
+    default void logRequest(String requestId, String route, int status, long nanos) throws Exception {
+        logMetric(requestId, MetricType.REQUEST_DURATION, TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+
+    /**
+     * Records an admission decision for a request to {@code route}, with the route's concurrency limit at the time
+     * and how long the request waited.  Monitors that don't break decisions down just log the wait, in
+     * milliseconds, of requests that had to wait or were turned away.
+     */
+    default void logAdmission(String requestId, String route, Admission decision, int limit, long waitNanos)
+            throws Exception {
+
+        if(decision != Admission.ADMITTED) {
+            logMetric(requestId, MetricType.ADMISSION_WAIT, TimeUnit.NANOSECONDS.toMillis(waitNanos));
+        }
+    }
+
+    /**
+     * @return a handler that reports what's been recorded, for monitors that can be read from inside the service
+     */
+    default Optional<ActionHandler> metrics() {
+        return Optional.empty();
+    }
 }
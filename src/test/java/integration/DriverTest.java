@@ -0,0 +1,126 @@
+package integration;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import shuffle.adapters.driver.AdmissionControl;
+import shuffle.adapters.driver.HttpDriver;
+import shuffle.adapters.driver.HttpDriver.HttpAction;
+import shuffle.adapters.monitor.LogMonitor;
+import shuffle.core.DeckHandlers;
+import shuffle.ports.ActionHandler;
+import shuffle.ports.ActionHandler.Status;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static shuffle.adapters.driver.HttpDriver.Method.POST;
+import static shuffle.adapters.driver.HttpDriver.action;
+
+/**
+ * A driver with one request at a time per route and a short wait, so a request that never gives its slot back
+ * leaves the route answering 503, and a small limit on request bodies.  Slots are given back just after the
+ * response is written, so the wait covers the next request arriving first.
+ */
+public class DriverTest {
+    static final int port = 9451;
+    static HttpDriver driver;
+    static HttpClient httpClient;
+    static final int MAX_BODY = 1024;
+
+    @BeforeClass public static void spinup() throws Exception {
+        final ActionHandler echo = (requestId, bytes) -> {
+            if(new String(bytes, StandardCharsets.UTF_8).contains("error")) {
+                throw new AssertionError("thrown by the handler");
+            }
+            return DeckHandlers.error(Status.SUCCESS, "ok");
+        };
+        final ActionHandler.Async async = (requestId, bytes) -> {
+            throw new AssertionError("thrown by the handler");
+        };
+
+        final Map<String, HttpAction> routes = ImmutableMap.of(
+            "echo", action(echo, POST),
+            "async", action(async, POST)
+        );
+        driver = new HttpDriver(port, routes, new LogMonitor(), null,
+            new AdmissionControl(1, 1, 1, 1, 1_000, 10_000, 1, ImmutableSet.of()), MAX_BODY);
+        driver.start();
+
+        httpClient = HttpClientBuilder.create().build();
+    }
+
+    @AfterClass public static void cleanup() throws Exception {
+        driver.stop();
+    }
+
+    private static String json(int length) {
+        final char[] padding = new char[length - "{\"pad\":\"\"}".length()];
+        Arrays.fill(padding, 'x');
+        return "{\"pad\":\"" + new String(padding) + "\"}";
+    }
+
+    private static int post(String path, String body) throws Exception {
+        final HttpPost post = new HttpPost("http://localhost:" + port + "/" + path);
+        post.setEntity(new ByteArrayEntity(body.getBytes(StandardCharsets.UTF_8)));
+        final HttpResponse response = httpClient.execute(post);
+        EntityUtils.consume(response.getEntity());
+        return response.getStatusLine().getStatusCode();
+    }
+
+    @Test public void errorsGiveTheirSlotBack() throws Exception {
+        assertEquals(500, post("echo", "{\"error\":true}"));
+        assertEquals("the route should still admit requests", 200, post("echo", "{}"));
+    }
+
+    @Test public void asyncErrorsGiveTheirSlotBack() throws Exception {
+        assertEquals(500, post("async", "{}"));
+        assertEquals("the route should still admit requests", 500, post("async", "{}"));
+    }
+
+    @Test public void bodiesOverTheLimitAreRefused() throws Exception {
+        assertEquals(200, post("echo", json(MAX_BODY)));
+        assertEquals(413, post("echo", json(MAX_BODY + 1)));
+
+        final HttpPost chunked = new HttpPost("http://localhost:" + port + "/echo");
+        final InputStreamEntity entity = new InputStreamEntity(
+            new ByteArrayInputStream(json(MAX_BODY * 4).getBytes(StandardCharsets.UTF_8)), -1);
+        entity.setChunked(true);
+        chunked.setEntity(entity);
+        final HttpResponse response = httpClient.execute(chunked);
+        EntityUtils.consume(response.getEntity());
+        assertEquals(413, response.getStatusLine().getStatusCode());
+    }
+
+    @Test public void declaredLengthsAreNotTrusted() throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            final OutputStream out = socket.getOutputStream();
+            out.write(("POST /echo HTTP/1.1\r\nHost: localhost\r\nContent-Length: 1500000000\r\n\r\n{")
+                .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            final BufferedReader in = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            assertTrue(in.readLine().startsWith("HTTP/1.1 413"));
+        }
+
+        assertEquals("the route should still admit requests", 200, post("echo", "{}"));
+    }
+}
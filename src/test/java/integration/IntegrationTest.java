@@ -1,5 +1,7 @@
 package integration;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableMap;
 import org.apache.commons.configuration2.Configuration;
 import org.apache.commons.configuration2.MapConfiguration;
@@ -12,6 +14,7 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -20,6 +23,9 @@ import shuffle.app.App;
 
 import java.net.URI;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 public class IntegrationTest {
 
     static HttpClient httpClient;
@@ -37,7 +43,7 @@ public class IntegrationTest {
             )
         );
 
-        //App.logging();
+        //App.logging(config);
         App.start(config);
         httpClient = HttpClientBuilder.create()
             .setMaxConnTotal(10)
@@ -96,4 +102,64 @@ public class IntegrationTest {
         final HttpResponse delete = request(httpClient, Method.DELETE, "/deck/delete", null, "test");
     }
 
+    @Test public void routesMatchExactly() throws Exception {
+        final HttpResponse unknown = request(httpClient, Method.GET, "/deck/describe/extra", null, "test");
+        assertEquals(404, unknown.getStatusLine().getStatusCode());
+        EntityUtils.consume(unknown.getEntity());
+
+        request(httpClient, Method.PUT, "/deck/create", null, "routes");
+        final HttpResponse slash = request(httpClient, Method.GET, "/deck/describe/", null, "routes");
+        assertEquals(200, slash.getStatusLine().getStatusCode());
+        EntityUtils.consume(slash.getEntity());
+    }
+
+    @Test public void negotiatesFormats() throws Exception {
+        request(httpClient, Method.PUT, "/deck/create", null, "formats");
+        final URI describe = new URIBuilder("http://localhost:9421/deck/describe")
+            .addParameter("name", "formats").build();
+
+        final HttpGet ordinals = new HttpGet(describe);
+        ordinals.setHeader("Accept", "application/vnd.shuffle.ordinals, application/json;q=0.5");
+        final HttpResponse compact = httpClient.execute(ordinals);
+        assertEquals("application/vnd.shuffle.ordinals", compact.getEntity().getContentType().getValue());
+        assertEquals(52, EntityUtils.toByteArray(compact.getEntity()).length);
+
+        final HttpGet json = new HttpGet(describe);
+        final HttpResponse plain = httpClient.execute(json);
+        assertTrue(plain.getEntity().getContentType().getValue().startsWith("application/json"));
+        assertTrue(EntityUtils.toString(plain.getEntity()).contains("\"cards\""));
+    }
+
+    @Test public void createsShoesFromParams() throws Exception {
+        final ObjectMapper mapper = new ObjectMapper();
+        final String[][] sizes = {{"decks", "2", "104"}, {"cards", "70", "70"}};
+        for(String[] size : sizes) {
+            final String name = "params-" + size[0];
+            final URI create = new URIBuilder("http://localhost:9421/deck/create")
+                .addParameter("name", name).addParameter(size[0], size[1]).build();
+            final HttpResponse created = httpClient.execute(new HttpPut(create));
+            assertEquals(200, created.getStatusLine().getStatusCode());
+            EntityUtils.consume(created.getEntity());
+
+            final HttpResponse describe = request(httpClient, Method.GET, "/deck/describe", null, name);
+            final JsonNode deck = mapper.readTree(EntityUtils.toString(describe.getEntity()));
+            assertEquals(Integer.parseInt(size[2]), deck.path("cards").size());
+        }
+
+        final HttpResponse huge = httpClient.execute(new HttpPut(new URIBuilder("http://localhost:9421/deck/create")
+            .addParameter("name", "params-huge").addParameter("cards", "65536").build()));
+        assertEquals(400, huge.getStatusLine().getStatusCode());
+        EntityUtils.consume(huge.getEntity());
+    }
+
+    @Test public void metrics() throws Exception {
+        request(httpClient, Method.PUT, "/deck/create", null, "metrics");
+        final HttpResponse metrics = request(httpClient, Method.GET, "/metrics", null, null);
+
+        assertEquals(200, metrics.getStatusLine().getStatusCode());
+        final JsonNode report = new ObjectMapper().readTree(EntityUtils.toString(metrics.getEntity()));
+        assertTrue(report.path("deck/create").path("200").path("count").asLong() >= 1);
+        assertTrue(report.path("deck/create").path("200").has("p99.9"));
+    }
+
 }
@@ -0,0 +1,91 @@
+package integration;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import shuffle.adapters.driver.HttpDriver;
+import shuffle.adapters.driver.HttpDriver.HttpAction;
+import shuffle.adapters.monitor.LogMonitor;
+import shuffle.adapters.store.InMemoryStore;
+import shuffle.adapters.store.RemoteStore;
+import shuffle.adapters.store.ShardedStore;
+import shuffle.adapters.store.StoreHandlers;
+import shuffle.core.Deck;
+import shuffle.core.DeckHandlers;
+import shuffle.ports.ActionHandler.Status;
+import shuffle.ports.DeckStore;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static shuffle.adapters.driver.HttpDriver.Method.POST;
+import static shuffle.adapters.driver.HttpDriver.action;
+
+/**
+ * Three store nodes on localhost, each serving its own decks over HTTP, with a sharded store over all of them.
+ */
+public class ShardingTest {
+    static final int[] ports = {9441, 9442, 9443};
+    static final InMemoryStore[] locals = new InMemoryStore[ports.length];
+    static final HttpDriver[] drivers = new HttpDriver[ports.length];
+    static ShardedStore sharded;
+    static DeckHandlers handlers;
+
+    @BeforeClass public static void spinup() throws Exception {
+        final Map<String, DeckStore> nodes = new HashMap<>();
+        for(int i = 0; i < ports.length; i++) {
+            locals[i] = new InMemoryStore();
+            final StoreHandlers store = new StoreHandlers(locals[i]);
+            final Map<String, HttpAction> routes = ImmutableMap.<String, HttpAction>builder()
+                .put(RemoteStore.FIND, action(store.FIND, POST))
+                .put(RemoteStore.PAGE, action(store.PAGE, POST))
+                .put(RemoteStore.UPSERT, action(store.UPSERT, POST))
+                .put(RemoteStore.UPSERT_ALL, action(store.UPSERT_ALL, POST))
+                .put(RemoteStore.UPDATE, action(store.UPDATE, POST))
+                .put(RemoteStore.DELETE, action(store.DELETE, POST))
+                .build();
+
+            drivers[i] = new HttpDriver(ports[i], routes, new LogMonitor());
+            drivers[i].start();
+            nodes.put("node-" + i, new RemoteStore("http://localhost:" + ports[i], 5000));
+        }
+
+        sharded = new ShardedStore(nodes, ShardedStore.DEFAULT_VIRTUAL_NODES);
+        handlers = new DeckHandlers(sharded, 10);
+    }
+
+    @AfterClass public static void cleanup() throws Exception {
+        for(HttpDriver driver : drivers) {
+            driver.stop();
+        }
+    }
+
+    @Test public void decksLiveOnTheirShards() throws Exception {
+        for(int i = 0; i < 60; i++) {
+            final byte[] req = ("{\"name\":\"sharded-" + i + "\"}").getBytes();
+            assertEquals(Status.SUCCESS, handlers.CREATE.handle("create", req).status());
+        }
+
+        int total = 0;
+        for(InMemoryStore local : locals) {
+            final int held = local.findPageAfter("sharded-", 100).size();
+            assertTrue("every node should own some decks", held > 0);
+            total += held;
+        }
+        assertEquals(60, total);
+
+        final byte[] shuffle = "{\"name\":\"sharded-7\"}".getBytes();
+        assertEquals(Status.SUCCESS, handlers.SHUFFLE.handle("shuffle", shuffle).status());
+        assertEquals(Status.SUCCESS, handlers.DESCRIBE.handle("describe", "sharded-7".getBytes()).status());
+
+        final List<Deck> page = sharded.findPageAfter("sharded-", 5);
+        assertEquals("sharded-0", page.get(0).name());
+        assertEquals("sharded-12", page.get(4).name());
+
+        handlers.DELETE.handle("delete", "sharded-7".getBytes());
+        assertEquals(Status.FAILED, handlers.DESCRIBE.handle("describe", "sharded-7".getBytes()).status());
+    }
+}
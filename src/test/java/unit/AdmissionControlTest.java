@@ -0,0 +1,120 @@
+package unit;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+import shuffle.adapters.driver.AdmissionControl;
+import shuffle.ports.Monitor.Admission;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/*
+ * @author Drew Fead
+ */
+public class AdmissionControlTest {
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SLOW = TimeUnit.SECONDS.toNanos(20);
+
+    private static AdmissionControl.Limiter limiter(int limit, int maxLimit, int queue, long waitMillis) {
+        return new AdmissionControl(limit, maxLimit, queue, 100, waitMillis, 10_000, 1, ImmutableSet.of("poll"))
+            .limiter("deck/shuffle");
+    }
+
+    private static void awaitWaiting(CompletableFuture<Admission> waiter) throws Exception {
+        Thread.sleep(50);
+        assertFalse("should still be waiting", waiter.isDone());
+    }
+
+    @Test public void queuesOverTheLimitAndShedsWhenTheQueueIsFull() throws Exception {
+        final AdmissionControl.Limiter limiter = limiter(2, 2, 1, 5_000);
+        assertEquals(Admission.ADMITTED, limiter.acquire());
+        assertEquals(Admission.ADMITTED, limiter.acquire());
+
+        final CompletableFuture<Admission> waiter = CompletableFuture.supplyAsync(limiter::acquire);
+        awaitWaiting(waiter);
+        assertEquals("the queue is full", Admission.SHED, limiter.acquire());
+
+        limiter.release(FAST, false);
+        assertEquals(Admission.QUEUED, waiter.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test public void capsWaitersAcrossRoutes() throws Exception {
+        final AdmissionControl admission =
+            new AdmissionControl(1, 1, 10, 1, 5_000, 10_000, 1, ImmutableSet.of("poll"));
+        final AdmissionControl.Limiter shuffle = admission.limiter("deck/shuffle");
+        final AdmissionControl.Limiter describe = admission.limiter("deck/describe");
+        assertEquals(Admission.ADMITTED, shuffle.acquire());
+        assertEquals(Admission.ADMITTED, describe.acquire());
+
+        final CompletableFuture<Admission> waiter = CompletableFuture.supplyAsync(shuffle::acquire);
+        awaitWaiting(waiter);
+        assertEquals("another route's request is already waiting", Admission.SHED, describe.acquire());
+
+        shuffle.release(FAST, false);
+        assertEquals(Admission.QUEUED, waiter.get(5, TimeUnit.SECONDS));
+        describe.release(FAST, false);
+        final CompletableFuture<Admission> next = CompletableFuture.supplyAsync(describe::acquire);
+        assertEquals(Admission.ADMITTED, next.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test public void shedsOnceTheWaitIsOver() {
+        final AdmissionControl.Limiter limiter = limiter(1, 1, 10, 20);
+        assertEquals(Admission.ADMITTED, limiter.acquire());
+
+        final long start = System.nanoTime();
+        assertEquals(Admission.SHED, limiter.acquire());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    @Test public void newcomersDontJumpTheQueue() throws Exception {
+        final AdmissionControl.Limiter limiter = limiter(1, 1, 10, 5_000);
+        assertEquals(Admission.ADMITTED, limiter.acquire());
+
+        final CompletableFuture<Admission> first = CompletableFuture.supplyAsync(limiter::acquire);
+        awaitWaiting(first);
+        final CompletableFuture<Admission> second = CompletableFuture.supplyAsync(limiter::acquire);
+        awaitWaiting(second);
+
+        limiter.release(FAST, false);
+        assertEquals(Admission.QUEUED, first.get(5, TimeUnit.SECONDS));
+        awaitWaiting(second);
+
+        limiter.release(FAST, false);
+        assertEquals(Admission.QUEUED, second.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test public void limitGrowsAdditivelyAndShrinksMultiplicatively() {
+        final AdmissionControl.Limiter limiter = limiter(10, 12, 0, 0);
+        for(int i = 0; i < 10; i++) {
+            assertEquals(Admission.ADMITTED, limiter.acquire());
+        }
+        for(int i = 0; i < 100; i++) { // keep the limit in use
+            limiter.release(FAST, false);
+            limiter.acquire();
+        }
+        assertEquals(12, limiter.limit());
+
+        limiter.release(SLOW, false);
+        assertEquals(10, limiter.limit());
+        limiter.release(SLOW, false);
+        limiter.release(FAST, true);
+        assertEquals("shrinks at most once per latency target", 10, limiter.limit());
+    }
+
+    @Test public void idleRoutesDontGrow() {
+        final AdmissionControl.Limiter limiter = limiter(10, 100, 0, 0);
+        for(int i = 0; i < 100; i++) {
+            limiter.acquire();
+            limiter.release(FAST, false);
+        }
+        assertEquals(10, limiter.limit());
+    }
+
+    @Test public void unlimitedRoutesHaveNoLimiter() {
+        final AdmissionControl admission = new AdmissionControl(1, 1, 0, 0, 0, 100, 1, ImmutableSet.of("poll"));
+        assertNull(admission.limiter("poll"));
+        assertNotNull(admission.limiter("deck/describe"));
+    }
+}
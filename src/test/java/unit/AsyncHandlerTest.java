@@ -0,0 +1,101 @@
+package unit;
+
+import org.junit.Test;
+import shuffle.adapters.driver.HandlerExecutors;
+import shuffle.adapters.store.InMemoryStore;
+import shuffle.core.DeckHandlers;
+import shuffle.ports.ActionHandler;
+import shuffle.ports.ActionHandler.Result;
+import shuffle.ports.ActionHandler.Status;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static unit.TestDecks.createRequest;
+
+/*
+ * @author Drew Fead
+ */
+public class AsyncHandlerTest {
+
+    @Test public void handlersRunOnTheExecutor() throws Exception {
+        final DeckHandlers handlers = new DeckHandlers(new InMemoryStore(), 10);
+        final ExecutorService pool = HandlerExecutors.bounded(2, 2);
+        try {
+            final Result created = handlers.CREATE.handleAsync("id", createRequest("async"), pool).get();
+            assertEquals(Status.SUCCESS, created.status());
+            assertEquals(Status.SUCCESS, handlers.DESCRIBE.handleAsync("id", "async".getBytes(), pool).get().status());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test public void failuresCompleteTheFuture() throws Exception {
+        final ActionHandler broken = (requestId, bytes) -> { throw new IllegalStateException("broken"); };
+        final ExecutorService pool = HandlerExecutors.bounded(1, 1);
+        try {
+            broken.handleAsync("id", new byte[0], pool).get();
+            fail("expected the handler's exception");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test public void boundedPoolRejectsWhenFull() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final ActionHandler blocked = (requestId, bytes) -> {
+            release.await();
+            return DeckHandlers.deckResult("done");
+        };
+
+        final ExecutorService pool = HandlerExecutors.bounded(1, 1);
+        try {
+            final CompletableFuture<Result> running = blocked.handleAsync("1", new byte[0], pool);
+            final CompletableFuture<Result> queued = blocked.handleAsync("2", new byte[0], pool);
+            try {
+                blocked.handleAsync("3", new byte[0], pool);
+                fail("expected a full pool to reject");
+            } catch (RejectedExecutionException expected) {
+            }
+
+            release.countDown();
+            assertEquals(Status.SUCCESS, running.get(5, TimeUnit.SECONDS).status());
+            assertEquals(Status.SUCCESS, queued.get(5, TimeUnit.SECONDS).status());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test public void asyncHandlersNeedNoExecutor() throws Exception {
+        final ActionHandler.Async async = (requestId, bytes) ->
+            CompletableFuture.completedFuture(DeckHandlers.deckResult(requestId));
+
+        assertEquals("\"id\"", new String(async.handleAsync("id", new byte[0], null).get().payload()));
+        assertEquals("\"id\"", new String(async.handle("id", new byte[0]).payload()));
+
+        final ActionHandler.Async failing = (requestId, bytes) -> {
+            final CompletableFuture<Result> out = new CompletableFuture<>();
+            out.completeExceptionally(new IllegalArgumentException("bad"));
+            return out;
+        };
+        try {
+            failing.handle("id", new byte[0]);
+            fail("expected the future's exception");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test public void autoAlwaysPicksAnExecutor() throws Exception {
+        final ExecutorService executor = HandlerExecutors.of(HandlerExecutors.Mode.AUTO, 1, 1);
+        assertNotNull(executor);
+        executor.shutdown();
+        assertNull(HandlerExecutors.of(HandlerExecutors.Mode.JETTY, 1, 1));
+    }
+}
@@ -1,8 +1,12 @@
 package unit;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -10,18 +14,33 @@ import shuffle.adapters.store.InMemoryStore;
 import shuffle.core.Card;
 import shuffle.core.Deck;
 import shuffle.core.DeckHandlers;
+import shuffle.core.DeckOrdinals;
+import shuffle.core.RandomSource;
+import shuffle.core.ResponseCache;
 import shuffle.ports.ActionHandler;
+import shuffle.ports.ActionHandler.Format;
 import shuffle.ports.ActionHandler.Result;
 import shuffle.ports.ActionHandler.Status;
 import shuffle.ports.DeckStore;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
+import static unit.TestDecks.createRequest;
 
 /*
  * @author Drew Fead
@@ -55,7 +74,7 @@ public class DeckTest {
 
     @Test public void create() throws Exception { // put
         final String name = RandomStringUtils.randomAlphanumeric(10, 100); // tune the max here to spec
-        final Result result = handlers.CREATE.handle("test-create", name.getBytes());
+        final Result result = handlers.CREATE.handle("test-create", createRequest(name));
 
         final Deck deck = mapper.readValue(result.payload(), Deck.class);
         assertEquals(Status.SUCCESS, result.status());
@@ -76,10 +95,59 @@ public class DeckTest {
         }
     }
 
+    @Test public void createBulk() throws Exception { // post
+        final DeckHandlers.BulkCreateRequest req = new DeckHandlers.BulkCreateRequest();
+        req.names = new ArrayList<>();
+        for(int i = 0; i < 2500; i++) { // spans several batches
+            req.names.add("bulk-test-" + i);
+        }
+
+        final Result counted = handlers.CREATE_BULK.handle("test-create-bulk", mapper.writeValueAsBytes(req));
+        assertEquals(Status.SUCCESS, counted.status());
+        assertEquals(2500, mapper.readTree(counted.payload()).get("created").asInt());
+        for(String name : req.names) {
+            assertDeckOk(deckStore.findOne(name).orElse(null));
+        }
+
+        req.names = req.names.subList(0, 3);
+        req.echo = true;
+        final Result echoed = handlers.CREATE_BULK.handle("test-create-bulk", mapper.writeValueAsBytes(req));
+
+        final List<Deck> decks = mapper.readValue(echoed.payload(), new TypeReference<List<Deck>>() {});
+        assertEquals(Status.SUCCESS, echoed.status());
+        assertEquals(3, decks.size());
+        for(int i = 0; i < 3; i++) {
+            assertEquals(req.names.get(i), decks.get(i).name());
+            assertDeckOk(decks.get(i));
+        }
+
+        req.names = new ArrayList<>(req.names);
+        req.names.add(" ");
+        final Result rejected = handlers.CREATE_BULK.handle("test-create-bulk", mapper.writeValueAsBytes(req));
+        assertEquals(Status.REJECTED, rejected.status());
+    }
+
+    @Test public void longNamesAreRejected() throws Exception {
+        final String longest = StringUtils.repeat('\u00e9', Deck.MAX_NAME_BYTES / 2); // two bytes each in UTF-8
+        final Result created = handlers.CREATE.handle("test-long", createRequest(longest));
+        assertEquals(Status.SUCCESS, created.status());
+
+        final String tooLong = longest + "x";
+        final Result rejected = handlers.CREATE.handle("test-long", createRequest(tooLong));
+        assertEquals(Status.REJECTED, rejected.status());
+        assertFalse(deckStore.findOne(tooLong).isPresent());
+
+        final DeckHandlers.BulkCreateRequest req = new DeckHandlers.BulkCreateRequest();
+        req.names = Arrays.asList("bulk-long-ok", StringUtils.repeat('x', 70_000));
+        final Result bulk = handlers.CREATE_BULK.handle("test-long", mapper.writeValueAsBytes(req));
+        assertEquals(Status.REJECTED, bulk.status());
+        assertFalse("no deck is written if any name is bad", deckStore.findOne("bulk-long-ok").isPresent());
+    }
+
     @Test public void shuffle() throws Exception { // post
         final String name = "shuffle-test";
         final Deck old = mapper.readValue(
-            handlers.CREATE.handle("pre-insert-shuffle", name.getBytes()).payload(),
+            handlers.CREATE.handle("pre-insert-shuffle", createRequest(name)).payload(),
             Deck.class);
 
         final DeckHandlers.ShuffleRequest req = new DeckHandlers.ShuffleRequest();
@@ -118,7 +186,7 @@ public class DeckTest {
     @Test public void randomize() throws Exception { // post
         final String name = "randomize-test";
         final Deck old = mapper.readValue(
-                handlers.CREATE.handle("pre-insert-randomize", name.getBytes()).payload(),
+                handlers.CREATE.handle("pre-insert-randomize", createRequest(name)).payload(),
                 Deck.class);
 
         final DeckHandlers.ShuffleRequest req = new DeckHandlers.ShuffleRequest();
@@ -154,10 +222,39 @@ public class DeckTest {
         assertTrue("deck was not shuffled", foundDifference);
     }
 
+    @Test public void batchShuffle() throws Exception { // post
+        final List<String> names = new ArrayList<>();
+        for(int i = 0; i < 20; i++) {
+            names.add("batch-test-" + i);
+            handlers.CREATE.handle("pre-insert-batch", createRequest(names.get(i)));
+        }
+        names.add("batch-test-missing");
+
+        final DeckHandlers.BatchShuffleRequest req = new DeckHandlers.BatchShuffleRequest();
+        req.names = names;
+
+        final ActionHandler batch = DeckHandlers.batch(handlers.SHUFFLE, new ForkJoinPool(4));
+        final Result result = batch.handle("test-batch", mapper.writeValueAsBytes(req));
+        assertEquals(Status.SUCCESS, result.status());
+
+        final JsonNode entries = mapper.readTree(result.payload());
+        assertEquals(names.size(), entries.size());
+        for(int i = 0; i < 20; i++) {
+            final JsonNode entry = entries.get(i);
+            assertEquals(names.get(i), entry.get("name").asText());
+            assertEquals("SUCCESS", entry.get("status").asText());
+
+            final Deck deck = mapper.treeToValue(entry.get("result"), Deck.class);
+            assertDeckOk(deck);
+            assertEquals(2, deckStore.findOne(names.get(i)).get().version());
+        }
+        assertEquals("FAILED", entries.get(20).get("status").asText());
+    }
+
     @Test public void describe() throws Exception { // get
         final String name = "describe-test";
         final Deck old = mapper.readValue(
-                handlers.CREATE.handle("pre-insert-describe", name.getBytes()).payload(),
+                handlers.CREATE.handle("pre-insert-describe", createRequest(name)).payload(),
                 Deck.class);
 
         final Result result = handlers.DESCRIBE.handle("test-describe", name.getBytes());
@@ -176,12 +273,86 @@ public class DeckTest {
         }
     }
 
+    @Test public void describeAfterShuffle() throws Exception { // get
+        final String name = "describe-cache-test";
+        handlers.CREATE.handle("pre-insert-describe-cache", createRequest(name));
+        final byte[] first = handlers.DESCRIBE.handle("test-describe-cache", name.getBytes()).payload();
+        assertArrayEquals(first, handlers.DESCRIBE.handle("test-describe-cache", name.getBytes()).payload());
+
+        final DeckHandlers.ShuffleRequest req = new DeckHandlers.ShuffleRequest();
+        req.name = name;
+        final byte[] shuffled = handlers.SHUFFLE.handle("test-describe-cache", mapper.writeValueAsBytes(req)).payload();
+
+        final byte[] described = handlers.DESCRIBE.handle("test-describe-cache", name.getBytes()).payload();
+        assertArrayEquals("describe should see the shuffle", shuffled, described);
+        assertFalse(Arrays.equals(first, described));
+    }
+
+    @Test public void describeCacheNeverServesADeletedDeck() throws Exception {
+        final ResponseCache cache = new ResponseCache(DeckHandlers.DEFAULT_CACHE_BYTES);
+        final DeckHandlers cached = new DeckHandlers(deckStore, 2, cache, RandomSource.threadLocal());
+        final String name = "recreated";
+        cached.CREATE.handle("test-recreate", createRequest(name));
+        final byte[] old = cached.DESCRIBE.handle("test-recreate", name.getBytes()).payload();
+        final long oldVersion = deckStore.findOne(name).get().version();
+
+        cached.DELETE.handle("test-recreate", name.getBytes());
+        cached.CREATE.handle("test-recreate", createRequest(name));
+        cache.put(name, oldVersion, old); // a describe of the old deck that lost the race with the invalidations
+
+        final Deck described = mapper.readValue(cached.DESCRIBE.handle("test-recreate", name.getBytes()).payload(),
+            Deck.class);
+        assertTrue(described.version() > oldVersion);
+        assertArrayEquals(deckStore.findOne(name).get().ordinals(), described.ordinals());
+    }
+
+    @Test public void binaryFormats() throws Exception {
+        final String name = "formats-test";
+        handlers.CREATE.handle("pre-insert-formats", createRequest(name));
+        final Deck stored = deckStore.findOne(name).get();
+
+        final Result described = handlers.DESCRIBE.handle("test-formats", name.getBytes());
+        assertTrue(described.supports(Format.ORDINALS));
+        assertArrayEquals(stored.ordinals(), described.payload(Format.ORDINALS));
+        assertEquals(Card.COUNT, described.payload(Format.ORDINALS).length);
+
+        final ObjectMapper smile = new ObjectMapper(new SmileFactory());
+        assertEquals(mapper.readTree(described.payload()), smile.readTree(described.payload(Format.SMILE)));
+        final ObjectMapper cbor = new ObjectMapper(new CBORFactory());
+        assertEquals(mapper.readTree(described.payload()), cbor.readTree(described.payload(Format.CBOR)));
+
+        final DeckHandlers.ListDecksRequest req = new DeckHandlers.ListDecksRequest();
+        req.pageSize = 10;
+        final Result listed = handlers.LIST.handle("test-formats", mapper.writeValueAsBytes(req));
+        final List<Deck> decks = DeckOrdinals.readAll(new ByteArrayInputStream(listed.payload(Format.ORDINALS)));
+        assertEquals(1, decks.size());
+        assertEquals(name, decks.get(0).name());
+        assertArrayEquals(stored.ordinals(), decks.get(0).ordinals());
+
+        final Result missing = handlers.DESCRIBE.handle("test-formats", "no-such-deck".getBytes());
+        assertFalse("errors have no ordinals form", missing.supports(Format.ORDINALS));
+        assertEquals(mapper.readTree(missing.payload()), smile.readTree(missing.payload(Format.SMILE)));
+    }
+
+    @Test public void ordinalsRefuseNamesTheyCantCount() throws Exception {
+        final Deck deck = new Deck();
+        deck.setName(StringUtils.repeat('x', 0x10000));
+        deck.setOrdinals(new byte[] {0, 1, 2});
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            DeckOrdinals.write(new DataOutputStream(out), deck);
+            fail("expected the name to be refused");
+        } catch (IllegalArgumentException expected) {
+            assertEquals("nothing should be written", 0, out.size());
+        }
+    }
+
     @Test public void list() throws Exception { // post
         final String name1 = "list-test-1";
-        handlers.CREATE.handle("pre-insert-list", name1.getBytes());
+        handlers.CREATE.handle("pre-insert-list", createRequest(name1));
 
         final String name2 = "list-test-2";
-        handlers.CREATE.handle("pre-insert-list", name2.getBytes());
+        handlers.CREATE.handle("pre-insert-list", createRequest(name2));
 
         final DeckHandlers.ListDecksRequest req = new DeckHandlers.ListDecksRequest();
         req.pageSize = 1;
@@ -200,9 +371,54 @@ public class DeckTest {
         assertDeckOk(deck);
     }
 
+    @Test public void listAfter() throws Exception { // post
+        for(String name : new String[] {"keyset-c", "keyset-a", "keyset-b"}) {
+            handlers.CREATE.handle("pre-insert-list-after", createRequest(name));
+        }
+
+        final DeckHandlers.ListDecksRequest req = new DeckHandlers.ListDecksRequest();
+        req.pageSize = 2;
+        req.after = "keyset-a";
+
+        final Result result = handlers.LIST.handle("test-list-after", mapper.writeValueAsBytes(req));
+
+        final List<Deck> decks = mapper.readValue(result.payload(), new TypeReference<List<Deck>>() {});
+        assertEquals(Status.SUCCESS, result.status());
+        assertEquals(2, decks.size());
+        assertEquals("keyset-b", decks.get(0).name());
+        assertEquals("keyset-c", decks.get(1).name());
+
+        handlers.DELETE.handle("test-list-after", "keyset-b".getBytes());
+        final List<Deck> afterDelete = deckStore.findPageAfter(null, 5);
+        assertEquals(2, afterDelete.size());
+        assertEquals("keyset-a", afterDelete.get(0).name());
+        assertEquals("keyset-c", afterDelete.get(1).name());
+    }
+
+    @Test public void export() throws Exception { // get
+        final int count = 300; // more than one batch
+        for(int i = 0; i < count; i++) {
+            handlers.CREATE.handle("pre-insert-export", createRequest(String.format("export-%03d", i)));
+        }
+
+        final Result result = handlers.EXPORT.handle("test-export", new byte[0]);
+        assertTrue(result instanceof ActionHandler.StreamingResult);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        result.writeTo(out);
+
+        final List<Deck> decks = mapper.readValue(out.toByteArray(), new TypeReference<List<Deck>>() {});
+        assertEquals(Status.SUCCESS, result.status());
+        assertEquals(count, decks.size());
+        for(int i = 0; i < count; i++) {
+            assertEquals(String.format("export-%03d", i), decks.get(i).name());
+            assertDeckOk(decks.get(i));
+        }
+    }
+
     @Test public void delete() throws Exception { // delete
         final String name = "delete-test";
-        handlers.CREATE.handle("pre-insert-delete", name.getBytes());
+        handlers.CREATE.handle("pre-insert-delete", createRequest(name));
 
         final Result result = handlers.DELETE.handle("test-delete", name.getBytes());
 
@@ -215,10 +431,10 @@ public class DeckTest {
 
     @Test public void upsertOverwrites() throws Exception {
         final String name1 = "overwrite-test-1";
-        handlers.CREATE.handle("pre-insert-overwrite", name1.getBytes());
+        handlers.CREATE.handle("pre-insert-overwrite", createRequest(name1));
 
         final String name2 = name1; // same name should overwrite
-        handlers.CREATE.handle("pre-insert-overwrite", name2.getBytes());
+        handlers.CREATE.handle("pre-insert-overwrite", createRequest(name2));
 
         final DeckHandlers.ListDecksRequest req = new DeckHandlers.ListDecksRequest();
         req.pageSize = 1;
@@ -236,4 +452,51 @@ public class DeckTest {
         assertEquals(name2, deck.name());
         assertDeckOk(deck);
     }
+
+    @Test public void packedCards() throws Exception {
+        final String name = "packed-test";
+        final Deck created = mapper.readValue(
+                handlers.CREATE.handle("pre-insert-packed", createRequest(name)).payload(),
+                Deck.class);
+
+        final Deck persisted = deckStore.findOne(name).orElse(null);
+        assertNotNull(persisted);
+        assertEquals(52, persisted.ordinals().length);
+
+        for(int i = 0; i < 52; i++) {
+            final Card card = persisted.cards().get(i);
+            assertSame("cards should be shared flyweights", Card.of(card.suit(), card.value()), card);
+            assertSame(card, created.cards().get(i));
+            assertEquals(card.ordinal(), persisted.ordinals()[i]);
+        }
+    }
+
+    @Test public void concurrentShufflesKeepEveryUpdate() throws Exception {
+        final String name = "concurrent-test";
+        handlers.CREATE.handle("pre-insert-concurrent", createRequest(name));
+
+        final DeckHandlers.ShuffleRequest req = new DeckHandlers.ShuffleRequest();
+        req.name = name;
+        final byte[] json = mapper.writeValueAsBytes(req);
+
+        final int threads = 8;
+        final int shufflesPerThread = 250;
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final List<Future<?>> futures = new ArrayList<>();
+        for(int t = 0; t < threads; t++) {
+            futures.add(pool.submit(() -> {
+                for(int i = 0; i < shufflesPerThread; i++) {
+                    assertEquals(Status.SUCCESS, handlers.RANDOMIZE.handle("test-concurrent", json).status());
+                }
+                return null;
+            }));
+        }
+        for(Future<?> f : futures) { f.get(); }
+        pool.shutdown();
+
+        final Deck persisted = deckStore.findOne(name).orElse(null);
+        assertNotNull(persisted);
+        assertEquals("no update should be lost", 1 + threads * shufflesPerThread, persisted.version());
+        assertDeckOk(persisted);
+    }
 }
@@ -0,0 +1,120 @@
+package unit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import shuffle.adapters.store.InMemoryStore;
+import shuffle.core.Card;
+import shuffle.core.Deck;
+import shuffle.core.DeckHandlers;
+import shuffle.core.RandomSource;
+import shuffle.core.ResponseCache;
+import shuffle.ports.ActionHandler;
+import shuffle.ports.ActionHandler.Format;
+import shuffle.ports.ActionHandler.Status;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import static unit.TestDecks.createRequest;
+
+/*
+ * @author Drew Fead
+ */
+public class DrawTest {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final InMemoryStore store = new InMemoryStore();
+    private final DeckHandlers handlers =
+        new DeckHandlers(store, 10, new ResponseCache(1 << 20), RandomSource.threadLocal());
+
+    private static byte[] json(String json) {
+        return json.replace('\'', '"').getBytes();
+    }
+
+    private static JsonNode streamed(ActionHandler.Result result) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((ActionHandler.StreamingResult) result).writeTo(out);
+        return mapper.readTree(out.toByteArray());
+    }
+
+    @Test public void drawsFromTheTop() throws Exception {
+        handlers.CREATE.handle("draw", createRequest("top"));
+        final byte[] created = store.findOne("top").get().ordinals().clone();
+
+        final ActionHandler.Result drawn = handlers.DRAW.handle("draw", json("{'name':'top','count':5}"));
+        assertEquals(Status.SUCCESS, drawn.status());
+        assertArrayEquals(Arrays.copyOfRange(created, 0, 5), drawn.payload(Format.ORDINALS));
+
+        final Deck stored = store.findOne("top").get();
+        assertEquals(2, stored.version());
+        assertEquals(5, stored.head());
+        assertArrayEquals("the cards stay where they are", created, stored.ordinals());
+
+        final JsonNode described = mapper.readTree(handlers.DESCRIBE.handle("draw", "top".getBytes()).payload());
+        assertEquals(5, described.get("drawn").asInt());
+        assertEquals(Card.COUNT - 5, described.get("cards").size());
+        assertArrayEquals(Arrays.copyOfRange(created, 5, Card.COUNT),
+            handlers.DESCRIBE.handle("draw", "top".getBytes()).payload(Format.ORDINALS));
+
+        final JsonNode one = mapper.readTree(handlers.DRAW.handle("draw", json("{'name':'top'}")).payload());
+        assertEquals(1, one.get("cards").size());
+        assertEquals(6, store.findOne("top").get().head());
+    }
+
+    @Test public void rejectsDrawingMoreThanIsLeft() throws Exception {
+        handlers.CREATE.handle("draw", createRequest("short"));
+        handlers.DRAW.handle("draw", json("{'name':'short','count':50}"));
+
+        final ActionHandler.Result over = handlers.DRAW.handle("draw", json("{'name':'short','count':3}"));
+        assertEquals(Status.REJECTED, over.status());
+        assertTrue(new String(over.payload()).contains("only 2 cards left"));
+        assertEquals(2, store.findOne("short").get().version());
+
+        assertEquals(Status.REJECTED, handlers.DRAW.handle("draw", json("{'name':'short','count':0}")).status());
+        assertEquals(Status.FAILED, handlers.DRAW.handle("draw", json("{'name':'missing'}")).status());
+    }
+
+    @Test public void dealsRoundTheTable() throws Exception {
+        handlers.CREATE.handle("deal", createRequest("table"));
+        final byte[] created = store.findOne("table").get().ordinals().clone();
+
+        final JsonNode hands = streamed(handlers.DEAL.handle("deal", json("{'name':'table','hands':4,'cards':5}")));
+        assertEquals(4, hands.size());
+        for(int h = 0; h < 4; h++) {
+            final JsonNode hand = hands.get(h);
+            assertEquals("table/" + (h + 1), hand.get("name").asText());
+            assertEquals(5, hand.get("cards").size());
+            for(int c = 0; c < 5; c++) {
+                final Card card = Card.of(created[c * 4 + h]);
+                assertEquals(card.suit().name(), hand.get("cards").get(c).get("suit").asText());
+            }
+        }
+        assertEquals(20, store.findOne("table").get().head());
+
+        assertEquals(Status.REJECTED,
+            handlers.DEAL.handle("deal", json("{'name':'table','hands':8,'cards':5}")).status());
+        assertEquals(Status.REJECTED,
+            handlers.DEAL.handle("deal", json("{'name':'table','hands':65536,'cards':65536}")).status());
+        assertEquals(Status.REJECTED,
+            handlers.DEAL.handle("deal", json("{'name':'table','hands':0,'cards':5}")).status());
+        assertEquals(20, store.findOne("table").get().head());
+    }
+
+    @Test public void shufflingGathersDrawnCardsBack() throws Exception {
+        handlers.CREATE.handle("draw", createRequest("gather"));
+        handlers.DRAW.handle("draw", json("{'name':'gather','count':10}"));
+        handlers.SHUFFLE.handle("draw", json("{'name':'gather'}"));
+
+        final Deck shuffled = store.findOne("gather").get();
+        assertEquals(0, shuffled.head());
+        DeckTest.assertDeckOk(shuffled);
+
+        final DeckHandlers lazy = new DeckHandlers(store, 10, new ResponseCache(0), RandomSource.threadLocal(), 4);
+        lazy.DRAW.handle("draw", json("{'name':'gather','count':10}"));
+        lazy.RANDOMIZE.handle("draw", json("{'name':'gather'}"));
+        assertEquals(0, store.findOne("gather").get().head());
+        assertEquals(Card.COUNT, store.findOne("gather").get().cards().size());
+    }
+}
@@ -0,0 +1,111 @@
+package unit;
+
+import org.junit.Test;
+import shuffle.adapters.monitor.HistogramMonitor;
+import shuffle.adapters.monitor.LatencyHistogram;
+import shuffle.ports.ActionHandler;
+import shuffle.ports.Monitor.Admission;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/*
+ * @author Drew Fead
+ */
+public class HistogramMonitorTest {
+
+    private static void assertClose(long expected, long actual) {
+        assertTrue(String.format("expected about %s but was %s", expected, actual),
+            actual >= expected && actual <= expected + expected / 50);
+    }
+
+    @Test public void percentiles() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for(long v = 1; v <= 100_000; v++) {
+            histogram.record(v * 1000);
+        }
+
+        final LatencyHistogram.Snapshot s = histogram.snapshot();
+        assertEquals(100_000, s.count());
+        assertEquals(100_000_000L, s.max());
+        assertClose(50_000_000L, s.percentile(50));
+        assertClose(99_000_000L, s.percentile(99));
+        assertClose(99_900_000L, s.percentile(99.9));
+        assertEquals(100_000_000L, s.percentile(100));
+    }
+
+    @Test public void smallValuesAreExact() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for(long v = 0; v < 100; v++) {
+            histogram.record(v);
+        }
+
+        assertEquals(49, histogram.snapshot().percentile(50));
+        assertEquals(0, new LatencyHistogram().snapshot().percentile(99));
+    }
+
+    @Test public void extremes() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(0, histogram.snapshot().percentile(50));
+        assertEquals(Long.MAX_VALUE, histogram.snapshot().percentile(100));
+    }
+
+    @Test public void concurrentRecording() throws Exception {
+        final HistogramMonitor monitor = new HistogramMonitor();
+        final ExecutorService pool = Executors.newFixedThreadPool(8);
+        final List<Future<?>> futures = new ArrayList<>();
+        for(int t = 0; t < 8; t++) {
+            futures.add(pool.submit(() -> {
+                for(int i = 0; i < 10_000; i++) {
+                    monitor.logRequest("id", "deck/shuffle", i % 10 == 0? 500 : 200, i);
+                }
+                return null;
+            }));
+        }
+        for(Future<?> f : futures) { f.get(); }
+        pool.shutdown();
+
+        final Map<String, Map<String, Object>> shuffle = monitor.report().get("deck/shuffle");
+        assertEquals(72_000L, shuffle.get("200").get("count"));
+        assertEquals(8_000L, shuffle.get("500").get("count"));
+    }
+
+    @Test public void metricsEndpoint() throws Exception {
+        final HistogramMonitor monitor = new HistogramMonitor();
+        monitor.logRequest("id", "deck/describe", 200, 1_500_000);
+
+        final ActionHandler metrics = monitor.metrics().orElse(null);
+        assertNotNull(metrics);
+
+        final ActionHandler.Result result = metrics.handle("id", new byte[0]);
+        assertEquals(ActionHandler.Status.SUCCESS, result.status());
+        final String json = new String(result.payload(), "UTF-8");
+        assertTrue(json, json.contains("\"deck/describe\":{\"200\":{\"count\":1,"));
+        assertTrue(json, json.contains("\"p99.9\":"));
+    }
+
+    @Test public void countsAdmissionDecisions() throws Exception {
+        final HistogramMonitor monitor = new HistogramMonitor();
+        monitor.logAdmission("1", "deck/shuffle", Admission.ADMITTED, 10, 0);
+        monitor.logAdmission("2", "deck/shuffle", Admission.QUEUED, 10, 5_000_000);
+        monitor.logAdmission("3", "deck/shuffle", Admission.SHED, 9, 50_000_000);
+        monitor.logRequest("3", "deck/shuffle", 503, 51_000_000);
+
+        final Map<String, Object> admission = monitor.report().get("deck/shuffle").get("admission");
+        assertEquals(1L, admission.get("admitted"));
+        assertEquals(1L, admission.get("queued"));
+        assertEquals(1L, admission.get("shed"));
+        assertEquals(9, admission.get("limit"));
+        assertClose(5_000_000L, (Long) admission.get("max"));
+        assertNotNull(monitor.report().get("deck/shuffle").get("503"));
+    }
+}
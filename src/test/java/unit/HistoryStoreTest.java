@@ -0,0 +1,146 @@
+package unit;
+
+import org.junit.Test;
+import shuffle.adapters.store.DeckDeltas;
+import shuffle.adapters.store.HistoryStore;
+import shuffle.adapters.store.InMemoryStore;
+import shuffle.core.Card;
+import shuffle.core.Deck;
+import shuffle.core.DeckHandlers;
+import shuffle.ports.ActionHandler;
+import shuffle.ports.ActionHandler.Status;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static unit.TestDecks.createRequest;
+
+/*
+ * @author Drew Fead
+ */
+public class HistoryStoreTest {
+
+    private static byte[] shuffled(Random random, int size) {
+        final byte[] cards = new byte[size];
+        for(int i = 0; i < size; i++) {
+            cards[i] = (byte) (i % Card.COUNT);
+        }
+        for(int i = size - 1; i > 0; i--) {
+            final int j = random.nextInt(i + 1);
+            final byte t = cards[i]; cards[i] = cards[j]; cards[j] = t;
+        }
+
+        return cards;
+    }
+
+    private static Deck deck(String name, byte[] cards) {
+        final Deck deck = new Deck();
+        deck.setName(name);
+        deck.setOrdinals(cards);
+        return deck;
+    }
+
+    private static byte[] shuffleBody(String name) {
+        return ("{\"name\":\"" + name + "\"}").getBytes();
+    }
+
+    private static byte[] versionBody(String name, long version) {
+        return ("{\"name\":\"" + name + "\",\"version\":" + version + "}").getBytes();
+    }
+
+    @Test public void deltasRoundTrip() {
+        final Random random = new Random(21);
+        for(int size : new int[] {1, 2, 52, 104, 416}) { // including shoes, where cards repeat
+            for(int i = 0; i < 50; i++) {
+                final byte[] older = shuffled(random, size), newer = shuffled(random, size);
+                assertArrayEquals(older, DeckDeltas.apply(newer, DeckDeltas.diff(older, newer)));
+            }
+        }
+
+        final byte[] older = shuffled(random, Card.COUNT), newer = older.clone();
+        final byte t = newer[3]; newer[3] = newer[40]; newer[40] = t;
+        final byte[] swap = DeckDeltas.diff(older, newer);
+        assertEquals(DeckDeltas.SPARSE, swap[0]);
+        assertArrayEquals(older, DeckDeltas.apply(newer, swap));
+
+        final byte[] dealt = Arrays.copyOf(older, 47);
+        assertArrayEquals(older, DeckDeltas.apply(dealt, DeckDeltas.diff(older, dealt)));
+    }
+
+    @Test public void shuffleDeltasAreSmallerThanCopies() {
+        final Random random = new Random(7);
+        final byte[] delta = DeckDeltas.diff(shuffled(random, Card.COUNT), shuffled(random, Card.COUNT));
+        assertEquals(DeckDeltas.RANKED, delta[0]);
+        assertTrue("took " + delta.length + " bytes", delta.length <= 36);
+    }
+
+    @Test public void describesAndRevertsEarlierVersions() throws Exception {
+        final HistoryStore store = new HistoryStore(new InMemoryStore(), 100, Long.MAX_VALUE);
+        final DeckHandlers handlers = new DeckHandlers(store, 10);
+
+        assertEquals(Status.SUCCESS, handlers.CREATE.handle("history", createRequest("audited")).status());
+        final List<byte[]> versions = new ArrayList<>();
+        versions.add(store.findOne("audited").get().ordinals().clone());
+        for(int i = 0; i < 20; i++) {
+            final ActionHandler shuffle = i % 2 == 0? handlers.SHUFFLE : handlers.RANDOMIZE;
+            assertEquals(Status.SUCCESS, shuffle.handle("history", shuffleBody("audited")).status());
+            versions.add(store.findOne("audited").get().ordinals().clone());
+        }
+
+        for(int v = 1; v <= versions.size(); v++) {
+            final Deck found = store.findVersion("audited", v).get();
+            assertEquals(v, found.version());
+            assertArrayEquals("version " + v, versions.get(v - 1), found.ordinals());
+        }
+        assertFalse(store.findVersion("audited", versions.size() + 1).isPresent());
+
+        assertEquals(Status.SUCCESS, handlers.VERSION.handle("history", versionBody("audited", 5)).status());
+        assertEquals(Status.SUCCESS, handlers.REVERT.handle("history", versionBody("audited", 5)).status());
+        final Deck reverted = store.findOne("audited").get();
+        assertEquals(versions.size() + 1, reverted.version());
+        assertArrayEquals(versions.get(4), reverted.ordinals());
+        assertArrayEquals("history before the revert is kept",
+            versions.get(versions.size() - 1), store.findVersion("audited", versions.size()).get().ordinals());
+
+        assertEquals(Status.FAILED, handlers.VERSION.handle("history", versionBody("missing", 1)).status());
+        assertEquals(Status.REJECTED, handlers.REVERT.handle("history", shuffleBody("audited")).status());
+    }
+
+    @Test public void keepsOnlyRecentVersions() {
+        final HistoryStore store = new HistoryStore(new InMemoryStore(), 3, Long.MAX_VALUE);
+        final Random random = new Random(3);
+        store.upsert(deck("short", shuffled(random, Card.COUNT)));
+        for(int i = 0; i < 10; i++) {
+            store.update("short", deck -> { deck.setOrdinals(shuffled(random, Card.COUNT)); return deck; });
+        }
+
+        assertTrue(store.findVersion("short", 8).isPresent());
+        assertFalse(store.findVersion("short", 7).isPresent());
+    }
+
+    @Test public void staysWithinMemoryBudget() {
+        final long budget = 16 * 1024;
+        final HistoryStore store = new HistoryStore(new InMemoryStore(), 1000, budget);
+        final Random random = new Random(5);
+
+        for(int d = 0; d < 50; d++) {
+            store.upsert(deck("deck-" + d, shuffled(random, Card.COUNT)));
+        }
+        for(int i = 0; i < 5000; i++) {
+            store.update("deck-" + (i % 50), deck -> { deck.setOrdinals(shuffled(random, Card.COUNT)); return deck; });
+            assertTrue(store.bytes() <= budget);
+        }
+
+        final long current = store.findOne("deck-0").get().version();
+        assertTrue("the newest history survives", store.findVersion("deck-0", current - 1).isPresent());
+        assertFalse("the oldest is evicted", store.findVersion("deck-0", 1).isPresent());
+
+        for(int d = 0; d < 50; d++) {
+            store.delete("deck-" + d);
+        }
+        assertFalse(store.findVersion("deck-0", current - 1).isPresent());
+    }
+}
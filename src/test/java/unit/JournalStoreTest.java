@@ -0,0 +1,195 @@
+package unit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import shuffle.adapters.store.JournalStore;
+import shuffle.adapters.store.JournalStore.Sync;
+import shuffle.core.Deck;
+import shuffle.core.DeckHandlers;
+import shuffle.core.RandomSource;
+import shuffle.core.ResponseCache;
+import shuffle.core.ShuffleChain;
+import shuffle.ports.ActionHandler;
+import shuffle.ports.ActionHandler.Status;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+import static unit.TestDecks.createRequest;
+import static unit.TestDecks.deck;
+
+/*
+ * @author Drew Fead
+ */
+public class JournalStoreTest {
+    File directory;
+    JournalStore store;
+
+    private List<File> files(String prefix) {
+        final List<File> out = new ArrayList<>();
+        for(File f : directory.listFiles()) {
+            if(f.getName().startsWith(prefix)) { out.add(f); }
+        }
+
+        return out;
+    }
+
+    @Before public void init() throws Exception {
+        directory = Files.createTempDirectory("journal-store").toFile();
+        store = new JournalStore(directory, Sync.FSYNC, 0, Long.MAX_VALUE);
+    }
+
+    @After public void cleanup() throws Exception {
+        store.close();
+        for(File f : directory.listFiles()) { f.delete(); }
+        directory.delete();
+    }
+
+    @Test public void recoversFromJournal() throws Exception {
+        store.upsert(deck("a", 0));
+        store.upsert(deck("b", 1));
+        store.update("b", d -> { d.setOrdinals(deck("b", 2).ordinals()); return d; });
+        store.delete("a");
+        store.close();
+
+        store = new JournalStore(directory, Sync.FSYNC, 0, Long.MAX_VALUE);
+        assertFalse(store.findOne("a").isPresent());
+        final Deck b = store.findOne("b").orElse(null);
+        assertNotNull(b);
+        assertEquals(2, b.version());
+        assertArrayEquals(deck("b", 2).ordinals(), b.ordinals());
+    }
+
+    @Test public void refusesNamesTooLongToRecord() throws Exception {
+        final String tooLong = StringUtils.repeat('x', Deck.MAX_NAME_BYTES + 1);
+        try {
+            store.upsert(deck(tooLong, 0));
+            fail("the name can't be written with its length");
+        } catch (IllegalArgumentException expected) {
+            assertFalse(store.findOne(tooLong).isPresent());
+        }
+
+        store.upsert(deck("after", 1));
+        store.close();
+        store = new JournalStore(directory, Sync.FSYNC, 0, Long.MAX_VALUE);
+        assertTrue(store.findOne("after").isPresent());
+        assertTrue(store.findPageAfter(null, 10).stream().noneMatch(d -> d.name().equals(tooLong)));
+    }
+
+    @Test public void recreatedDecksDontRepeatVersions() throws Exception {
+        store.upsert(deck("a", 0));
+        store.update("a", d -> d);
+        store.delete("a");
+        store.compact(); // the snapshot no longer holds the deleted deck
+        store.close();
+
+        store = new JournalStore(directory, Sync.FSYNC, 0, Long.MAX_VALUE);
+        assertEquals(3, store.upsert(deck("a", 1)).get().version());
+    }
+
+    @Test public void ignoresTornTail() throws Exception {
+        store.upsert(deck("a", 0));
+        store.close();
+
+        final File segment = files("journal-").get(0);
+        try (FileOutputStream out = new FileOutputStream(segment, true)) {
+            out.write(new byte[] {0, 0, 0, 90, 1, 2, 3}); // a record cut short by a crash
+        }
+
+        store = new JournalStore(directory, Sync.FSYNC, 0, Long.MAX_VALUE);
+        assertArrayEquals(deck("a", 0).ordinals(), store.findOne("a").get().ordinals());
+
+        store.upsert(deck("b", 1)); // goes to a fresh segment, not after the torn record
+        store.close();
+        store = new JournalStore(directory, Sync.FSYNC, 0, Long.MAX_VALUE);
+        assertTrue(store.findOne("b").isPresent());
+    }
+
+    @Test public void compactsIntoSnapshot() throws Exception {
+        for(int i = 0; i < 100; i++) {
+            store.upsert(deck("deck-" + i, i));
+        }
+        for(int i = 0; i < 50; i++) {
+            store.delete("deck-" + i);
+        }
+
+        store.compact();
+        store.upsert(deck("after-compaction", 0));
+
+        assertEquals(1, files("snapshot-").size());
+        assertEquals("only the segment after the snapshot should remain", 1, files("journal-").size());
+
+        store.close();
+        store = new JournalStore(directory, Sync.FSYNC, 0, Long.MAX_VALUE);
+        assertEquals(51, store.findPageAfter(null, 1000).size());
+        assertFalse(store.findOne("deck-0").isPresent());
+        assertArrayEquals(deck("deck-99", 99).ordinals(), store.findOne("deck-99").get().ordinals());
+        assertTrue(store.findOne("after-compaction").isPresent());
+    }
+
+    @Test public void recoversLazyShuffles() throws Exception {
+        final DeckHandlers handlers = new DeckHandlers(store, 10, new ResponseCache(0), RandomSource.threadLocal(), 4);
+        handlers.CREATE.handle("lazy", createRequest("lazy"));
+        for(int i = 0; i < 10; i++) {
+            final ActionHandler shuffle = i % 3 == 0? handlers.SHUFFLE : handlers.RANDOMIZE;
+            assertEquals(Status.SUCCESS, shuffle.handle("lazy", "{\"name\":\"lazy\"}".getBytes()).status());
+        }
+        final Deck before = store.findOne("lazy").get();
+        assertEquals(2, before.pending().length);
+        store.close();
+
+        store = new JournalStore(directory, Sync.FSYNC, 0, Long.MAX_VALUE);
+        final Deck after = store.findOne("lazy").get();
+        assertEquals(before.version(), after.version());
+        assertArrayEquals(before.pending(), after.pending());
+        assertArrayEquals(ShuffleChain.materialize(before).ordinals(), ShuffleChain.materialize(after).ordinals());
+    }
+
+    @Test public void recoversDrawnCards() throws Exception {
+        final DeckHandlers handlers = new DeckHandlers(store, 10);
+        handlers.CREATE.handle("draw", createRequest("drawn"));
+        final byte[] draw = "{\"name\":\"drawn\",\"count\":7}".getBytes();
+        assertEquals(Status.SUCCESS, handlers.DRAW.handle("draw", draw).status());
+        final Deck before = store.findOne("drawn").get();
+        store.close();
+
+        store = new JournalStore(directory, Sync.FSYNC, 0, Long.MAX_VALUE);
+        final Deck after = store.findOne("drawn").get();
+        assertEquals(7, after.head());
+        assertArrayEquals(before.ordinals(), after.ordinals());
+    }
+
+    @Test public void groupCommitsConcurrentWriters() throws Exception {
+        store.close();
+        store = new JournalStore(directory, Sync.FSYNC, 200, Long.MAX_VALUE);
+
+        final int threads = 8;
+        final int writes = 100;
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final List<Future<?>> futures = new ArrayList<>();
+        for(int t = 0; t < threads; t++) {
+            final int thread = t;
+            futures.add(pool.submit(() -> {
+                for(int i = 0; i < writes; i++) {
+                    assertTrue(store.upsert(deck("deck-" + thread + "-" + i, i)).isPresent());
+                }
+                return null;
+            }));
+        }
+        for(Future<?> f : futures) { f.get(); }
+        pool.shutdown();
+
+        store.close();
+        store = new JournalStore(directory, Sync.ASYNC, 0, Long.MAX_VALUE);
+        assertEquals(threads * writes, store.findPageAfter(null, threads * writes + 1).size());
+    }
+}
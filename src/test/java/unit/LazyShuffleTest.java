@@ -0,0 +1,103 @@
+package unit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import shuffle.adapters.store.DeckRecords;
+import shuffle.adapters.store.InMemoryStore;
+import shuffle.core.Card;
+import shuffle.core.Deck;
+import shuffle.core.DeckHandlers;
+import shuffle.core.RandomSource;
+import shuffle.core.ResponseCache;
+import shuffle.core.ShuffleChain;
+import shuffle.ports.ActionHandler;
+import shuffle.ports.ActionHandler.Format;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import static unit.TestDecks.createRequest;
+
+/*
+ * @author Drew Fead
+ */
+public class LazyShuffleTest {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final InMemoryStore store = new InMemoryStore();
+    private final DeckHandlers lazy =
+        new DeckHandlers(store, 10, new ResponseCache(1 << 20), RandomSource.threadLocal(), 8);
+
+    private static byte[] body(String name) {
+        return ("{\"name\":\"" + name + "\"}").getBytes();
+    }
+
+    private byte[] described(String name) throws Exception {
+        return lazy.DESCRIBE.handle("lazy", name.getBytes()).payload(Format.ORDINALS);
+    }
+
+    @Test public void shufflesAreRecordedNotApplied() throws Exception {
+        lazy.CREATE.handle("lazy", createRequest("recorded"));
+        final byte[] created = store.findOne("recorded").get().ordinals();
+
+        final JsonNode reply = mapper.readTree(lazy.RANDOMIZE.handle("lazy", body("recorded")).payload());
+        assertEquals(2, reply.get("version").asLong());
+        assertEquals(1, reply.get("pending").asInt());
+        assertNull("the deck isn't sent back", reply.get("cards"));
+
+        lazy.SHUFFLE.handle("lazy", body("recorded"));
+        final Deck stored = store.findOne("recorded").get();
+        assertArrayEquals("the cards are untouched", created, stored.ordinals());
+        assertEquals(ShuffleChain.HAND, stored.pending()[1]);
+
+        final byte[] expected = created.clone();
+        for(long shuffle : stored.pending()) {
+            ShuffleChain.apply(shuffle, expected);
+        }
+        assertArrayEquals("replaying the chain reproduces the order", expected, described("recorded"));
+        assertArrayEquals(expected, described("recorded"));
+
+        final byte[] sorted = expected.clone();
+        Arrays.sort(sorted);
+        for(int i = 0; i < Card.COUNT; i++) {
+            assertEquals(i, sorted[i]);
+        }
+    }
+
+    @Test public void longChainsAreWorkedOut() throws Exception {
+        lazy.CREATE.handle("lazy", createRequest("long"));
+        for(int i = 0; i < 8; i++) {
+            lazy.RANDOMIZE.handle("lazy", body("long"));
+        }
+        final Deck full = store.findOne("long").get();
+        assertEquals(8, full.pending().length);
+
+        lazy.RANDOMIZE.handle("lazy", body("long"));
+        final Deck restarted = store.findOne("long").get();
+        assertEquals(1, restarted.pending().length);
+        assertArrayEquals(ShuffleChain.materialize(full).ordinals(), restarted.ordinals());
+    }
+
+    @Test public void eagerShufflesWorkOutPendingOnes() throws Exception {
+        lazy.CREATE.handle("lazy", createRequest("mixed"));
+        lazy.RANDOMIZE.handle("lazy", body("mixed"));
+        final byte[] lazyOrder = described("mixed");
+
+        new DeckHandlers(store, 10).SHUFFLE.handle("eager", body("mixed"));
+        final Deck stored = store.findOne("mixed").get();
+        assertEquals(0, stored.pending().length);
+
+        ShuffleChain.apply(ShuffleChain.HAND, lazyOrder);
+        assertArrayEquals(lazyOrder, stored.ordinals());
+    }
+
+    @Test public void shufflesJournalAsSeeds() throws Exception {
+        final Deck deck = new Deck();
+        deck.setName("journaled");
+        deck.setOrdinals(new byte[Card.COUNT]);
+        deck.setPending(new long[] {ShuffleChain.HAND, ShuffleChain.seeded(RandomSource.threadLocal())});
+
+        assertTrue(DeckRecords.change(deck).length * 2 < DeckRecords.upsert(deck).length);
+    }
+}
@@ -0,0 +1,230 @@
+package unit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import shuffle.adapters.store.MappedStore;
+import shuffle.core.Card;
+import shuffle.core.Deck;
+import shuffle.core.DeckHandlers;
+import shuffle.ports.ActionHandler.Status;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static unit.TestDecks.createRequest;
+import static unit.TestDecks.deck;
+
+/*
+ * @author Drew Fead
+ */
+public class MappedStoreTest {
+    File directory;
+    MappedStore store;
+
+    @Before public void init() throws Exception {
+        directory = Files.createTempDirectory("mapped-store").toFile();
+        store = new MappedStore(directory, 4);
+    }
+
+    @After public void cleanup() throws Exception {
+        store.close();
+        for(File f : directory.listFiles()) { f.delete(); }
+        directory.delete();
+    }
+
+    @Test public void survivesReopen() throws Exception {
+        store.upsert(deck("a", 0));
+        store.upsert(deck("b", 1));
+        store.update("b", d -> { d.setOrdinals(deck("b", 2).ordinals()); return d; });
+        store.close();
+
+        store = new MappedStore(directory, 4);
+        final Deck a = store.findOne("a").orElse(null);
+        final Deck b = store.findOne("b").orElse(null);
+        assertNotNull(a);
+        assertNotNull(b);
+        assertArrayEquals(deck("a", 0).ordinals(), a.ordinals());
+        assertArrayEquals(deck("b", 2).ordinals(), b.ordinals());
+        assertEquals(2, b.version());
+    }
+
+    @Test public void recreatedDecksDontRepeatVersions() throws Exception {
+        store.upsert(deck("a", 0));
+        store.update("a", d -> d);
+        store.delete("a");
+        store.close();
+
+        store = new MappedStore(directory, 4);
+        assertEquals(3, store.upsert(deck("a", 1)).get().version());
+        assertEquals("other new decks start above it too", 3, store.upsert(deck("b", 1)).get().version());
+    }
+
+    /**
+     * Flips the first byte of the name in the given copies of a deck, counted from the start of the file.
+     */
+    private void tear(String name, int... copies) throws Exception {
+        final File file = new File(directory, "decks.dat");
+        final byte[] bytes = Files.readAllBytes(file.toPath());
+        final byte[] target = name.getBytes(StandardCharsets.UTF_8);
+
+        final List<Integer> found = new ArrayList<>();
+        for(int i = 0; i + target.length <= bytes.length; i++) {
+            if(Arrays.equals(target, Arrays.copyOfRange(bytes, i, i + target.length))) { found.add(i); }
+        }
+        assertEquals("each deck has two copies", 2, found.size());
+
+        try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+            for(int copy : copies) {
+                raw.seek(found.get(copy));
+                raw.write(bytes[found.get(copy)] ^ 0x20);
+            }
+        }
+    }
+
+    @Test public void tornWritesFallBackToThePreviousVersion() throws Exception {
+        store.upsert(deck("kept", 3));
+        store.upsert(deck("torn", 0));
+        store.update("torn", d -> { d.setOrdinals(deck("torn", 5).ordinals()); return d; });
+        store.close();
+        tear("torn", 1);
+
+        store = new MappedStore(directory, 4);
+        final Deck torn = store.findOne("torn").get();
+        assertEquals(1, torn.version());
+        assertArrayEquals(deck("torn", 0).ordinals(), torn.ordinals());
+        assertArrayEquals(deck("kept", 3).ordinals(), store.findOne("kept").get().ordinals());
+
+        assertEquals(2, store.update("torn", d -> d).get().version());
+    }
+
+    @Test public void decksWithNoGoodCopyAreDropped() throws Exception {
+        store.upsert(deck("kept", 3));
+        store.upsert(deck("torn", 0));
+        store.close();
+        tear("torn", 0, 1);
+
+        store = new MappedStore(directory, 4);
+        assertFalse(store.findOne("torn").isPresent());
+        assertEquals(1, store.findPageAfter(null, 10).size());
+        for(int i = 0; i < 3; i++) {
+            assertTrue("its slot is free again", store.upsert(deck("deck-" + i, i)).isPresent());
+        }
+    }
+
+    @Test public void holdsShoesByDefault() throws Exception {
+        final Deck shoe = new Deck();
+        shoe.setName("shoe");
+        shoe.setOrdinals(new byte[MappedStore.DEFAULT_MAX_CARDS]);
+        assertTrue(store.upsert(shoe).isPresent());
+        store.close();
+
+        store = new MappedStore(directory, 4);
+        assertEquals(MappedStore.DEFAULT_MAX_CARDS, store.findOne("shoe").get().ordinals().length);
+    }
+
+    @Test public void keepsDrawnCards() throws Exception {
+        store.upsert(deck("a", 0));
+        store.update("a", d -> { d.setHead(3); return d; });
+        store.close();
+
+        store = new MappedStore(directory, 4);
+        final Deck a = store.findOne("a").orElse(null);
+        assertNotNull(a);
+        assertEquals(3, a.head());
+        assertArrayEquals(deck("a", 0).ordinals(), a.ordinals());
+        assertEquals(Card.COUNT - 3, a.cards().size());
+    }
+
+    @Test public void rebuildsIndexAfterUncleanShutdown() throws Exception {
+        store.upsert(deck("a", 0));
+        store.upsert(deck("b", 1));
+        store.delete("a");
+
+        final MappedStore reopened = new MappedStore(directory, 4); // never closed the first one
+        assertFalse(reopened.findOne("a").isPresent());
+        assertArrayEquals(deck("b", 1).ordinals(), reopened.findOne("b").get().ordinals());
+        reopened.close();
+    }
+
+    @Test public void reusesDeletedSlots() throws Exception {
+        for(int round = 0; round < 10; round++) {
+            for(int i = 0; i < 4; i++) {
+                assertTrue(store.upsert(deck("deck-" + round + "-" + i, i)).isPresent());
+            }
+            assertFalse("store should be full", store.upsert(deck("overflow", 0)).isPresent());
+            for(int i = 0; i < 4; i++) {
+                store.delete("deck-" + round + "-" + i);
+            }
+        }
+
+        assertTrue(store.findPageAfter(null, 10).isEmpty());
+    }
+
+    @Test public void churnsThroughMoreNamesThanCapacity() throws Exception {
+        store.upsert(deck("kept", 7));
+        for(int i = 0; i < 1000; i++) {
+            assertTrue(store.upsert(deck("churn-" + i, i)).isPresent());
+            assertTrue(store.upsert(deck("churn-" + i + "-b", i)).isPresent());
+            assertTrue(store.findOne("churn-" + i).isPresent());
+            store.delete("churn-" + i);
+            assertFalse(store.findOne("churn-" + i).isPresent());
+            assertTrue(store.findOne("churn-" + i + "-b").isPresent());
+            store.delete("churn-" + i + "-b");
+        }
+        assertArrayEquals(deck("kept", 7).ordinals(), store.findOne("kept").get().ordinals());
+
+        store.close();
+        store = new MappedStore(directory, 4);
+        assertTrue(store.findOne("kept").isPresent());
+        assertEquals(1, store.findPageAfter(null, 10).size());
+        for(int i = 0; i < 3; i++) {
+            assertTrue(store.upsert(deck("after-" + i, i)).isPresent());
+        }
+        assertFalse("every slot is taken", store.upsert(deck("one-too-many", 0)).isPresent());
+    }
+
+    @Test public void lookupsSeeDecksWhileOthersAreDeleted() throws Exception {
+        store.upsert(deck("kept", 7));
+        final Thread churn = new Thread(() -> {
+            for(int i = 0; i < 20_000; i++) {
+                store.upsert(deck("churn-" + i, i));
+                store.delete("churn-" + i);
+            }
+        });
+        churn.start();
+        while(churn.isAlive()) {
+            assertTrue("lost a deck while another was deleted", store.findOne("kept").isPresent());
+        }
+        churn.join();
+    }
+
+    @Test public void pagesInNameOrder() throws Exception {
+        store.upsert(deck("c", 0));
+        store.upsert(deck("a", 0));
+        store.upsert(deck("b", 0));
+
+        final List<Deck> page = store.findPageAfter("a", 5);
+        assertEquals(2, page.size());
+        assertEquals("b", page.get(0).name());
+        assertEquals("c", page.get(1).name());
+        assertEquals("c", store.findPage(1, 2).get(0).name());
+    }
+
+    @Test public void worksBehindHandlers() throws Exception {
+        final DeckHandlers handlers = new DeckHandlers(store, 2);
+        assertEquals(Status.SUCCESS, handlers.CREATE.handle("test-mapped", createRequest("handled")).status());
+        assertEquals(Status.SUCCESS, handlers.SHUFFLE.handle("test-mapped", "{\"name\":\"handled\"}".getBytes()).status());
+
+        final Deck deck = store.findOne("handled").orElse(null);
+        assertNotNull(deck);
+        assertEquals(2, deck.version());
+        DeckTest.assertDeckOk(deck);
+    }
+}
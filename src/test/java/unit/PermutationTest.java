@@ -0,0 +1,79 @@
+package unit;
+
+import org.junit.Test;
+import shuffle.core.Permutation;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/*
+ * @author Drew Fead
+ */
+public class PermutationTest {
+
+    private static byte[] sequence(int size) {
+        final byte[] out = new byte[size];
+        for(int i = 0; i < size; i++) {
+            out[i] = (byte) i;
+        }
+
+        return out;
+    }
+
+    private static byte[] interleave(byte[] in) { // the straightforward version the permutation replaces
+        final byte[] out = new byte[in.length];
+        final int half = in.length/2;
+        int j = 0;
+        for(int i = 0; i < half; i++) {
+            out[j++] = in[i];
+            out[j++] = in[half + i];
+        }
+        if(in.length % 2 == 1) {
+            out[j] = in[in.length - 1];
+        }
+
+        return out;
+    }
+
+    @Test public void interleaveMatchesHandShuffle() {
+        for(int size : new int[] {0, 1, 2, 7, 52}) {
+            final byte[] expected = interleave(sequence(size));
+            final byte[] actual = sequence(size);
+            Permutation.interleave(size).permute(actual);
+
+            assertArrayEquals("size " + size, expected, actual);
+        }
+    }
+
+    @Test public void composedShufflesMatchRepeatedShuffles() {
+        byte[] expected = sequence(52);
+        for(int i = 0; i < 5; i++) {
+            expected = interleave(expected);
+        }
+
+        final byte[] actual = sequence(52);
+        Permutation.interleave(52).times(5).permute(actual);
+
+        assertArrayEquals(expected, actual);
+        assertFalse(Arrays.equals(sequence(52), actual));
+    }
+
+    @Test public void thenAppliesInOrder() {
+        final Permutation interleave = Permutation.interleave(52);
+        final Permutation composed = interleave.then(Permutation.identity(52)).then(interleave);
+
+        final byte[] expected = sequence(52);
+        interleave.permute(expected);
+        interleave.permute(expected);
+
+        final byte[] actual = sequence(52);
+        composed.permute(actual);
+
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void rejectsWrongSize() {
+        Permutation.interleave(52).permute(new byte[51]);
+    }
+}
@@ -0,0 +1,62 @@
+package unit;
+
+import org.junit.Test;
+import shuffle.core.RandomSource;
+import shuffle.core.RandomSource.Mode;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/*
+ * @author Drew Fead
+ */
+public class RandomSourceTest {
+
+    @Test public void shufflesArePermutations() {
+        for(Mode mode : Mode.values()) {
+            final RandomSource random = RandomSource.of(mode);
+            final byte[] cards = new byte[52];
+            for(int i = 0; i < cards.length; i++) { cards[i] = (byte) i; }
+
+            random.shuffle(cards);
+
+            final byte[] sorted = cards.clone();
+            Arrays.sort(sorted);
+            for(int i = 0; i < sorted.length; i++) {
+                assertEquals(mode + " lost a card", i, sorted[i]);
+            }
+        }
+    }
+
+    @Test public void cardsAreEquallyLikelyOnTop() {
+        final int trials = 52 * 1000;
+        for(Mode mode : Mode.values()) {
+            final RandomSource random = RandomSource.of(mode);
+            final int[] onTop = new int[52];
+
+            for(int t = 0; t < trials; t++) {
+                final byte[] cards = new byte[52];
+                for(int i = 0; i < cards.length; i++) { cards[i] = (byte) i; }
+                random.shuffle(cards);
+                onTop[cards[0]]++;
+            }
+
+            for(int i = 0; i < onTop.length; i++) {
+                assertTrue(mode + " is biased for card " + i + ": " + onTop[i], onTop[i] > 800 && onTop[i] < 1200);
+            }
+        }
+    }
+
+    @Test public void nextIntStaysInBounds() {
+        for(Mode mode : Mode.values()) {
+            final RandomSource random = RandomSource.of(mode);
+            for(int bound : new int[] {1, 2, 3, 52, 1 << 20, Integer.MAX_VALUE}) {
+                for(int i = 0; i < 1000; i++) {
+                    final int r = random.nextInt(bound);
+                    assertTrue(mode + " out of bounds", r >= 0 && r < bound);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package unit;
+
+import org.junit.After;
+import org.junit.Test;
+import shuffle.adapters.store.InMemoryStore;
+import shuffle.adapters.store.RemoteStore;
+import shuffle.adapters.store.ReplicaStore;
+import shuffle.adapters.store.ReplicationLog;
+import shuffle.adapters.store.StoreHandlers;
+import shuffle.core.Deck;
+import shuffle.core.ShuffleChain;
+import shuffle.ports.ActionHandler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+import static unit.TestDecks.deck;
+
+/*
+ * @author Drew Fead
+ */
+public class ReplicationTest {
+    private ReplicaStore follower;
+
+    @After public void closeFollower() {
+        if(follower != null) { follower.close(); }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while(!condition.getAsBoolean()) {
+            assertTrue("timed out waiting for the follower", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Reaches the leader by calling its handlers directly; polls fail while {@code partitioned} is set.
+     */
+    private static class Leader implements RemoteStore.Transport {
+        final InMemoryStore store;
+        final Map<String, ActionHandler> routes = new HashMap<>();
+        volatile boolean partitioned = false;
+        volatile Runnable duringNextPoll = null; // runs after the next poll is answered but before it's read
+
+        Leader(int logSize) {
+            final ReplicationLog log = new ReplicationLog(logSize);
+            store = new InMemoryStore(log);
+            log.attach(store);
+
+            final StoreHandlers handlers = new StoreHandlers(store);
+            routes.put(ReplicationLog.POLL_PATH, log.POLL);
+            routes.put(RemoteStore.FIND, handlers.FIND);
+            routes.put(RemoteStore.PAGE, handlers.PAGE);
+            routes.put(RemoteStore.UPSERT, handlers.UPSERT);
+            routes.put(RemoteStore.UPSERT_ALL, handlers.UPSERT_ALL);
+            routes.put(RemoteStore.UPDATE, handlers.UPDATE);
+            routes.put(RemoteStore.DELETE, handlers.DELETE);
+            routes.put(RemoteStore.VERSION, handlers.VERSION);
+        }
+
+        public byte[] post(String path, byte[] body) throws IOException {
+            if(partitioned && ReplicationLog.POLL_PATH.equals(path)) {
+                throw new IOException("partitioned");
+            }
+            try {
+                final ActionHandler.Result result = routes.get(path).handle("follower", body);
+                final Runnable during = duringNextPoll;
+                if(during != null && ReplicationLog.POLL_PATH.equals(path)) {
+                    duringNextPoll = null;
+                    during.run();
+                }
+                return result.payload();
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private static List<String> names(List<Deck> decks) {
+        return decks.stream().map(Deck::name).collect(Collectors.toList());
+    }
+
+    @Test public void followerCopiesSnapshotThenChanges() throws Exception {
+        final Leader leader = new Leader(1000);
+        leader.store.upsert(deck("a", 1));
+        leader.store.upsert(deck("b", 2));
+
+        follower = new ReplicaStore(leader, 60_000, 50);
+        await(() -> follower.isFresh() && follower.findOne("b").isPresent());
+
+        leader.store.upsert(deck("c", 3));
+        leader.store.update("a", d -> deck("a", 9));
+        leader.store.delete("b");
+
+        await(() -> follower.findOne("c").isPresent() && !follower.findOne("b").isPresent());
+        assertEquals(9, follower.findOne("a").get().ordinals()[0]);
+        assertEquals(2, follower.findOne("a").get().version());
+        assertEquals(names(leader.store.findPageAfter(null, 10)), names(follower.findPageAfter(null, 10)));
+    }
+
+    private static Deck shuffled(Deck deck, long seed) {
+        deck.setPending(ShuffleChain.then(deck.pending(), seed << 1 | 1));
+        return deck;
+    }
+
+    @Test public void shufflesDuringSnapshotAreAppliedOnce() throws Exception {
+        final Leader leader = new Leader(1000);
+        leader.store.upsert(deck("a", 1));
+        leader.store.update("a", d -> shuffled(d, 1));
+        leader.duringNextPoll = () -> leader.store.update("a", d -> shuffled(d, 2)); // lands in the snapshot too
+
+        follower = new ReplicaStore(leader, 60_000, 50);
+        await(() -> follower.isFresh() && follower.findOne("a").isPresent());
+        leader.store.update("a", d -> shuffled(d, 3));
+
+        await(() -> follower.findOne("a").get().version() == 4);
+        final Deck expected = leader.store.findOne("a").get();
+        final Deck actual = follower.findOne("a").get();
+        assertArrayEquals(expected.pending(), actual.pending());
+        assertArrayEquals(ShuffleChain.materialize(expected).ordinals(), ShuffleChain.materialize(actual).ordinals());
+    }
+
+    @Test public void resyncsAfterFallingBehindTheLog() throws Exception {
+        final Leader leader = new Leader(4);
+        follower = new ReplicaStore(leader, 60_000, 50);
+        await(follower::isFresh);
+
+        leader.partitioned = true;
+        for(int i = 0; i < 20; i++) {
+            leader.store.upsert(deck("deck-" + i, i));
+        }
+        leader.store.delete("deck-0");
+        leader.partitioned = false;
+
+        await(() -> follower.findPageAfter(null, 100).size() == 19);
+        assertEquals(names(leader.store.findPageAfter(null, 100)), names(follower.findPageAfter(null, 100)));
+    }
+
+    @Test public void staleFollowerReadsFromLeader() throws Exception {
+        final Leader leader = new Leader(1000);
+        follower = new ReplicaStore(leader, 100, 20);
+        await(follower::isFresh);
+
+        leader.partitioned = true;
+        leader.store.upsert(deck("late", 7));
+
+        await(() -> !follower.isFresh());
+        assertEquals(7, follower.findOne("late").get().ordinals()[0]);
+        assertEquals(1, follower.findPageAfter(null, 10).size());
+    }
+
+    @Test public void writesGoThroughLeader() throws Exception {
+        final Leader leader = new Leader(1000);
+        follower = new ReplicaStore(leader, 60_000, 50);
+        await(follower::isFresh);
+
+        follower.upsert(deck("x", 4));
+        assertTrue(leader.store.findOne("x").isPresent());
+        await(() -> follower.findOne("x").isPresent());
+
+        follower.delete("x");
+        assertFalse(leader.store.findOne("x").isPresent());
+        await(() -> !follower.findOne("x").isPresent());
+    }
+
+    @Test public void concurrentWritesAllReachTheFollower() throws Exception {
+        final Leader leader = new Leader(1 << 16);
+        follower = new ReplicaStore(leader, 60_000, 50);
+        await(follower::isFresh);
+
+        final int threads = 8, writes = 500;
+        leader.store.upsert(deck("shared", 0));
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final List<Future<?>> futures = new ArrayList<>();
+        for(int t = 0; t < threads; t++) {
+            final String own = "own-" + t;
+            futures.add(pool.submit(() -> {
+                leader.store.upsert(deck(own, 0));
+                for(int i = 0; i < writes; i++) {
+                    final long seed = i;
+                    leader.store.update(own, d -> shuffled(d, seed));
+                    leader.store.update("shared", d -> shuffled(d, seed));
+                }
+                return null;
+            }));
+        }
+        for(Future<?> f : futures) { f.get(); }
+        pool.shutdown();
+
+        await(() -> follower.findOne("shared").get().version() == 1 + threads * writes);
+        for(Deck expected : leader.store.findPageAfter(null, 100)) {
+            final Deck actual = follower.findOne(expected.name()).get();
+            assertEquals(expected.version(), actual.version());
+            assertArrayEquals(expected.pending(), actual.pending());
+        }
+    }
+}
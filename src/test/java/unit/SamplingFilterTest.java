@@ -0,0 +1,62 @@
+package unit;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.core.spi.FilterReply;
+import org.junit.Test;
+import shuffle.app.SamplingFilter;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/*
+ * @author Drew Fead
+ */
+public class SamplingFilterTest {
+    final LoggerContext ctx = new LoggerContext();
+
+    private static int kept(SamplingFilter filter, Logger logger, Level level, int events) {
+        int kept = 0;
+        for(int i = 0; i < events; i++) {
+            if(filter.decide(null, logger, level, "event {}", new Object[] {i}, null) == FilterReply.NEUTRAL) {
+                kept++;
+            }
+        }
+
+        return kept;
+    }
+
+    @Test public void parse() throws Exception {
+        final Map<String, Integer> rates = SamplingFilter.parse(" shuffle.adapters.store=100, shuffle.core=10 ,");
+        assertEquals(2, rates.size());
+        assertEquals(Integer.valueOf(100), rates.get("shuffle.adapters.store"));
+        assertEquals(Integer.valueOf(10), rates.get("shuffle.core"));
+        assertTrue(SamplingFilter.parse(null).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseRejectsMissingRate() throws Exception {
+        SamplingFilter.parse("shuffle.core");
+    }
+
+    @Test public void samplesByLongestCategory() throws Exception {
+        final SamplingFilter filter = new SamplingFilter(SamplingFilter.parse("shuffle=1,shuffle.adapters.store=100"));
+
+        final int store = kept(filter, ctx.getLogger("shuffle.adapters.store.InMemoryStore"), Level.INFO, 100_000);
+        assertTrue("about 1 in 100, kept " + store, store > 500 && store < 1500);
+
+        assertEquals(1000, kept(filter, ctx.getLogger("shuffle.core.DeckHandlers"), Level.INFO, 1000));
+        assertEquals(1000, kept(filter, ctx.getLogger("org.eclipse.jetty.Server"), Level.INFO, 1000));
+    }
+
+    @Test public void neverSamplesWarningsOrEnabledChecks() throws Exception {
+        final SamplingFilter filter = new SamplingFilter(SamplingFilter.parse("shuffle=1000000"));
+        final Logger logger = ctx.getLogger("shuffle.adapters.store.MappedStore");
+
+        assertEquals(100, kept(filter, logger, Level.WARN, 100));
+        assertEquals(100, kept(filter, logger, Level.ERROR, 100));
+        assertEquals(FilterReply.NEUTRAL, filter.decide(null, logger, Level.INFO, null, null, null));
+    }
+}
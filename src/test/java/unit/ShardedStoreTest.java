@@ -0,0 +1,228 @@
+package unit;
+
+import org.junit.Test;
+import shuffle.adapters.store.InMemoryStore;
+import shuffle.adapters.store.RemoteStore;
+import shuffle.adapters.store.ShardedStore;
+import shuffle.adapters.store.StoreHandlers;
+import shuffle.core.Card;
+import shuffle.core.Deck;
+import shuffle.core.DeckHandlers;
+import shuffle.ports.ActionHandler;
+import shuffle.ports.DeckStore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+import static unit.TestDecks.createRequest;
+
+/*
+ * @author Drew Fead
+ */
+public class ShardedStoreTest {
+
+    private static Deck deck(String name) {
+        final Deck deck = new Deck();
+        deck.setName(name);
+        deck.setOrdinals(new byte[Card.COUNT]);
+        return deck;
+    }
+
+    private static Map<String, DeckStore> nodes(DeckStore... stores) {
+        final Map<String, DeckStore> out = new HashMap<>();
+        for(int i = 0; i < stores.length; i++) {
+            out.put("node-" + i, stores[i]);
+        }
+        return out;
+    }
+
+    /**
+     * Reaches another "instance" by calling its store handlers directly, without HTTP in between.
+     */
+    private static RemoteStore remote(DeckStore store) {
+        final StoreHandlers handlers = new StoreHandlers(store);
+        final Map<String, ActionHandler> routes = new HashMap<>();
+        routes.put(RemoteStore.FIND, handlers.FIND);
+        routes.put(RemoteStore.PAGE, handlers.PAGE);
+        routes.put(RemoteStore.UPSERT, handlers.UPSERT);
+        routes.put(RemoteStore.UPSERT_ALL, handlers.UPSERT_ALL);
+        routes.put(RemoteStore.UPDATE, handlers.UPDATE);
+        routes.put(RemoteStore.DELETE, handlers.DELETE);
+        routes.put(RemoteStore.VERSION, handlers.VERSION);
+
+        return new RemoteStore((path, body) -> {
+            try {
+                return routes.get(path).handle("remote", body).payload();
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        });
+    }
+
+    @Test public void spreadsDecksOverNodes() throws Exception {
+        final InMemoryStore a = new InMemoryStore(), b = new InMemoryStore(), c = new InMemoryStore();
+        final ShardedStore sharded = new ShardedStore(nodes(a, b, c), ShardedStore.DEFAULT_VIRTUAL_NODES);
+
+        final int count = 3000;
+        final List<Deck> decks = new ArrayList<>();
+        for(int i = 0; i < count; i++) {
+            decks.add(deck(String.format("deck-%04d", i)));
+        }
+        assertEquals(count, sharded.upsertAll(decks).size());
+
+        int total = 0;
+        for(InMemoryStore node : new InMemoryStore[] {a, b, c}) {
+            final int held = node.findPageAfter(null, count).size();
+            assertTrue("each node should hold a fair share, held " + held, held > count / 5 && held < count / 2);
+            total += held;
+        }
+        assertEquals("every deck lives on exactly one node", count, total);
+
+        for(Deck d : decks) {
+            assertTrue(sharded.findOne(d.name()).isPresent());
+        }
+    }
+
+    @Test public void ringIsStableAcrossInstances() throws Exception {
+        final InMemoryStore a = new InMemoryStore(), b = new InMemoryStore();
+        final Map<String, DeckStore> forward = new HashMap<>();
+        forward.put("a", a);
+        forward.put("b", b);
+        final Map<String, DeckStore> reverse = new TreeMap<>(Collections.reverseOrder());
+        reverse.putAll(forward);
+
+        final ShardedStore one = new ShardedStore(forward, 64);
+        final ShardedStore two = new ShardedStore(reverse, 64);
+        for(int i = 0; i < 500; i++) {
+            one.upsert(deck("deck-" + i));
+            assertTrue("both instances agree on the owner", two.findOne("deck-" + i).isPresent());
+        }
+    }
+
+    @Test public void mergesPagesInNameOrder() throws Exception {
+        final ShardedStore sharded = new ShardedStore(
+            nodes(new InMemoryStore(), new InMemoryStore(), new InMemoryStore()), 32);
+        final List<String> names = new ArrayList<>();
+        for(int i = 0; i < 100; i++) {
+            names.add(String.format("deck-%03d", i));
+            sharded.upsert(deck(names.get(i)));
+        }
+
+        final List<String> walked = new ArrayList<>();
+        String after = null;
+        for(List<Deck> page = sharded.findPageAfter(null, 7); !page.isEmpty(); page = sharded.findPageAfter(after, 7)) {
+            page.forEach(d -> walked.add(d.name()));
+            after = page.get(page.size() - 1).name();
+        }
+        assertEquals(names, walked);
+
+        assertEquals(names.subList(40, 50),
+            sharded.findPage(10, 40).stream().map(Deck::name).collect(Collectors.toList()));
+    }
+
+    @Test public void remoteNodesKeepEveryConcurrentUpdate() throws Exception {
+        final InMemoryStore a = new InMemoryStore(), b = new InMemoryStore();
+
+        final Map<String, DeckStore> fromA = new HashMap<>();
+        fromA.put("a", a);
+        fromA.put("b", remote(b));
+        final Map<String, DeckStore> fromB = new HashMap<>();
+        fromB.put("a", remote(a));
+        fromB.put("b", b);
+
+        final DeckHandlers instanceA = new DeckHandlers(new ShardedStore(fromA, 64), 10);
+        final DeckHandlers instanceB = new DeckHandlers(new ShardedStore(fromB, 64), 10);
+
+        final List<String> names = new ArrayList<>();
+        for(int i = 0; i < 10; i++) {
+            names.add("shared-" + i);
+            assertEquals(ActionHandler.Status.SUCCESS,
+                instanceA.CREATE.handle("create", createRequest(names.get(i))).status());
+        }
+
+        final int shuffles = 50;
+        final ExecutorService pool = Executors.newFixedThreadPool(4);
+        final List<Future<?>> futures = new ArrayList<>();
+        for(DeckHandlers instance : new DeckHandlers[] {instanceA, instanceB, instanceA, instanceB}) {
+            futures.add(pool.submit(() -> {
+                for(int i = 0; i < shuffles; i++) {
+                    for(String name : names) {
+                        final byte[] req = ("{\"name\":\"" + name + "\"}").getBytes();
+                        assertEquals(ActionHandler.Status.SUCCESS, instance.SHUFFLE.handle("shuffle", req).status());
+                    }
+                }
+                return null;
+            }));
+        }
+        for(Future<?> f : futures) { f.get(); }
+        pool.shutdown();
+
+        for(String name : names) {
+            final Deck deck = (a.findOne(name).isPresent()? a : b).findOne(name).get();
+            assertEquals("no update lost", 1 + 4 * shuffles, deck.version());
+            DeckTest.assertDeckOk(deck);
+        }
+
+        instanceB.DELETE.handle("delete", names.get(0).getBytes());
+        assertFalse(a.findOne(names.get(0)).isPresent() || b.findOne(names.get(0)).isPresent());
+    }
+
+    @Test public void upsertAllAnswersInTheOrderGiven() throws Exception {
+        final InMemoryStore skipping = new InMemoryStore() {
+            @Override public List<Deck> upsertAll(List<Deck> decks) {
+                return super.upsertAll(decks.stream()
+                    .filter(d -> !d.name().endsWith("7")).collect(Collectors.toList()));
+            }
+        };
+        final ShardedStore sharded = new ShardedStore(
+            nodes(new InMemoryStore(), skipping, remote(new InMemoryStore())), 32);
+
+        final List<Deck> decks = new ArrayList<>();
+        for(int i = 99; i >= 0; i--) {
+            decks.add(deck("deck-" + i));
+        }
+        final List<String> stored = sharded.upsertAll(decks).stream().map(Deck::name).collect(Collectors.toList());
+
+        final List<String> expected = decks.stream().map(Deck::name)
+            .filter(name -> sharded.findOne(name).isPresent()).collect(Collectors.toList());
+        assertTrue("a node left some out", expected.size() < decks.size());
+        assertEquals(expected, stored);
+    }
+
+    @Test public void remoteDecksAreCheckedBeforeTheyreStored() throws Exception {
+        final InMemoryStore store = new InMemoryStore();
+        final StoreHandlers handlers = new StoreHandlers(store);
+
+        final String[] bad = {
+            "{\"name\":\"bad\",\"cards\":[0,1,-1]}",
+            "{\"name\":\"bad\",\"cards\":[0,1,52]}",
+            "{\"name\":\"bad\",\"cards\":[0,1,2],\"head\":4}",
+            "{\"name\":\"bad\",\"cards\":[0,1,2],\"head\":-1}",
+            "{\"name\":\"bad\",\"cards\":[0,1,2],\"pending\":[0,2]}",
+            "{\"cards\":[0,1,2]}",
+        };
+        for(String deck : bad) {
+            assertEquals(deck, ActionHandler.Status.REJECTED,
+                handlers.UPSERT.handle("upsert", ("{\"deck\":" + deck + "}").getBytes()).status());
+            final String both = "{\"decks\":[{\"name\":\"good\",\"cards\":[0]}," + deck + "]}";
+            assertEquals(deck, ActionHandler.Status.REJECTED,
+                handlers.UPSERT_ALL.handle("upsert", both.getBytes()).status());
+            assertEquals(deck, ActionHandler.Status.REJECTED,
+                handlers.UPDATE.handle("update", ("{\"expected\":1,\"deck\":" + deck + "}").getBytes()).status());
+        }
+        assertTrue("nothing was stored", store.findPageAfter(null, 10).isEmpty());
+
+        assertEquals(ActionHandler.Status.SUCCESS, handlers.UPSERT.handle("upsert",
+            "{\"deck\":{\"name\":\"good\",\"cards\":[0,1,51],\"head\":3,\"pending\":[0,3]}}".getBytes()).status());
+    }
+}
@@ -0,0 +1,144 @@
+package unit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import shuffle.adapters.store.DeckDeltas;
+import shuffle.adapters.store.InMemoryStore;
+import shuffle.core.Card;
+import shuffle.core.Deck;
+import shuffle.core.DeckHandlers;
+import shuffle.core.MergeShuffle;
+import shuffle.core.RandomSource;
+import shuffle.core.ResponseCache;
+import shuffle.core.ShuffleChain;
+import shuffle.ports.ActionHandler;
+import shuffle.ports.ActionHandler.Status;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static unit.TestDecks.createRequest;
+
+/*
+ * @author Drew Fead
+ */
+public class ShoeTest {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final InMemoryStore store = new InMemoryStore();
+    private final DeckHandlers handlers =
+        new DeckHandlers(store, 10, new ResponseCache(1 << 20), RandomSource.threadLocal(), 0, 6 * Card.COUNT);
+
+    private static byte[] json(String json) {
+        return json.replace('\'', '"').getBytes();
+    }
+
+    /**
+     * Every card of the first {@code size % 52} ordinals appears once more than the rest.
+     */
+    private static void assertShoeOk(int size, byte[] cards) {
+        assertEquals(size, cards.length);
+        final int[] counts = new int[Card.COUNT];
+        for(byte card : cards) {
+            counts[card]++;
+        }
+        for(int i = 0; i < Card.COUNT; i++) {
+            assertEquals("copies of card " + i, size / Card.COUNT + (i < size % Card.COUNT? 1 : 0), counts[i]);
+        }
+    }
+
+    private static byte[] sorted(int size) {
+        final byte[] cards = new byte[size];
+        for(int i = 0; i < size; i++) {
+            cards[i] = (byte) (i % Card.COUNT);
+        }
+        return cards;
+    }
+
+    @Test public void createsShoesOfTheConfiguredSize() throws Exception {
+        assertEquals(Status.SUCCESS, handlers.CREATE.handle("shoe", createRequest("six")).status());
+        assertShoeOk(6 * Card.COUNT, store.findOne("six").get().ordinals());
+
+        final ActionHandler.Result bulk = handlers.CREATE_BULK.handle("shoe", json("{'names':['eight'],'decks':8}"));
+        assertEquals(Status.SUCCESS, bulk.status());
+        assertShoeOk(8 * Card.COUNT, store.findOne("eight").get().ordinals());
+
+        handlers.CREATE_BULK.handle("shoe", json("{'names':['custom'],'cards':20001}"));
+        assertShoeOk(20001, store.findOne("custom").get().ordinals());
+
+        assertEquals(Status.REJECTED,
+            handlers.CREATE_BULK.handle("shoe", json("{'names':['huge'],'cards':65536}")).status());
+        assertEquals(Status.REJECTED,
+            handlers.CREATE_BULK.handle("shoe", json("{'names':['none'],'decks':0}")).status());
+        assertFalse(store.findOne("huge").isPresent());
+    }
+
+    @Test public void createTakesTheSameSizesAsBulk() throws Exception {
+        assertEquals(Status.SUCCESS, handlers.CREATE.handle("shoe", json("{'name':'two','decks':2}")).status());
+        assertShoeOk(2 * Card.COUNT, store.findOne("two").get().ordinals());
+
+        assertEquals(Status.SUCCESS, handlers.CREATE.handle("shoe", json("{'name':'odd','cards':70}")).status());
+        assertShoeOk(70, store.findOne("odd").get().ordinals());
+
+        assertEquals(Status.REJECTED, handlers.CREATE.handle("shoe", json("{'name':'huge','cards':65536}")).status());
+        assertFalse(store.findOne("huge").isPresent());
+    }
+
+    @Test public void shufflesKeepEveryCardOfAnySize() throws Exception {
+        for(int size : new int[] {1, 2, 53, 8 * Card.COUNT + 1, 30001}) {
+            final String name = "size-" + size;
+            handlers.CREATE_BULK.handle("shoe", json("{'names':['" + name + "'],'cards':" + size + "}"));
+            for(ActionHandler shuffle : new ActionHandler[] {handlers.SHUFFLE, handlers.RANDOMIZE}) {
+                final byte[] request = json("{'name':'" + name + "'}");
+                final JsonNode reply = mapper.readTree(shuffle.handle("shoe", request).payload());
+                assertEquals(size, reply.get("cards").size());
+                assertShoeOk(size, store.findOne(name).get().ordinals());
+            }
+        }
+    }
+
+    @Test public void mergeShuffleIsUniform() {
+        final int trials = 72_000;
+        final Map<String, Integer> seen = new HashMap<>();
+        final RandomSource random = RandomSource.splittable();
+        for(int t = 0; t < trials; t++) {
+            final byte[] cards = {0, 1, 2, 3, 4};
+            MergeShuffle.shuffle(cards, random, 1);
+            seen.merge("" + cards[0] + cards[1] + cards[2] + cards[3] + cards[4], 1, Integer::sum);
+        }
+
+        assertEquals(120, seen.size());
+        seen.forEach((order, count) -> assertTrue(order + " came up " + count, count > 450 && count < 750));
+    }
+
+    @Test public void seededShufflesReplayInParallel() {
+        final int size = MergeShuffle.PARALLEL_CARDS * 2 + 7;
+        final byte[] first = sorted(size);
+        final byte[] second = sorted(size);
+        RandomSource.seeded(42).shuffle(first);
+        RandomSource.seeded(42).shuffle(second);
+
+        assertArrayEquals(first, second);
+        assertShoeOk(size, first);
+
+        final Deck deck = new Deck();
+        deck.setName("replayed");
+        deck.setOrdinals(sorted(size));
+        deck.setPending(new long[] {42L << 1 | 1, ShuffleChain.HAND});
+        ShuffleChain.apply(ShuffleChain.HAND, first);
+        assertArrayEquals(first, ShuffleChain.materialize(deck).ordinals());
+    }
+
+    @Test public void shoeDeltasRoundTrip() {
+        final byte[] older = sorted(8 * Card.COUNT);
+        RandomSource.splittable().shuffle(older);
+        final byte[] newer = older.clone();
+        RandomSource.splittable().shuffle(newer);
+
+        final byte[] delta = DeckDeltas.diff(older, newer);
+        assertEquals(DeckDeltas.RANKED, delta[0]);
+        assertArrayEquals(older, DeckDeltas.apply(newer, delta));
+    }
+}
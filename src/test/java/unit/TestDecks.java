@@ -0,0 +1,37 @@
+package unit;
+
+import shuffle.core.Card;
+import shuffle.core.Deck;
+
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Decks for the store tests, each one recognisable by its first card.
+ *
+ * @author Drew Fead
+ */
+final class TestDecks {
+    private TestDecks() {}
+
+    /**
+     * @return a full deck named {@code name}, in order but rotated to start at the card {@code first}
+     */
+    static Deck deck(String name, int first) {
+        final byte[] cards = new byte[Card.COUNT];
+        for(int i = 0; i < cards.length; i++) {
+            cards[i] = (byte) ((first + i) % Card.COUNT);
+        }
+
+        final Deck deck = new Deck();
+        deck.setName(name);
+        deck.setOrdinals(cards);
+        return deck;
+    }
+
+    /**
+     * @return the body of a request to create a deck named {@code name}
+     */
+    static byte[] createRequest(String name) {
+        return ("{\"name\":\"" + name + "\"}").getBytes(StandardCharsets.UTF_8);
+    }
+}